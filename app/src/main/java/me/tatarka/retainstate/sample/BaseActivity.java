@@ -3,6 +3,10 @@ package me.tatarka.retainstate.sample;
 import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
+import me.tatarka.loader.LoaderDump;
 import me.tatarka.loader.LoaderManager;
 import me.tatarka.retainstate.RetainState;
 
@@ -37,6 +41,25 @@ public abstract class BaseActivity extends AppCompatActivity implements RetainSt
         return retainState;
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        loaderManager.resume();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        loaderManager.pause();
+    }
+
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        // adb shell dumpsys activity me.tatarka.retainstate.sample
+        LoaderDump.dump(prefix, writer, retainState);
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
@@ -34,6 +34,18 @@ public class BaseFragment extends Fragment implements RetainState.Provider {
         return retainState;
     }
 
+    @Override
+    public void onStart() {
+        super.onStart();
+        loaderManager.resume();
+    }
+
+    @Override
+    public void onStop() {
+        super.onStop();
+        loaderManager.pause();
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
@@ -1,6 +1,7 @@
 package me.tatarka.retainstate.sample;
 
 import me.tatarka.loader.AsyncTaskLoader;
+import me.tatarka.loader.CancellationToken;
 import me.tatarka.retainstate.RetainState;
 
 public class ModelLoader extends AsyncTaskLoader<String> {
@@ -13,13 +14,16 @@ public class ModelLoader extends AsyncTaskLoader<String> {
     };
 
     @Override
-    protected String doInBackground() {
+    protected boolean interruptOnCancel() {
+        return true;
+    }
+
+    @Override
+    protected String doInBackground(CancellationToken token) {
         try {
             for (int i = 0; i < 10; i++) {
                 Thread.sleep(200);
-                if (!isRunning()) {
-                    return null;
-                }
+                token.throwIfCanceled();
             }
             return "Async Load finished";
         } catch (InterruptedException e) {
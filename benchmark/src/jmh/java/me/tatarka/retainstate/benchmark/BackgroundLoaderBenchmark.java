@@ -0,0 +1,66 @@
+package me.tatarka.retainstate.benchmark;
+
+import android.os.Looper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.Executor;
+
+import me.tatarka.loader.AsyncTaskLoader;
+import me.tatarka.loader.CancellationToken;
+import me.tatarka.loader.ExecutorLoader;
+
+/**
+ * Per-load overhead of {@link AsyncTaskLoader} vs {@link ExecutorLoader}. The work runs inline on
+ * the benchmark thread so only the loader's own bookkeeping and the hop back to the main thread are
+ * measured, compare {@code gc.alloc.rate.norm} to see the allocations per load.
+ */
+@State(Scope.Thread)
+public class BackgroundLoaderBenchmark {
+
+    static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    AsyncTaskLoader<String> asyncTaskLoader;
+    ExecutorLoader<String> executorLoader;
+    LoaderBenchmark.SinkCallbacks callbacks;
+
+    @Setup
+    public void setup() {
+        callbacks = new LoaderBenchmark.SinkCallbacks();
+        asyncTaskLoader = new AsyncTaskLoader<String>(DIRECT) {
+            @Override
+            protected String doInBackground(CancellationToken token) {
+                return "result";
+            }
+        };
+        asyncTaskLoader.setCallbacks(callbacks);
+        executorLoader = new ExecutorLoader<String>(DIRECT) {
+            @Override
+            protected String doInBackground(CancellationToken token) {
+                return "result";
+            }
+        };
+        executorLoader.setCallbacks(callbacks);
+        Looper.runPending();
+    }
+
+    @Benchmark
+    public void asyncTaskLoader() {
+        asyncTaskLoader.restart();
+        Looper.runPending();
+    }
+
+    @Benchmark
+    public void executorLoader() {
+        executorLoader.restart();
+        Looper.runPending();
+    }
+}
@@ -0,0 +1,83 @@
+package me.tatarka.retainstate.benchmark;
+
+import android.os.Looper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import me.tatarka.loader.Loader;
+
+/**
+ * {@link Loader#setCallbacks(Loader.Callbacks)} re-attachment and result dispatch through {@link
+ * Loader.Receiver#deliverResult(Object)}.
+ */
+@State(Scope.Thread)
+public class LoaderBenchmark {
+
+    BenchmarkLoader loader;
+    SinkCallbacks callbacks;
+    String result = "result";
+
+    @Setup
+    public void setup() {
+        loader = new BenchmarkLoader();
+        callbacks = new SinkCallbacks();
+        loader.start();
+        loader.receiver.deliverResult(result);
+        loader.setCallbacks(callbacks);
+        Looper.runPending();
+    }
+
+    @Benchmark
+    public void setCallbacks() {
+        loader.setCallbacks(null);
+        loader.setCallbacks(callbacks);
+    }
+
+    @Benchmark
+    public void deliverResult() {
+        loader.receiver.deliverResult(result);
+    }
+
+    @Benchmark
+    public void restart() {
+        loader.restart();
+        loader.receiver.deliverResult(result);
+        Looper.runPending();
+    }
+
+    static class BenchmarkLoader extends Loader<String> {
+        Receiver receiver;
+
+        @Override
+        protected void onStart(Receiver receiver) {
+            this.receiver = receiver;
+        }
+    }
+
+    /**
+     * Records what it's called with so the calls can't be optimized away.
+     */
+    static class SinkCallbacks implements Loader.Callbacks<String> {
+        int starts;
+        String result;
+        int completes;
+
+        @Override
+        public void onLoaderStart() {
+            starts++;
+        }
+
+        @Override
+        public void onLoaderResult(String result) {
+            this.result = result;
+        }
+
+        @Override
+        public void onLoaderComplete() {
+            completes++;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package me.tatarka.retainstate.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import me.tatarka.loader.LoaderManager;
+import me.tatarka.retainstate.RetainState;
+
+/**
+ * {@link LoaderManager} operations over {@code count} loaders. {@link #reattach()} is what happens
+ * to every loader on a configuration change.
+ */
+@State(Scope.Thread)
+public class LoaderManagerBenchmark {
+
+    static final RetainState.OnCreate<LoaderBenchmark.BenchmarkLoader> CREATE = new RetainState.OnCreate<LoaderBenchmark.BenchmarkLoader>() {
+        @Override
+        public LoaderBenchmark.BenchmarkLoader onCreate() {
+            return new LoaderBenchmark.BenchmarkLoader();
+        }
+    };
+
+    @Param({"10", "100", "1000"})
+    int count;
+
+    LoaderBenchmark.SinkCallbacks callbacks = new LoaderBenchmark.SinkCallbacks();
+
+    @Benchmark
+    public LoaderManager init() {
+        LoaderManager loaderManager = new LoaderManager();
+        for (int i = 0; i < count; i++) {
+            loaderManager.init(i, CREATE, callbacks);
+        }
+        return loaderManager;
+    }
+
+    @Benchmark
+    public void reattach(Populated populated) {
+        LoaderManager loaderManager = populated.loaderManager;
+        for (int i = 0; i < count; i++) {
+            loaderManager.init(i, CREATE, callbacks);
+        }
+        loaderManager.detach();
+    }
+
+    @Benchmark
+    public void destroy(Populated populated) {
+        populated.loaderManager.destroy();
+    }
+
+    /**
+     * A loader manager with {@code count} started, detached loaders. It's rebuilt for each
+     * invocation since {@link #destroy(Populated)} consumes it, this is only cheap enough relative
+     * to the measured work because the benchmarks loop over every loader.
+     */
+    @State(Scope.Thread)
+    public static class Populated {
+        LoaderManager loaderManager;
+
+        @Setup(Level.Invocation)
+        public void setup(LoaderManagerBenchmark benchmark) {
+            loaderManager = new LoaderManager();
+            for (int i = 0; i < benchmark.count; i++) {
+                loaderManager.init(i, CREATE, null).start();
+            }
+        }
+    }
+}
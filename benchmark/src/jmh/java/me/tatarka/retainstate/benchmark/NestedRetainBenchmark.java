@@ -0,0 +1,54 @@
+package me.tatarka.retainstate.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import me.tatarka.retainstate.RetainState;
+
+/**
+ * Propagation of the retaining flag through a tree of nested {@link RetainState}s, like an
+ * Activity with nested fragments. {@link RetainState#onRetain()} propagates true and the
+ * constructor propagates false when restoring.
+ */
+@State(Scope.Thread)
+public class NestedRetainBenchmark {
+
+    @Param({"1", "3"})
+    int depth;
+
+    @Param({"4", "16"})
+    int fanout;
+
+    RetainState root;
+    Object retained;
+
+    @Setup
+    public void setup() {
+        root = new RetainState(null);
+        populate(root, depth);
+        retained = root.onRetain();
+    }
+
+    private void populate(RetainState parent, int depth) {
+        for (int i = 0; i < fanout; i++) {
+            // Mix in some non-RetainState values like a real tree would have.
+            parent.retain(i * 2 + 1, RetainStateBenchmark.CREATE);
+            if (depth > 0) {
+                populate(parent.retain(i * 2, RetainState.CREATE), depth - 1);
+            }
+        }
+    }
+
+    @Benchmark
+    public Object onRetain() {
+        return root.onRetain();
+    }
+
+    @Benchmark
+    public RetainState restore() {
+        return new RetainState(retained);
+    }
+}
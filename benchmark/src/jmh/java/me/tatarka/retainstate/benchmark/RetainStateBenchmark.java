@@ -0,0 +1,57 @@
+package me.tatarka.retainstate.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import me.tatarka.retainstate.RetainState;
+
+/**
+ * {@link RetainState#retain(int, RetainState.OnCreate)}, {@link RetainState#get(int)} and {@link
+ * RetainState#remove(int)} against a RetainState holding {@code size} items.
+ */
+@State(Scope.Thread)
+public class RetainStateBenchmark {
+
+    static final RetainState.OnCreate<Object> CREATE = new RetainState.OnCreate<Object>() {
+        @Override
+        public Object onCreate() {
+            return new Object();
+        }
+    };
+
+    @Param({"1", "10", "100", "1000"})
+    int size;
+
+    RetainState retainState;
+    int id;
+
+    @Setup
+    public void setup() {
+        retainState = new RetainState(null);
+        for (int i = 0; i < size; i++) {
+            retainState.retain(i, CREATE);
+        }
+        // Look up an id in the middle so binary search does some work.
+        id = size / 2;
+    }
+
+    @Benchmark
+    public Object retainExisting() {
+        return retainState.retain(id, CREATE);
+    }
+
+    @Benchmark
+    public Object get() {
+        return retainState.get(id);
+    }
+
+    @Benchmark
+    public Object removeAndRetain() {
+        Object value = retainState.remove(id);
+        retainState.retain(id, CREATE);
+        return value;
+    }
+}
@@ -0,0 +1,7 @@
+package android.content;
+
+/**
+ * JVM stand-in for {@code android.content.Context}.
+ */
+public abstract class Context {
+}
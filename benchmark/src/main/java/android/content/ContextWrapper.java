@@ -0,0 +1,16 @@
+package android.content;
+
+/**
+ * JVM stand-in for {@code android.content.ContextWrapper}.
+ */
+public class ContextWrapper extends Context {
+    private final Context base;
+
+    public ContextWrapper(Context base) {
+        this.base = base;
+    }
+
+    public Context getBaseContext() {
+        return base;
+    }
+}
@@ -0,0 +1,96 @@
+package android.os;
+
+/**
+ * JVM stand-in for {@code android.os.Handler}. Messages are queued on the {@link Looper} and run
+ * by {@link Looper#runPending()}.
+ */
+public class Handler {
+    final Looper looper;
+    final Callback callback;
+
+    public Handler() {
+        this(Looper.myLooper(), null);
+    }
+
+    public Handler(Looper looper) {
+        this(looper, null);
+    }
+
+    public Handler(Looper looper, Callback callback) {
+        this.looper = looper;
+        this.callback = callback;
+    }
+
+    public void handleMessage(Message msg) {
+    }
+
+    public void dispatchMessage(Message msg) {
+        if (msg.callback != null) {
+            msg.callback.run();
+        } else if (callback == null || !callback.handleMessage(msg)) {
+            handleMessage(msg);
+        }
+    }
+
+    public final Message obtainMessage() {
+        return Message.obtain(this, 0);
+    }
+
+    public final Message obtainMessage(int what) {
+        return Message.obtain(this, what);
+    }
+
+    public final Message obtainMessage(int what, Object obj) {
+        Message m = Message.obtain(this, what);
+        m.obj = obj;
+        return m;
+    }
+
+    public final boolean sendMessage(Message msg) {
+        return sendMessageDelayed(msg, 0);
+    }
+
+    public final boolean sendMessageDelayed(Message msg, long delayMillis) {
+        msg.target = this;
+        looper.queue.enqueue(msg, SystemClock.uptimeMillis() + Math.max(0, delayMillis));
+        return true;
+    }
+
+    public final boolean sendEmptyMessage(int what) {
+        return sendMessage(obtainMessage(what));
+    }
+
+    public final boolean post(Runnable r) {
+        return postDelayed(r, 0);
+    }
+
+    public final boolean postDelayed(Runnable r, long delayMillis) {
+        Message m = Message.obtain();
+        m.callback = r;
+        return sendMessageDelayed(m, delayMillis);
+    }
+
+    public final boolean postAtTime(Runnable r, long uptimeMillis) {
+        return postDelayed(r, uptimeMillis - SystemClock.uptimeMillis());
+    }
+
+    public final void removeCallbacks(Runnable r) {
+        looper.queue.remove(this, 0, r, null);
+    }
+
+    public final void removeMessages(int what) {
+        looper.queue.remove(this, what, null, null);
+    }
+
+    public final void removeMessages(int what, Object object) {
+        looper.queue.remove(this, what, null, object);
+    }
+
+    public final Looper getLooper() {
+        return looper;
+    }
+
+    public interface Callback {
+        boolean handleMessage(Message msg);
+    }
+}
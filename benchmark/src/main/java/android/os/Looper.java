@@ -0,0 +1,29 @@
+package android.os;
+
+/**
+ * JVM stand-in for {@code android.os.Looper}. There is a single main looper whose queue is drained
+ * explicitly with {@link #runPending()} since benchmarks run on whatever thread JMH gives them.
+ */
+public final class Looper {
+    private static final Looper MAIN = new Looper();
+
+    final MessageQueue queue = new MessageQueue();
+
+    private Looper() {
+    }
+
+    public static Looper getMainLooper() {
+        return MAIN;
+    }
+
+    public static Looper myLooper() {
+        return MAIN;
+    }
+
+    /**
+     * Runs all messages that are due, returning the number of messages run.
+     */
+    public static int runPending() {
+        return MAIN.queue.runDue(SystemClock.uptimeMillis());
+    }
+}
@@ -0,0 +1,67 @@
+package android.os;
+
+/**
+ * JVM stand-in for {@code android.os.Message} including the recycling pool, so allocation counts
+ * match the framework.
+ */
+public final class Message {
+    private static final int MAX_POOL_SIZE = 50;
+    private static final Object POOL_LOCK = new Object();
+    private static Message pool;
+    private static int poolSize;
+
+    public int what;
+    public int arg1;
+    public int arg2;
+    public Object obj;
+
+    Handler target;
+    Runnable callback;
+    long when;
+    Message next;
+
+    public static Message obtain() {
+        synchronized (POOL_LOCK) {
+            if (pool != null) {
+                Message m = pool;
+                pool = m.next;
+                m.next = null;
+                poolSize--;
+                return m;
+            }
+        }
+        return new Message();
+    }
+
+    public static Message obtain(Handler h, int what) {
+        Message m = obtain();
+        m.target = h;
+        m.what = what;
+        return m;
+    }
+
+    public void recycle() {
+        what = 0;
+        arg1 = 0;
+        arg2 = 0;
+        obj = null;
+        target = null;
+        callback = null;
+        when = 0;
+        synchronized (POOL_LOCK) {
+            if (poolSize < MAX_POOL_SIZE) {
+                next = pool;
+                pool = this;
+                poolSize++;
+            }
+        }
+    }
+
+    public void sendToTarget() {
+        target.sendMessage(this);
+    }
+
+    public Runnable getCallback() {
+        return callback;
+    }
+}
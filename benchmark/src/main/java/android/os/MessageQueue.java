@@ -0,0 +1,62 @@
+package android.os;
+
+/**
+ * JVM stand-in for {@code android.os.MessageQueue}, a linked list of messages ordered by when
+ * they are due.
+ */
+public final class MessageQueue {
+    private Message head;
+
+    MessageQueue() {
+    }
+
+    void enqueue(Message msg, long when) {
+        msg.when = when;
+        if (head == null || when < head.when) {
+            msg.next = head;
+            head = msg;
+            return;
+        }
+        Message prev = head;
+        while (prev.next != null && prev.next.when <= when) {
+            prev = prev.next;
+        }
+        msg.next = prev.next;
+        prev.next = msg;
+    }
+
+    void remove(Handler target, int what, Runnable callback, Object object) {
+        Message prev = null;
+        Message msg = head;
+        while (msg != null) {
+            Message next = msg.next;
+            boolean matches = msg.target == target
+                    && (callback != null ? msg.callback == callback : msg.callback == null && msg.what == what)
+                    && (object == null || msg.obj == object);
+            if (matches) {
+                if (prev == null) {
+                    head = next;
+                } else {
+                    prev.next = next;
+                }
+                msg.recycle();
+            } else {
+                prev = msg;
+            }
+            msg = next;
+        }
+    }
+
+    int runDue(long now) {
+        int count = 0;
+        while (head != null && head.when <= now) {
+            Message msg = head;
+            head = msg.next;
+            msg.next = null;
+            msg.target.dispatchMessage(msg);
+            msg.recycle();
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,14 @@
+package android.os;
+
+/**
+ * JVM stand-in for {@code android.os.Process}. Thread priorities are ignored.
+ */
+public final class Process {
+    public static final int THREAD_PRIORITY_BACKGROUND = 10;
+
+    private Process() {
+    }
+
+    public static void setThreadPriority(int priority) {
+    }
+}
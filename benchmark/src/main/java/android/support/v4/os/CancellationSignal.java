@@ -0,0 +1,52 @@
+package android.support.v4.os;
+
+/**
+ * JVM stand-in for {@code android.support.v4.os.CancellationSignal}.
+ */
+public final class CancellationSignal {
+    private boolean isCanceled;
+    private OnCancelListener onCancelListener;
+
+    public boolean isCanceled() {
+        synchronized (this) {
+            return isCanceled;
+        }
+    }
+
+    public void throwIfCanceled() {
+        if (isCanceled()) {
+            throw new OperationCanceledException();
+        }
+    }
+
+    public void cancel() {
+        final OnCancelListener listener;
+        synchronized (this) {
+            if (isCanceled) {
+                return;
+            }
+            isCanceled = true;
+            listener = onCancelListener;
+        }
+        if (listener != null) {
+            listener.onCancel();
+        }
+    }
+
+    public void setOnCancelListener(OnCancelListener listener) {
+        synchronized (this) {
+            if (onCancelListener == listener) {
+                return;
+            }
+            onCancelListener = listener;
+            if (!isCanceled || listener == null) {
+                return;
+            }
+        }
+        listener.onCancel();
+    }
+
+    public interface OnCancelListener {
+        void onCancel();
+    }
+}
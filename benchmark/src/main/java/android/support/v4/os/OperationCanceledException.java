@@ -0,0 +1,14 @@
+package android.support.v4.os;
+
+/**
+ * JVM stand-in for {@code android.support.v4.os.OperationCanceledException}.
+ */
+public class OperationCanceledException extends RuntimeException {
+    public OperationCanceledException() {
+        this(null);
+    }
+
+    public OperationCanceledException(String message) {
+        super(message != null ? message : "The operation has been canceled.");
+    }
+}
@@ -0,0 +1,166 @@
+package android.util;
+
+import java.util.Arrays;
+
+/**
+ * JVM stand-in for {@code android.util.SparseArray}. It follows the same sorted-array layout with
+ * lazy deletion so benchmarks see comparable costs and allocations.
+ */
+public class SparseArray<E> implements Cloneable {
+    private static final Object DELETED = new Object();
+
+    private boolean garbage;
+    private int[] keys;
+    private Object[] values;
+    private int size;
+
+    public SparseArray() {
+        this(10);
+    }
+
+    public SparseArray(int initialCapacity) {
+        if (initialCapacity == 0) {
+            keys = new int[0];
+            values = new Object[0];
+        } else {
+            keys = new int[initialCapacity];
+            values = new Object[initialCapacity];
+        }
+    }
+
+    public E get(int key) {
+        return get(key, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    public E get(int key, E valueIfKeyNotFound) {
+        int i = binarySearch(keys, size, key);
+        if (i < 0 || values[i] == DELETED) {
+            return valueIfKeyNotFound;
+        }
+        return (E) values[i];
+    }
+
+    public void delete(int key) {
+        int i = binarySearch(keys, size, key);
+        if (i >= 0 && values[i] != DELETED) {
+            values[i] = DELETED;
+            garbage = true;
+        }
+    }
+
+    public void remove(int key) {
+        delete(key);
+    }
+
+    public void removeAt(int index) {
+        if (values[index] != DELETED) {
+            values[index] = DELETED;
+            garbage = true;
+        }
+    }
+
+    public void put(int key, E value) {
+        int i = binarySearch(keys, size, key);
+        if (i >= 0) {
+            values[i] = value;
+            return;
+        }
+        i = ~i;
+        if (i < size && values[i] == DELETED) {
+            keys[i] = key;
+            values[i] = value;
+            return;
+        }
+        if (garbage && size >= keys.length) {
+            gc();
+            i = ~binarySearch(keys, size, key);
+        }
+        if (size >= keys.length) {
+            int newCapacity = size <= 4 ? 8 : size * 2;
+            keys = Arrays.copyOf(keys, newCapacity);
+            values = Arrays.copyOf(values, newCapacity);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(values, i, values, i + 1, size - i);
+        keys[i] = key;
+        values[i] = value;
+        size++;
+    }
+
+    public int size() {
+        if (garbage) {
+            gc();
+        }
+        return size;
+    }
+
+    public int keyAt(int index) {
+        if (garbage) {
+            gc();
+        }
+        return keys[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    public E valueAt(int index) {
+        if (garbage) {
+            gc();
+        }
+        return (E) values[index];
+    }
+
+    public void setValueAt(int index, E value) {
+        if (garbage) {
+            gc();
+        }
+        values[index] = value;
+    }
+
+    public int indexOfKey(int key) {
+        if (garbage) {
+            gc();
+        }
+        return binarySearch(keys, size, key);
+    }
+
+    public void clear() {
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+        garbage = false;
+    }
+
+    private void gc() {
+        int o = 0;
+        for (int i = 0; i < size; i++) {
+            Object value = values[i];
+            if (value != DELETED) {
+                if (i != o) {
+                    keys[o] = keys[i];
+                    values[o] = value;
+                    values[i] = null;
+                }
+                o++;
+            }
+        }
+        garbage = false;
+        size = o;
+    }
+
+    private static int binarySearch(int[] array, int size, int value) {
+        int lo = 0;
+        int hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int midVal = array[mid];
+            if (midVal < value) {
+                lo = mid + 1;
+            } else if (midVal > value) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return ~lo;
+    }
+}
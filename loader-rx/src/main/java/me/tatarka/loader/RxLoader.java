@@ -1,5 +1,8 @@
 package me.tatarka.loader;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+
 import me.tatarka.retainstate.RetainState;
 import rx.Observable;
 import rx.Observer;
@@ -10,6 +13,10 @@ import rx.functions.Func0;
 
 /**
  * A {@link Loader} that wraps an rxjava {@link Observable}.
+ * <p>
+ * By default only the latest emission is re-delivered when callbacks are attached, like any other
+ * loader. Pass a {@link Replay} to remember more of them, so a screen that is recreated or resumed
+ * gets every emission it missed without re-subscribing.
  */
 public final class RxLoader<T> extends Loader<Result<T>> {
 
@@ -22,23 +29,51 @@ public final class RxLoader<T> extends Loader<Result<T>> {
      * it happens off the main thread (for example, with {@link rx.Observable#subscribeOn(Scheduler)}.
      */
     public static <T> RetainState.OnCreate<RxLoader<T>> create(final Observable<T> observable) {
+        return create(observable, Replay.<T>latest());
+    }
+
+    /**
+     * Returns a new {@code RxLoader} creator that replays emissions to attached callbacks as given.
+     * See {@link #create(Observable)}.
+     */
+    public static <T> RetainState.OnCreate<RxLoader<T>> create(final Observable<T> observable, final Replay<? super T> replay) {
         return new RetainState.OnCreate<RxLoader<T>>() {
             @Override
             public RxLoader<T> onCreate() {
-                return new RxLoader<>(observable);
+                return new RxLoader<>(observable, replay);
             }
         };
     }
 
     private final rx.Observable<T> observable;
+    private final Replay<? super T> replay;
     private Subscription subscription;
+    /**
+     * Emissions kept for replay, oldest first. Only used if replaying more than the latest.
+     */
+    private final ArrayDeque<Emission<T>> buffer = new ArrayDeque<>();
+    private long bufferedBytes;
+    private long sequence;
+    /**
+     * The callbacks that have seen every emission up to {@link #seenSequence}. Weak so that
+     * detached callbacks, like a destroyed Activity, aren't leaked.
+     */
+    private WeakReference<Callbacks<Result<T>>> seenBy;
+    private long seenSequence;
 
     public RxLoader(rx.Observable<T> observable) {
+        this(observable, Replay.<T>latest());
+    }
+
+    public RxLoader(rx.Observable<T> observable, Replay<? super T> replay) {
         this.observable = observable;
+        this.replay = replay;
     }
 
     @Override
     protected void onStart(final Receiver receiver) {
+        // A restarted loader replays only what the new subscription emits.
+        clearReplay();
         subscription = observable
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(new Observer<T>() {
@@ -49,13 +84,13 @@ public final class RxLoader<T> extends Loader<Result<T>> {
 
                     @Override
                     public void onError(Throwable e) {
-                        receiver.deliverResult(Result.<T>error(e));
+                        deliver(receiver, Result.<T>error(e), 0);
                         receiver.complete();
                     }
 
                     @Override
                     public void onNext(T value) {
-                        receiver.deliverResult(Result.success(value));
+                        deliver(receiver, Result.success(value), replay.weigher != null ? replay.weigher.weigh(value) : 0);
                     }
                 });
     }
@@ -64,5 +99,143 @@ public final class RxLoader<T> extends Loader<Result<T>> {
     protected void onCancel() {
         subscription.unsubscribe();
         subscription = null;
+        clearReplay();
+    }
+
+    private void clearReplay() {
+        buffer.clear();
+        bufferedBytes = 0;
+        seenBy = null;
+    }
+
+    private void deliver(Receiver receiver, Result<T> result, long bytes) {
+        if (replay.isLatestOnly()) {
+            receiver.deliverResult(result);
+            return;
+        }
+        sequence++;
+        buffer.addLast(new Emission<>(result, sequence, bytes));
+        bufferedBytes += bytes;
+        // Always keep the latest, it's the loader's result anyway.
+        while (buffer.size() > 1 && (buffer.size() > replay.maxCount || bufferedBytes > replay.maxBytes)) {
+            bufferedBytes -= buffer.removeFirst().bytes;
+        }
+        receiver.deliverResult(result);
+        if (isAttached() && !isPaused()) {
+            markSeen(getCallbacks());
+        }
+    }
+
+    @Override
+    protected void dispatchCachedResult(Callbacks<Result<T>> callbacks, Result<T> cachedResult) {
+        if (replay.isLatestOnly() || buffer.isEmpty()) {
+            super.dispatchCachedResult(callbacks, cachedResult);
+            return;
+        }
+        long after = 0;
+        if (seenBy != null && seenBy.get() == callbacks) {
+            after = seenSequence;
+        }
+        for (Emission<T> emission : buffer) {
+            if (emission.sequence > after) {
+                callbacks.onLoaderResult(emission.result);
+            }
+        }
+        markSeen(callbacks);
+    }
+
+    private void markSeen(Callbacks<Result<T>> callbacks) {
+        if (seenBy == null || seenBy.get() != callbacks) {
+            seenBy = new WeakReference<>(callbacks);
+        }
+        seenSequence = sequence;
+    }
+
+    private static final class Emission<T> {
+        final Result<T> result;
+        final long sequence;
+        final long bytes;
+
+        Emission(Result<T> result, long sequence, long bytes) {
+            this.result = result;
+            this.sequence = sequence;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * How many emissions an {@link RxLoader} keeps to replay to callbacks when they are attached or
+     * the loader is resumed. Callbacks that are re-attached or resumed only get the emissions they
+     * missed, new callbacks get all of them. The latest emission is always kept.
+     */
+    public static final class Replay<T> {
+        private static final Replay<Object> LATEST = new Replay<>(1, Long.MAX_VALUE, null);
+        private static final Replay<Object> ALL = new Replay<>(Integer.MAX_VALUE, Long.MAX_VALUE, null);
+
+        /**
+         * Only the latest emission, like any other loader. This is the default.
+         */
+        @SuppressWarnings("unchecked")
+        public static <T> Replay<T> latest() {
+            return (Replay<T>) LATEST;
+        }
+
+        /**
+         * The last {@code count} emissions.
+         */
+        public static <T> Replay<T> last(int count) {
+            if (count <= 0) {
+                throw new IllegalArgumentException("count <= 0");
+            }
+            return new Replay<>(count, Long.MAX_VALUE, null);
+        }
+
+        /**
+         * Every emission. Prefer bounding it with {@link #maxBytes(long, Weigher)} for long-lived
+         * observables.
+         */
+        @SuppressWarnings("unchecked")
+        public static <T> Replay<T> all() {
+            return (Replay<T>) ALL;
+        }
+
+        final int maxCount;
+        final long maxBytes;
+        final Weigher<? super T> weigher;
+
+        private Replay(int maxCount, long maxBytes, Weigher<? super T> weigher) {
+            this.maxCount = maxCount;
+            this.maxBytes = maxBytes;
+            this.weigher = weigher;
+        }
+
+        /**
+         * Also drops the oldest emissions once the kept ones weigh more than {@code maxBytes}.
+         * Errors weigh nothing.
+         */
+        public Replay<T> maxBytes(long maxBytes, Weigher<? super T> weigher) {
+            if (maxBytes <= 0) {
+                throw new IllegalArgumentException("maxBytes <= 0");
+            }
+            if (weigher == null) {
+                throw new NullPointerException("weigher == null");
+            }
+            return new Replay<>(maxCount, maxBytes, weigher);
+        }
+
+        boolean isLatestOnly() {
+            return maxCount == 1;
+        }
+    }
+
+    /**
+     * Estimates the size of an emission for {@link Replay#maxBytes(long, Weigher)}.
+     */
+    public interface Weigher<T> {
+        /**
+         * Returns the approximate size of the value in bytes. This is called on the main thread for
+         * every emission, so keep it cheap.
+         */
+        long weigh(T value);
     }
 }
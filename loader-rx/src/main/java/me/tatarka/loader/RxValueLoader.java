@@ -0,0 +1,116 @@
+package me.tatarka.loader;
+
+import me.tatarka.retainstate.RetainState;
+import rx.Observable;
+import rx.Observer;
+import rx.Scheduler;
+import rx.Subscription;
+import rx.android.schedulers.AndroidSchedulers;
+import rx.exceptions.OnErrorNotImplementedException;
+import rx.functions.Func0;
+
+/**
+ * A {@link Loader} that wraps an rxjava {@link Observable} like {@link RxLoader}, but delivers each
+ * value as is instead of wrapping it in a {@link Result}. Errors are delivered separately to {@link
+ * Callbacks#onLoaderError(Throwable)}, so use {@link Callbacks} or {@link CallbacksAdapter} as this
+ * loader's callbacks. This avoids allocating on every emission for high-frequency observables,
+ * like sensor readings or progress.
+ * <p>
+ * Like any other loader, only the latest value is re-delivered when callbacks are attached. An
+ * error is re-delivered after it, before {@link Callbacks#onLoaderComplete()}.
+ */
+public final class RxValueLoader<T> extends Loader<T> {
+
+    /**
+     * Returns a new {@code RxValueLoader} creator with the given observable to give to the {@link
+     * LoaderManager}. The given observable must be cold since it's not expected to run until {@link
+     * #start()} is called. You can turn a hot observable into a cold one with {@link
+     * rx.Observable#defer(Func0)}. It is also important to note that the loader will <em>not</em>
+     * change the scheduler that the observable is run with. For any heavy work you need to ensure
+     * it happens off the main thread (for example, with {@link rx.Observable#subscribeOn(Scheduler)}.
+     */
+    public static <T> RetainState.OnCreate<RxValueLoader<T>> create(final Observable<T> observable) {
+        return new RetainState.OnCreate<RxValueLoader<T>>() {
+            @Override
+            public RxValueLoader<T> onCreate() {
+                return new RxValueLoader<>(observable);
+            }
+        };
+    }
+
+    private final rx.Observable<T> observable;
+    private Subscription subscription;
+    private Throwable error;
+
+    public RxValueLoader(rx.Observable<T> observable) {
+        this.observable = observable;
+    }
+
+    @Override
+    protected void onStart(final Receiver receiver) {
+        error = null;
+        subscription = observable
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(new Observer<T>() {
+                    @Override
+                    public void onCompleted() {
+                        receiver.complete();
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        error = e;
+                        if (isAttached() && !isPaused()) {
+                            dispatchError(getCallbacks(), e);
+                        }
+                        receiver.complete();
+                    }
+
+                    @Override
+                    public void onNext(T value) {
+                        receiver.deliverResult(value);
+                    }
+                });
+    }
+
+    @Override
+    protected void onCancel() {
+        subscription.unsubscribe();
+        subscription = null;
+    }
+
+    @Override
+    protected void dispatchHeldState(Loader.Callbacks<T> callbacks) {
+        // The error is only relevant while the run that failed is still the latest.
+        if (error != null && isCompleted()) {
+            dispatchError(callbacks, error);
+        }
+    }
+
+    private static void dispatchError(Loader.Callbacks<?> callbacks, Throwable error) {
+        if (callbacks instanceof Callbacks) {
+            ((Callbacks<?>) callbacks).onLoaderError(error);
+        } else {
+            throw new OnErrorNotImplementedException(error);
+        }
+    }
+
+    /**
+     * Callbacks that also receive the observable's error. If the loader's callbacks don't implement
+     * this, the error is thrown on the main thread like an unhandled rxjava error.
+     */
+    public interface Callbacks<T> extends Loader.Callbacks<T> {
+        /**
+         * Called when the observable errors, before {@link #onLoaderComplete()}, and with that error
+         * when the callback is attached if the loader failed.
+         */
+        void onLoaderError(Throwable error);
+    }
+
+    public static abstract class CallbacksAdapter<T> extends Loader.CallbacksAdapter<T> implements Callbacks<T> {
+        @Override
+        public void onLoaderError(Throwable error) {
+
+        }
+    }
+}
@@ -6,12 +6,17 @@ import org.junit.runner.RunWith;
 import org.robolectric.RobolectricGradleTestRunner;
 import org.robolectric.annotation.Config;
 
+import org.mockito.InOrder;
+
 import rx.schedulers.TestScheduler;
 import rx.subjects.TestSubject;
 
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 @RunWith(RobolectricGradleTestRunner.class)
@@ -98,4 +103,116 @@ public class RxLoaderTest {
         verify(callbacks).onLoaderStart();
         verify(callbacks).onLoaderComplete();
     }
+
+    @Test
+    public void attachDeliversOnlyLatestByDefault() {
+        TestSubject<String> subject = TestSubject.create(scheduler);
+        Loader.Callbacks<Result<String>> callbacks = mock(Loader.Callbacks.class);
+        RxLoader<String> loader = new RxLoader<>(subject);
+        loader.start();
+        subject.onNext("one");
+        subject.onNext("two");
+        scheduler.triggerActions();
+        loader.setCallbacks(callbacks);
+
+        verify(callbacks, never()).onLoaderResult(Result.success("one"));
+        verify(callbacks).onLoaderResult(Result.success("two"));
+    }
+
+    @Test
+    public void attachReplaysAll() {
+        TestSubject<String> subject = TestSubject.create(scheduler);
+        Loader.Callbacks<Result<String>> callbacks = mock(Loader.Callbacks.class);
+        RxLoader<String> loader = new RxLoader<>(subject, RxLoader.Replay.<String>all());
+        loader.start();
+        subject.onNext("one");
+        subject.onNext("two");
+        subject.onNext("three");
+        scheduler.triggerActions();
+        loader.setCallbacks(callbacks);
+
+        InOrder inOrder = inOrder(callbacks);
+        inOrder.verify(callbacks).onLoaderResult(Result.success("one"));
+        inOrder.verify(callbacks).onLoaderResult(Result.success("two"));
+        inOrder.verify(callbacks).onLoaderResult(Result.success("three"));
+    }
+
+    @Test
+    public void attachReplaysLastCount() {
+        TestSubject<String> subject = TestSubject.create(scheduler);
+        Loader.Callbacks<Result<String>> callbacks = mock(Loader.Callbacks.class);
+        RxLoader<String> loader = new RxLoader<>(subject, RxLoader.Replay.<String>last(2));
+        loader.start();
+        subject.onNext("one");
+        subject.onNext("two");
+        subject.onNext("three");
+        scheduler.triggerActions();
+        loader.setCallbacks(callbacks);
+
+        verify(callbacks, never()).onLoaderResult(Result.success("one"));
+        verify(callbacks).onLoaderResult(Result.success("two"));
+        verify(callbacks).onLoaderResult(Result.success("three"));
+    }
+
+    @Test
+    public void attachReplaysWithinMaxBytes() {
+        TestSubject<String> subject = TestSubject.create(scheduler);
+        Loader.Callbacks<Result<String>> callbacks = mock(Loader.Callbacks.class);
+        RxLoader<String> loader = new RxLoader<>(subject, RxLoader.Replay.<String>all().maxBytes(8, new RxLoader.Weigher<String>() {
+            @Override
+            public long weigh(String value) {
+                return value.length();
+            }
+        }));
+        loader.start();
+        subject.onNext("one");
+        subject.onNext("two");
+        subject.onNext("three");
+        subject.onNext("longer than max");
+        scheduler.triggerActions();
+        loader.setCallbacks(callbacks);
+
+        verify(callbacks, never()).onLoaderResult(Result.success("three"));
+        verify(callbacks).onLoaderResult(Result.success("longer than max"));
+    }
+
+    @Test
+    public void reattachReplaysOnlyMissed() {
+        TestSubject<String> subject = TestSubject.create(scheduler);
+        Loader.Callbacks<Result<String>> callbacks = mock(Loader.Callbacks.class);
+        RxLoader<String> loader = new RxLoader<>(subject, RxLoader.Replay.<String>all());
+        loader.setCallbacks(callbacks);
+        loader.start();
+        subject.onNext("one");
+        scheduler.triggerActions();
+        loader.setCallbacks(null);
+        subject.onNext("two");
+        subject.onNext("three");
+        scheduler.triggerActions();
+        loader.setCallbacks(callbacks);
+
+        verify(callbacks, times(1)).onLoaderResult(Result.success("one"));
+        verify(callbacks).onLoaderResult(Result.success("two"));
+        verify(callbacks).onLoaderResult(Result.success("three"));
+    }
+
+    @Test
+    public void resumeReplaysMissed() {
+        TestSubject<String> subject = TestSubject.create(scheduler);
+        Loader.Callbacks<Result<String>> callbacks = mock(Loader.Callbacks.class);
+        RxLoader<String> loader = new RxLoader<>(subject, RxLoader.Replay.<String>all());
+        loader.setCallbacks(callbacks);
+        loader.start();
+        subject.onNext("one");
+        scheduler.triggerActions();
+        loader.pause();
+        subject.onNext("two");
+        subject.onError(new Exception());
+        scheduler.triggerActions();
+        loader.resume();
+
+        verify(callbacks, times(1)).onLoaderResult(Result.success("one"));
+        verify(callbacks).onLoaderResult(Result.success("two"));
+        verify(callbacks).onLoaderComplete();
+    }
 }
@@ -0,0 +1,164 @@
+package me.tatarka.loader;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import rx.Observable;
+import rx.exceptions.OnErrorNotImplementedException;
+import rx.functions.Func0;
+import rx.schedulers.TestScheduler;
+import rx.subjects.TestSubject;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class RxValueLoaderTest {
+
+    TestScheduler scheduler;
+
+    @Before
+    public void setup() {
+        scheduler = new TestScheduler();
+    }
+
+    @Test
+    public void canceledUnsubscribes() {
+        TestSubject<String> subject = TestSubject.create(scheduler);
+        RxValueLoader<String> loader = new RxValueLoader<>(subject);
+        loader.start();
+
+        assertTrue(subject.hasObservers());
+
+        loader.cancel();
+
+        assertFalse(subject.hasObservers());
+    }
+
+    @Test
+    public void onNextDeliversValue() {
+        TestSubject<String> subject = TestSubject.create(scheduler);
+        RxValueLoader.Callbacks<String> callbacks = mock(RxValueLoader.Callbacks.class);
+        RxValueLoader<String> loader = new RxValueLoader<>(subject);
+        loader.setCallbacks(callbacks);
+        loader.start();
+        subject.onNext("test");
+
+        scheduler.triggerActions();
+
+        verify(callbacks).onLoaderStart();
+        verify(callbacks).onLoaderResult("test");
+        verify(callbacks, never()).onLoaderError(any(Throwable.class));
+    }
+
+    @Test
+    public void onErrorCallsErrorCallback() {
+        TestSubject<String> subject = TestSubject.create(scheduler);
+        RxValueLoader.Callbacks<String> callbacks = mock(RxValueLoader.Callbacks.class);
+        Exception error = new Exception();
+        RxValueLoader<String> loader = new RxValueLoader<>(subject);
+        loader.setCallbacks(callbacks);
+        loader.start();
+        subject.onError(error);
+
+        scheduler.triggerActions();
+
+        InOrder inOrder = inOrder(callbacks);
+        inOrder.verify(callbacks).onLoaderError(error);
+        inOrder.verify(callbacks).onLoaderComplete();
+        verify(callbacks, never()).onLoaderResult(any(String.class));
+    }
+
+    @Test
+    public void attachRedeliversValueThenError() {
+        TestSubject<String> subject = TestSubject.create(scheduler);
+        RxValueLoader.Callbacks<String> callbacks = mock(RxValueLoader.Callbacks.class);
+        Exception error = new Exception();
+        RxValueLoader<String> loader = new RxValueLoader<>(subject);
+        loader.start();
+        subject.onNext("test");
+        subject.onError(error);
+        scheduler.triggerActions();
+        loader.setCallbacks(callbacks);
+
+        InOrder inOrder = inOrder(callbacks);
+        inOrder.verify(callbacks).onLoaderResult("test");
+        inOrder.verify(callbacks).onLoaderError(error);
+        inOrder.verify(callbacks).onLoaderComplete();
+    }
+
+    @Test
+    public void resumeDeliversErrorHeldWhilePaused() {
+        TestSubject<String> subject = TestSubject.create(scheduler);
+        RxValueLoader.Callbacks<String> callbacks = mock(RxValueLoader.Callbacks.class);
+        Exception error = new Exception();
+        RxValueLoader<String> loader = new RxValueLoader<>(subject);
+        loader.setCallbacks(callbacks);
+        loader.start();
+        loader.pause();
+        subject.onError(error);
+        scheduler.triggerActions();
+
+        verify(callbacks, never()).onLoaderError(error);
+
+        loader.resume();
+
+        verify(callbacks).onLoaderError(error);
+        verify(callbacks).onLoaderComplete();
+    }
+
+    @Test
+    public void restartForgetsError() {
+        final TestSubject<String> failing = TestSubject.create(scheduler);
+        final TestSubject<String> retry = TestSubject.create(scheduler);
+        RxValueLoader.Callbacks<String> callbacks = mock(RxValueLoader.Callbacks.class);
+        RxValueLoader<String> loader = new RxValueLoader<>(Observable.defer(new Func0<Observable<String>>() {
+            boolean failed;
+
+            @Override
+            public Observable<String> call() {
+                Observable<String> next = failed ? retry : failing;
+                failed = true;
+                return next;
+            }
+        }));
+        loader.start();
+        failing.onError(new Exception());
+        scheduler.triggerActions();
+        loader.restart();
+        loader.setCallbacks(callbacks);
+
+        verify(callbacks).onLoaderStart();
+        verify(callbacks, never()).onLoaderError(any(Throwable.class));
+    }
+
+    @Test
+    public void errorWithPlainCallbacksThrows() {
+        TestSubject<String> subject = TestSubject.create(scheduler);
+        Loader.Callbacks<String> callbacks = mock(Loader.Callbacks.class);
+        Exception error = new Exception();
+        RxValueLoader<String> loader = new RxValueLoader<>(subject);
+        loader.start();
+        subject.onError(error);
+        scheduler.triggerActions();
+
+        try {
+            loader.setCallbacks(callbacks);
+            fail();
+        } catch (OnErrorNotImplementedException e) {
+            assertSame(error, e.getCause());
+        }
+    }
+}
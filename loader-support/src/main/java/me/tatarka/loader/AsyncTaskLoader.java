@@ -12,7 +12,8 @@ import java.util.concurrent.Executor;
 public abstract class AsyncTaskLoader<T> extends Loader<T> {
 
     private final Executor executor;
-    private AsyncTask<Void, Void, T> task;
+    private LoadTask task;
+    private CancellationToken token;
 
     public AsyncTaskLoader() {
         this.executor = AsyncTask.THREAD_POOL_EXECUTOR;
@@ -22,42 +23,130 @@ public abstract class AsyncTaskLoader<T> extends Loader<T> {
         this.executor = executor;
     }
 
+    /**
+     * Runs the work on the {@link Bulkhead} for the given category, like "network" or "disk", so
+     * that slow categories can't starve fast ones. If the bulkhead discards the work because it's
+     * full, the loader completes without a result.
+     */
+    public AsyncTaskLoader(String category) {
+        this.executor = Bulkhead.get(category);
+    }
+
     /**
      * Called on a worker thread to perform the load and return the result. To support cancellation,
-     * this method should periodically check {@link #isRunning()} and return early or throw an
-     * {@link android.support.v4.os.OperationCanceledException} if it returns false.
+     * this method should periodically check {@link CancellationToken#isCanceled()} and return early
+     * or call {@link CancellationToken#throwIfCanceled()}. If you are running a query that takes a
+     * {@link android.support.v4.os.CancellationSignal}, pass it {@link
+     * CancellationToken#getCancellationSignal()}.
      */
-    protected abstract T doInBackground();
+    protected abstract T doInBackground(CancellationToken token);
+
+    /**
+     * Publishes a partial result, like the first page of a list, while {@link
+     * #doInBackground(CancellationToken)} keeps working. Partial results are delivered on the main
+     * thread at most once every {@link #publishIntervalMillis()}, if you publish faster than that
+     * only the latest is delivered. The value returned from {@code doInBackground()} is always
+     * delivered last. This must be called from {@code doInBackground()}.
+     */
+    protected final void publishResult(T result) {
+        ResultThrottle.current(this).publish(result);
+    }
+
+    /**
+     * Override to change the minimum time between partial results delivered with {@link
+     * #publishResult(Object)}. Defaults to 100ms.
+     */
+    protected long publishIntervalMillis() {
+        return 100;
+    }
+
+    /**
+     * Override to return true if the worker thread should be interrupted when the loader is
+     * canceled. Only do this if the work in {@link #doInBackground(CancellationToken)} handles
+     * interruption correctly, otherwise the default of false is safer.
+     */
+    protected boolean interruptOnCancel() {
+        return false;
+    }
 
     @Override
     protected final void onStart(final Receiver receiver) {
-        task = new AsyncTask<Void, Void, T>() {
+        LoadTask task = new LoadTask(receiver, new CancellationToken(interruptOnCancel()));
+        this.task = task;
+        this.token = task.token;
+        task.executeOnExecutor(new Bulkhead.DiscardableExecutor(executor, new Runnable() {
             @Override
-            protected T doInBackground(Void... params) {
-                try {
-                    return AsyncTaskLoader.this.doInBackground();
-                } catch (OperationCanceledException e) {
-                    if (!isRunning()) {
-                        return null;
-                    } else {
-                        // Thrown when not actually canceled, just propagate exception.
-                        throw e;
-                    }
-                }
-            }
-
-            @Override
-            protected void onPostExecute(T value) {
-                receiver.deliverResult(value);
+            public void run() {
+                // It never ran, complete without a result. Ignored if the loader was canceled.
                 receiver.complete();
             }
-        };
-        task.executeOnExecutor(executor);
+        }));
     }
 
     @Override
     protected final void onCancel() {
+        token.cancel();
         task.cancel(false);
         task = null;
+        token = null;
+    }
+
+    private final class LoadTask extends AsyncTask<Void, Void, T> implements ResultThrottle.Host<T> {
+        private final Receiver receiver;
+        final CancellationToken token;
+        private ResultThrottle<T> throttle;
+
+        LoadTask(Receiver receiver, CancellationToken token) {
+            this.receiver = receiver;
+            this.token = token;
+        }
+
+        @Override
+        public Loader<T> getLoader() {
+            return AsyncTaskLoader.this;
+        }
+
+        @Override
+        public ResultThrottle<T> getThrottle() {
+            if (throttle == null) {
+                throttle = new ResultThrottle<>(receiver, token, ResultThrottle.MAIN_HANDLER, publishIntervalMillis());
+            }
+            return throttle;
+        }
+
+        @Override
+        protected T doInBackground(Void... params) {
+            token.enter();
+            ResultThrottle.enter(this);
+            try {
+                return AsyncTaskLoader.this.doInBackground(token);
+            } catch (OperationCanceledException e) {
+                if (token.isCanceled()) {
+                    return null;
+                } else {
+                    // Thrown when not actually canceled, just propagate exception.
+                    throw e;
+                }
+            } finally {
+                ResultThrottle.exit();
+                token.exit();
+            }
+        }
+
+        @Override
+        protected void onPostExecute(T value) {
+            if (throttle != null) {
+                throttle.finish();
+            }
+            receiver.deliverResult(value);
+            receiver.complete();
+        }
+
+        @Override
+        protected void onCancelled(T value) {
+            if (throttle != null) {
+                throttle.finish();
+            }
+        }
     }
 }
@@ -0,0 +1,421 @@
+package me.tatarka.loader;
+
+import android.os.Process;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A named, bounded thread pool for a category of work. Giving slow work (like network requests) its
+ * own bulkhead keeps it from starving fast work (like disk reads) that would otherwise share {@link
+ * android.os.AsyncTask#THREAD_POOL_EXECUTOR} with it and every library in your app.
+ * <p>
+ * Configure bulkheads with {@link Builder} before they are used, for example in {@code
+ * Application.onCreate()}, and use them by name with {@link AsyncTaskLoader#AsyncTaskLoader(String)}
+ * or {@link #get(String)}. A bulkhead that's used without being configured gets the defaults.
+ * <pre>{@code
+ * new Bulkhead.Builder("network").threads(4).queueLimit(32).build();
+ * new Bulkhead.Builder("disk").threads(2).build();
+ * }</pre>
+ */
+public final class Bulkhead implements Executor {
+    private static final int DEFAULT_THREADS = 2;
+    private static final int DEFAULT_QUEUE_LIMIT = 64;
+    private static final int KEEP_ALIVE_SECONDS = 1;
+
+    private static final Map<String, Bulkhead> registry = new HashMap<>();
+
+    /**
+     * Returns the bulkhead with the given name, creating it with the defaults if it hasn't been
+     * built yet.
+     */
+    public static Bulkhead get(String name) {
+        synchronized (registry) {
+            Bulkhead bulkhead = registry.get(name);
+            if (bulkhead == null) {
+                bulkhead = new Builder(name).build();
+            }
+            return bulkhead;
+        }
+    }
+
+    /**
+     * Returns the bulkhead with the given name, creating it with the given number of threads if it
+     * hasn't been built yet.
+     */
+    static Bulkhead get(String name, int defaultThreads) {
+        return get(name, defaultThreads, DISCARD_OLDEST);
+    }
+
+    /**
+     * Returns the bulkhead with the given name, creating it with the given number of threads and
+     * rejection policy if it hasn't been built yet.
+     */
+    static Bulkhead get(String name, int defaultThreads, RejectionPolicy defaultRejectionPolicy) {
+        synchronized (registry) {
+            Bulkhead bulkhead = registry.get(name);
+            if (bulkhead == null) {
+                bulkhead = new Builder(name).threads(defaultThreads).rejectionPolicy(defaultRejectionPolicy).build();
+            }
+            return bulkhead;
+        }
+    }
+
+    /**
+     * Returns every bulkhead that has been created, for reporting.
+     */
+    public static List<Bulkhead> all() {
+        synchronized (registry) {
+            return new ArrayList<>(registry.values());
+        }
+    }
+
+    private final String name;
+    private final int threads;
+    private final int queueLimit;
+    private final BulkheadExecutor executor;
+    private final AtomicInteger rejectedCount = new AtomicInteger();
+
+    private Bulkhead(Builder builder) {
+        this.name = builder.name;
+        this.threads = builder.threads;
+        this.queueLimit = builder.queueLimit;
+        final RejectionPolicy rejectionPolicy = builder.rejectionPolicy;
+        executor = new BulkheadExecutor(threads, queueLimit, new BulkheadThreadFactory(name),
+                new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        rejectedCount.incrementAndGet();
+                        rejectionPolicy.rejected(r, executor);
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        executor.execute(command);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the number of threads work can run on at once.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Returns the number of tasks that can wait before new ones are rejected.
+     */
+    public int getQueueLimit() {
+        return queueLimit;
+    }
+
+    /**
+     * Returns the number of tasks waiting for a thread, including ones {@link #WAIT} holds past the
+     * queue limit.
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size() + executor.getOverflowSize();
+    }
+
+    /**
+     * Returns the approximate number of tasks that are running.
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Returns the number of tasks that were rejected because the queue was full, including ones
+     * {@link #WAIT} held until there was room.
+     */
+    public int getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Returns how full the bulkhead is from 0 to 1, counting both running and waiting tasks. A
+     * bulkhead that's often near 1 needs more threads or is being given too much work. It goes over
+     * 1 while {@link #WAIT} holds tasks past the queue limit.
+     */
+    public float getSaturation() {
+        return (float) (getActiveCount() + getQueueDepth()) / (threads + queueLimit);
+    }
+
+    @Override
+    public String toString() {
+        return "Bulkhead{name=" + name
+                + ", active=" + getActiveCount() + "/" + threads
+                + ", queued=" + getQueueDepth() + "/" + queueLimit
+                + ", rejected=" + getRejectedCount()
+                + ", saturation=" + getSaturation()
+                + "}";
+    }
+
+    /**
+     * Decides what happens to work that doesn't fit in a full bulkhead.
+     */
+    public interface RejectionPolicy {
+        /**
+         * Called with the task that doesn't fit. This is called on the thread that submitted it.
+         */
+        void rejected(Runnable task, ThreadPoolExecutor executor);
+    }
+
+    /**
+     * Throws a {@link RejectedExecutionException} to the caller, so {@link Loader#start()} throws.
+     * This matches what {@link android.os.AsyncTask#THREAD_POOL_EXECUTOR} does.
+     */
+    public static final RejectionPolicy ABORT = new RejectionPolicy() {
+        @Override
+        public void rejected(Runnable task, ThreadPoolExecutor executor) {
+            throw new RejectedExecutionException("Task " + task + " rejected from " + executor);
+        }
+    };
+
+    /**
+     * Cancels the new task. An {@link AsyncTaskLoader} completes without a result.
+     */
+    public static final RejectionPolicy DISCARD = new RejectionPolicy() {
+        @Override
+        public void rejected(Runnable task, ThreadPoolExecutor executor) {
+            cancel(task);
+        }
+    };
+
+    /**
+     * Cancels the task that has been waiting the longest and queues the new task in its place. An
+     * {@link AsyncTaskLoader} whose task is canceled completes without a result. This is the
+     * default since the newest work is usually what the user is looking at.
+     */
+    public static final RejectionPolicy DISCARD_OLDEST = new RejectionPolicy() {
+        @Override
+        public void rejected(Runnable task, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                cancel(task);
+                return;
+            }
+            Runnable oldest = executor.getQueue().poll();
+            if (oldest != null) {
+                cancel(oldest);
+            }
+            executor.execute(task);
+        }
+    };
+
+    /**
+     * Holds the task past the queue limit until there's room, so no work is ever dropped. Use it
+     * for work somebody is waiting on, like the query behind a visible screen. Held tasks run
+     * after the ones already queued.
+     */
+    public static final RejectionPolicy WAIT = new RejectionPolicy() {
+        @Override
+        public void rejected(Runnable task, ThreadPoolExecutor executor) {
+            if (executor instanceof BulkheadExecutor && !executor.isShutdown()) {
+                ((BulkheadExecutor) executor).hold(task);
+            } else {
+                cancel(task);
+            }
+        }
+    };
+
+    /**
+     * Cancels the task if it's a {@link Future}, or discards it if it's a {@link Discardable}, so
+     * whoever is waiting on it finds out.
+     */
+    private static void cancel(Runnable task) {
+        if (task instanceof Future) {
+            ((Future<?>) task).cancel(false);
+        } else if (task instanceof Discardable) {
+            ((Discardable) task).discard();
+        }
+    }
+
+    /**
+     * A task that wants to know when it's discarded without running, like {@link ExecutorLoader}'s.
+     */
+    interface Discardable {
+        void discard();
+    }
+
+    /**
+     * Queues an {@link android.os.AsyncTask}'s work in place of the AsyncTask's own future, pass it
+     * to {@code executeOnExecutor()}. If a bulkhead discards the work, {@code onDiscard} is posted to
+     * the main thread. Otherwise the bulkhead could only cancel the future, which AsyncTask reports
+     * to {@code onPostExecute()} as a null result.
+     */
+    static final class DiscardableExecutor implements Executor, Runnable, Discardable {
+        private final Executor executor;
+        private final Runnable onDiscard;
+        private Runnable work;
+
+        DiscardableExecutor(Executor executor, Runnable onDiscard) {
+            this.executor = executor;
+            this.onDiscard = onDiscard;
+        }
+
+        @Override
+        public void execute(Runnable work) {
+            this.work = work;
+            executor.execute(this);
+        }
+
+        @Override
+        public void run() {
+            work.run();
+        }
+
+        @Override
+        public void discard() {
+            ResultThrottle.MAIN_HANDLER.post(onDiscard);
+        }
+    }
+
+    public static class Builder {
+        private final String name;
+        private int threads = DEFAULT_THREADS;
+        private int queueLimit = DEFAULT_QUEUE_LIMIT;
+        private RejectionPolicy rejectionPolicy = DISCARD_OLDEST;
+
+        public Builder(String name) {
+            if (name == null) {
+                throw new NullPointerException("name == null");
+            }
+            this.name = name;
+        }
+
+        /**
+         * The number of threads work can run on at once. Defaults to 2.
+         */
+        public Builder threads(int threads) {
+            if (threads <= 0) {
+                throw new IllegalArgumentException("threads <= 0");
+            }
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * The number of tasks that can wait for a thread before new ones are rejected. Defaults to
+         * 64.
+         */
+        public Builder queueLimit(int queueLimit) {
+            if (queueLimit <= 0) {
+                throw new IllegalArgumentException("queueLimit <= 0");
+            }
+            this.queueLimit = queueLimit;
+            return this;
+        }
+
+        /**
+         * What to do with work when the queue is full. Defaults to {@link #DISCARD_OLDEST}.
+         */
+        public Builder rejectionPolicy(RejectionPolicy rejectionPolicy) {
+            if (rejectionPolicy == null) {
+                throw new NullPointerException("rejectionPolicy == null");
+            }
+            this.rejectionPolicy = rejectionPolicy;
+            return this;
+        }
+
+        /**
+         * Creates and registers the bulkhead.
+         *
+         * @throws IllegalStateException if a bulkhead with the same name already exists.
+         */
+        public Bulkhead build() {
+            synchronized (registry) {
+                if (registry.containsKey(name)) {
+                    throw new IllegalStateException("Bulkhead " + name + " already exists. Make sure you configure it before it's used.");
+                }
+                Bulkhead bulkhead = new Bulkhead(this);
+                registry.put(name, bulkhead);
+                return bulkhead;
+            }
+        }
+    }
+
+    private static final class BulkheadExecutor extends ThreadPoolExecutor {
+        /**
+         * Tasks {@link #WAIT} holds until there's room in the queue, oldest first. Guarded by
+         * itself.
+         */
+        private final Queue<Runnable> overflow = new ArrayDeque<>();
+
+        BulkheadExecutor(int threads, int queueLimit, ThreadFactory threadFactory, RejectedExecutionHandler handler) {
+            super(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueLimit), threadFactory, handler);
+        }
+
+        void hold(Runnable task) {
+            synchronized (overflow) {
+                overflow.add(task);
+            }
+            // A task may have finished since the queue was found full.
+            drainOverflow();
+        }
+
+        int getOverflowSize() {
+            synchronized (overflow) {
+                return overflow.size();
+            }
+        }
+
+        @Override
+        protected void afterExecute(Runnable r, Throwable t) {
+            drainOverflow();
+        }
+
+        private void drainOverflow() {
+            synchronized (overflow) {
+                if (overflow.isEmpty()) {
+                    return;
+                }
+                Runnable task;
+                while ((task = overflow.peek()) != null && getQueue().offer(task)) {
+                    overflow.poll();
+                }
+            }
+            // The queue was filled directly, make sure there's a thread to take from it.
+            prestartCoreThread();
+        }
+    }
+
+    private static final class BulkheadThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger(1);
+
+        BulkheadThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            }, "Bulkhead " + name + " #" + count.getAndIncrement());
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package me.tatarka.loader;
+
+import android.support.annotation.Nullable;
+import android.support.v4.os.CancellationSignal;
+import android.support.v4.os.OperationCanceledException;
+
+/**
+ * Passed to background work so that it can tell when the loader that started it has been canceled.
+ * A token is created for each load and canceled from the main thread when the loader is canceled.
+ * Everything that happened on the main thread before {@link Loader#cancel()} is visible to the
+ * worker once it observes {@link #isCanceled()} returning true.
+ * <p>
+ * Long-running work should periodically call {@link #throwIfCanceled()}. Work that blocks in a call
+ * that accepts a {@link CancellationSignal} (like {@link android.support.v4.content.ContentResolverCompat#query})
+ * should pass in {@link #getCancellationSignal()} instead. Work that blocks in interruptible calls
+ * can opt in to having their thread interrupted on cancellation.
+ */
+public final class CancellationToken {
+
+    private final boolean interruptOnCancel;
+    private volatile boolean canceled;
+    // Guarded by this.
+    @Nullable
+    private CancellationSignal signal;
+    // Guarded by this.
+    @Nullable
+    private Thread thread;
+
+    CancellationToken(boolean interruptOnCancel) {
+        this.interruptOnCancel = interruptOnCancel;
+    }
+
+    /**
+     * Returns true if the work has been canceled and its result will not be delivered.
+     */
+    public boolean isCanceled() {
+        return canceled;
+    }
+
+    /**
+     * Throws an {@link OperationCanceledException} if the work has been canceled. The loader
+     * catches this exception so you don't have to.
+     */
+    public void throwIfCanceled() {
+        if (canceled) {
+            throw new OperationCanceledException();
+        }
+    }
+
+    /**
+     * Returns a {@link CancellationSignal} that will be canceled along with this token. If the
+     * token has already been canceled, the returned signal will be too.
+     */
+    public CancellationSignal getCancellationSignal() {
+        synchronized (this) {
+            if (signal == null) {
+                signal = new CancellationSignal();
+                if (canceled) {
+                    signal.cancel();
+                }
+            }
+            return signal;
+        }
+    }
+
+    /**
+     * Cancels the token, canceling the {@link CancellationSignal} and interrupting the worker
+     * thread if requested. This is called on the main thread.
+     */
+    void cancel() {
+        CancellationSignal signal;
+        synchronized (this) {
+            if (canceled) {
+                return;
+            }
+            canceled = true;
+            signal = this.signal;
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+        // Cancel outside the lock, the signal's listener may block on the query it's canceling.
+        if (signal != null) {
+            signal.cancel();
+        }
+    }
+
+    /**
+     * Binds the current thread to this token so it can be interrupted on cancellation. Must be
+     * paired with {@link #exit()}.
+     */
+    void enter() {
+        if (!interruptOnCancel) {
+            return;
+        }
+        synchronized (this) {
+            thread = Thread.currentThread();
+            if (canceled) {
+                thread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Unbinds the current thread. Any interrupt caused by cancellation is cleared so that it
+     * doesn't leak into the next task that runs on the same thread.
+     */
+    void exit() {
+        if (!interruptOnCancel) {
+            return;
+        }
+        synchronized (this) {
+            thread = null;
+            if (canceled) {
+                Thread.interrupted();
+            }
+        }
+    }
+}
@@ -8,17 +8,38 @@ import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Handler;
 import android.support.v4.content.ContentResolverCompat;
-import android.support.v4.os.CancellationSignal;
 import android.support.v4.os.OperationCanceledException;
 
+import java.util.concurrent.Executor;
+
 import me.tatarka.retainstate.RetainState;
 
 /**
  * A {@link Loader} that queries a cursor and responds to changes much like {@link
- * android.content.CursorLoader}.
+ * android.content.CursorLoader}. Queries run on the {@link #BULKHEAD} bulkhead by default so that
+ * independent queries run concurrently instead of one at a time on {@link
+ * AsyncTask#SERIAL_EXECUTOR}.
+ * <p>
+ * Loaders running the same query can share one cursor with {@link Builder#shared(boolean)}.
  */
 public final class CursorLoader extends Loader<Cursor> {
 
+    /**
+     * The name of the {@link Bulkhead} queries run on unless you set {@link Builder#executor(Executor)}.
+     * It has 4 threads and uses {@link Bulkhead#WAIT} so queries are never dropped, unless you build
+     * it yourself first.
+     */
+    public static final String BULKHEAD = "cursor";
+    static final int DEFAULT_THREADS = 4;
+
+    /**
+     * Returns the {@link #BULKHEAD} bulkhead, creating it with the defaults if it hasn't been built
+     * yet.
+     */
+    static Bulkhead bulkhead() {
+        return Bulkhead.get(BULKHEAD, DEFAULT_THREADS, Bulkhead.WAIT);
+    }
+
     public static RetainState.OnCreate<CursorLoader> create(final Builder builder) {
         return new RetainState.OnCreate<CursorLoader>() {
             @Override
@@ -28,7 +49,19 @@ public final class CursorLoader extends Loader<Cursor> {
         };
     }
 
+    private final Handler handler;
     private final ForceLoadContentObserver observer;
+    private final Runnable requery = new Runnable() {
+        @Override
+        public void run() {
+            requeryScheduled = false;
+            if (isVisible()) {
+                requery();
+            } else {
+                stale = true;
+            }
+        }
+    };
 
     private final ContentResolver resolver;
     private final Uri uri;
@@ -36,66 +69,98 @@ public final class CursorLoader extends Loader<Cursor> {
     private final String selection;
     private final String[] selectionArgs;
     private final String sortOrder;
+    private final Executor executor;
+    private final long updateThrottle;
+    /**
+     * The query to share a cursor for, or null if it's not shared.
+     */
+    private final SharedCursors.Key sharedKey;
 
     private Cursor cursor;
     private AsyncTask<Void, Void, Cursor> task;
-    private CancellationSignal cancellationSignal;
+    private CancellationToken token;
+    /**
+     * Set when the content changed while paused or detached so the query can be re-run once
+     * someone can see it again.
+     */
+    private boolean stale;
+    /**
+     * Set while a query is running, so changes wait for it instead of canceling it.
+     */
+    private boolean querying;
+    /**
+     * Set when the content changed while a query was running so it can be re-run after.
+     */
+    private boolean requeryPending;
+    /**
+     * Set while a re-query is waiting out the update throttle, changes until then are coalesced.
+     */
+    private boolean requeryScheduled;
 
-    CursorLoader(ContentResolver resolver, Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
-        observer = new ForceLoadContentObserver();
+    CursorLoader(ContentResolver resolver, Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder, Executor executor, long updateThrottle, boolean shared) {
+        handler = new Handler();
+        observer = new ForceLoadContentObserver(handler);
         this.resolver = resolver;
         this.uri = uri;
         this.projection = projection;
         this.selection = selection;
         this.selectionArgs = selectionArgs;
         this.sortOrder = sortOrder;
+        this.executor = executor;
+        this.updateThrottle = updateThrottle;
+        this.sharedKey = shared ? new SharedCursors.Key(uri, projection, selection, selectionArgs, sortOrder) : null;
     }
 
     @Override
     protected void onStart(final Receiver receiver) {
+        final CancellationToken token = new CancellationToken(false);
         task = new AsyncTask<Void, Void, Cursor>() {
             @Override
             protected Cursor doInBackground(Void... params) {
-                synchronized (this) {
-                    if (isCancelled()) {
-                        return null;
-                    }
-                    cancellationSignal = new CancellationSignal();
+                if (token.isCanceled()) {
+                    return null;
                 }
-
                 try {
+                    if (sharedKey != null) {
+                        Cursor cursor = SharedCursors.INSTANCE.acquire(resolver, sharedKey, token.getCancellationSignal());
+                        if (cursor != null) {
+                            cursor.registerContentObserver(observer);
+                        }
+                        return cursor;
+                    }
+                    long start = System.nanoTime();
                     Cursor cursor = ContentResolverCompat.query(resolver,
-                            uri, projection, selection, selectionArgs, sortOrder, cancellationSignal);
+                            uri, projection, selection, selectionArgs, sortOrder, token.getCancellationSignal());
+                    long queried = System.nanoTime();
+                    int rows = -1;
                     if (cursor != null) {
                         try {
                             // Ensure the cursor window is filled.
-                            cursor.getCount();
+                            rows = cursor.getCount();
                             cursor.registerContentObserver(observer);
                         } catch (RuntimeException e) {
                             cursor.close();
                             throw e;
                         }
                     }
+                    QueryLog.record(uri, projection, selection, sortOrder, queried - start, System.nanoTime() - queried, rows);
                     return cursor;
                 } catch (OperationCanceledException e) {
                     // The query was canceled, this result won't be delivered anyway.
                     return null;
-                } finally {
-                    synchronized (this) {
-                        cancellationSignal = null;
-                    }
                 }
             }
 
             @Override
             protected void onPostExecute(Cursor cursor) {
-                if (!isRunning()) {
+                if (!isRunning() || token.isCanceled()) {
                     if (cursor != null) {
                         cursor.close();
                     }
                     return;
                 }
 
+                querying = false;
                 Cursor oldCursor = CursorLoader.this.cursor;
                 CursorLoader.this.cursor = cursor;
 
@@ -104,31 +169,106 @@ public final class CursorLoader extends Loader<Cursor> {
                 if (oldCursor != null && oldCursor != cursor && !oldCursor.isClosed()) {
                     oldCursor.close();
                 }
+
+                if (requeryPending) {
+                    requeryPending = false;
+                    onContentChanged();
+                }
+            }
+
+            @Override
+            protected void onCancelled(Cursor cursor) {
+                if (cursor != null) {
+                    cursor.close();
+                }
             }
         };
-        task.execute();
+        this.token = token;
+        querying = true;
+        task.executeOnExecutor(new Bulkhead.DiscardableExecutor(executor, new Runnable() {
+            @Override
+            public void run() {
+                if (token.isCanceled()) {
+                    return;
+                }
+                // The query never ran, complete without a result.
+                querying = false;
+                requeryPending = false;
+                receiver.complete();
+            }
+        }));
     }
 
     @Override
     protected void onCancel() {
+        token.cancel();
+        task.cancel(false);
         task = null;
-        synchronized (this) {
-            if (cancellationSignal != null) {
-                cancellationSignal.cancel();
-            }
-        }
+        token = null;
+        querying = false;
+        requeryPending = false;
+        requeryScheduled = false;
+        stale = false;
+        handler.removeCallbacks(requery);
+    }
+
+    @Override
+    protected void onResume() {
+        requeryIfStale();
+    }
+
+    @Override
+    protected void onAttach() {
+        requeryIfStale();
     }
 
     @Override
     protected void onDestroy() {
+        handler.removeCallbacks(requery);
         if (cursor != null && !cursor.isClosed()) {
             cursor.close();
         }
     }
 
+    /**
+     * Coalesces changes within the update throttle into a single re-query.
+     */
+    private void onContentChanged() {
+        if (!isVisible()) {
+            // Nobody is looking, wait until we are resumed and attached to re-query.
+            stale = true;
+        } else if (!requeryScheduled) {
+            requeryScheduled = true;
+            handler.postDelayed(requery, updateThrottle);
+        }
+    }
+
+    private boolean isVisible() {
+        return !isPaused() && isAttached();
+    }
+
+    private void requeryIfStale() {
+        if (stale && isVisible()) {
+            stale = false;
+            requery();
+        }
+    }
+
+    /**
+     * Re-runs the query, unless one is already running in which case it's re-run once that one
+     * finishes. This way a burst of changes runs at most one query and queues at most one more.
+     */
+    private void requery() {
+        if (querying) {
+            requeryPending = true;
+        } else {
+            restart();
+        }
+    }
+
     private final class ForceLoadContentObserver extends ContentObserver {
-        ForceLoadContentObserver() {
-            super(new Handler());
+        ForceLoadContentObserver(Handler handler) {
+            super(handler);
         }
 
         @Override
@@ -138,7 +278,9 @@ public final class CursorLoader extends Loader<Cursor> {
 
         @Override
         public void onChange(boolean selfChange) {
-            restart();
+            // Don't hand out the changed cursor to anyone else, even if we wait to re-query.
+            SharedCursors.invalidate(cursor);
+            onContentChanged();
         }
     }
 
@@ -149,6 +291,9 @@ public final class CursorLoader extends Loader<Cursor> {
         private String selection;
         private String[] selectionArgs;
         private String sortOrder;
+        private Executor executor;
+        private long updateThrottle;
+        private boolean shared;
 
         public Builder(ContentResolver resolver, Uri uri) {
             this.resolver = resolver;
@@ -171,8 +316,56 @@ public final class CursorLoader extends Loader<Cursor> {
             return this;
         }
 
+        /**
+         * The executor to run the query on. Defaults to the {@link #BULKHEAD} bulkhead. If a {@link
+         * Bulkhead} discards the query because it's full, the loader completes without a result.
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Waits this long after the content changes before re-querying, so a burst of changes like
+         * a bulk insert runs a single query. Defaults to 0, which still coalesces changes that
+         * arrive while a query is running.
+         */
+        public Builder updateThrottle(long delayMillis) {
+            if (delayMillis < 0) {
+                throw new IllegalArgumentException("delayMillis < 0");
+            }
+            this.updateThrottle = delayMillis;
+            return this;
+        }
+
+        /**
+         * Shares the cursor with other shared loaders running the same query, so screens that show
+         * the same data in several places only query it and hold its window once. The cursor stays
+         * open until every loader sharing it has closed its copy. Loaders share the cursor's
+         * position, so always move to a row before reading it. Defaults to false.
+         */
+        public Builder shared(boolean shared) {
+            this.shared = shared;
+            return this;
+        }
+
+        ContentResolver resolver() {
+            return resolver;
+        }
+
+        /**
+         * Returns the query, with the given sort order if none was set.
+         */
+        SharedCursors.Key query(String defaultSortOrder) {
+            return new SharedCursors.Key(uri, projection, selection, selectionArgs, sortOrder != null ? sortOrder : defaultSortOrder);
+        }
+
         public CursorLoader build() {
-            return new CursorLoader(resolver, uri, projection, selection, selectionArgs, sortOrder);
+            Executor executor = this.executor;
+            if (executor == null) {
+                executor = bulkhead();
+            }
+            return new CursorLoader(resolver, uri, projection, selection, selectionArgs, sortOrder, executor, updateThrottle, shared);
         }
     }
 }
@@ -0,0 +1,311 @@
+package me.tatarka.loader;
+
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persists loader results in a directory so they can be shown on the next cold start before the
+ * real load finishes, see {@link MemoizingLoader}. Each result is stored in its own file with a
+ * small header followed by the bytes written by a {@link Codec}. Files are read with memory-mapped
+ * I/O so decoding doesn't need to copy them first.
+ * <p>
+ * The cache evicts the least recently used results once it's larger than its max size, and ignores
+ * and deletes results older than its max age. All methods do disk I/O and should not be called on
+ * the main thread.
+ */
+public final class DiskResultCache {
+
+    private static final int MAGIC = 0x52534331; // "RSC1"
+    private static final int HEADER_SIZE = 4 + 8 + 2;
+    private static final String SUFFIX = ".result";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Comparator<File> OLDEST_FIRST = new Comparator<File>() {
+        @Override
+        public int compare(File lhs, File rhs) {
+            long l = lhs.lastModified();
+            long r = rhs.lastModified();
+            return l < r ? -1 : (l == r ? 0 : 1);
+        }
+    };
+
+    private final File directory;
+    private final long maxBytes;
+    private final long maxAgeMillis;
+
+    private DiskResultCache(Builder builder) {
+        this.directory = builder.directory;
+        this.maxBytes = builder.maxBytes;
+        this.maxAgeMillis = builder.maxAgeMillis;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the max total size of the cached results in bytes.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns how old a result can be before it's ignored, in milliseconds.
+     */
+    public long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    /**
+     * Returns the result stored under the given key, or null if there isn't one or it's expired. A
+     * result that can't be decoded is deleted.
+     */
+    @Nullable
+    @WorkerThread
+    public synchronized <T> T get(String key, Codec<T> codec) throws IOException {
+        File file = fileFor(key);
+        if (!file.exists()) {
+            return null;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        MappedByteBuffer buffer;
+        try {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            // The mapping stays valid after the file is closed.
+            raf.close();
+        }
+        byte[] keyBytes = key.getBytes(UTF_8);
+        if (buffer.remaining() < HEADER_SIZE + keyBytes.length || buffer.getInt() != MAGIC) {
+            file.delete();
+            return null;
+        }
+        long savedAt = buffer.getLong();
+        if (isExpired(savedAt)) {
+            file.delete();
+            return null;
+        }
+        byte[] storedKey = new byte[buffer.getShort() & 0xFFFF];
+        if (storedKey.length != keyBytes.length) {
+            return null;
+        }
+        buffer.get(storedKey);
+        if (!Arrays.equals(keyBytes, storedKey)) {
+            // Another key with the same hash, leave it alone.
+            return null;
+        }
+        T result;
+        try {
+            result = codec.decode(buffer.slice().asReadOnlyBuffer());
+        } catch (IOException | RuntimeException e) {
+            file.delete();
+            throw e;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return result;
+    }
+
+    /**
+     * Stores the result under the given key, replacing any existing one, and then evicts old
+     * results until the cache fits in its max size.
+     */
+    @WorkerThread
+    public synchronized <T> void put(String key, T result, Codec<T> codec) throws IOException {
+        byte[] keyBytes = key.getBytes(UTF_8);
+        if (keyBytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("key is too long");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("cannot create " + directory);
+        }
+        File file = fileFor(key);
+        File temp = new File(directory, file.getName() + TEMP_SUFFIX);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeLong(System.currentTimeMillis());
+            out.writeShort(keyBytes.length);
+            out.write(keyBytes);
+            codec.encode(result, out);
+            out.close();
+        } catch (IOException | RuntimeException e) {
+            out.close();
+            temp.delete();
+            throw e;
+        }
+        // Rename so a reader never sees a half-written result.
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("cannot rename " + temp + " to " + file);
+        }
+        trim();
+    }
+
+    /**
+     * Removes the result stored under the given key.
+     */
+    @WorkerThread
+    public synchronized void remove(String key) {
+        fileFor(key).delete();
+    }
+
+    /**
+     * Removes every result.
+     */
+    @WorkerThread
+    public synchronized void clear() {
+        for (File file : listResults()) {
+            file.delete();
+        }
+    }
+
+    /**
+     * Returns the total size of the cached results in bytes.
+     */
+    @WorkerThread
+    public synchronized long size() {
+        long size = 0;
+        for (File file : listResults()) {
+            size += file.length();
+        }
+        return size;
+    }
+
+    private boolean isExpired(long savedAt) {
+        long age = System.currentTimeMillis() - savedAt;
+        // A result from the future means the clock changed, don't trust it.
+        return age > maxAgeMillis || age < 0;
+    }
+
+    /**
+     * Deletes results that haven't been used within the max age and then the least recently used
+     * until the cache fits. Results that were used recently but saved too long ago are deleted when
+     * they are next read.
+     */
+    private void trim() {
+        File[] files = listResults();
+        Arrays.sort(files, OLDEST_FIRST);
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        long now = System.currentTimeMillis();
+        for (File file : files) {
+            if (size <= maxBytes && now - file.lastModified() <= maxAgeMillis) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                size -= length;
+            }
+        }
+    }
+
+    private File[] listResults() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        int count = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(SUFFIX)) {
+                files[count++] = file;
+            }
+        }
+        return Arrays.copyOf(files, count);
+    }
+
+    private File fileFor(String key) {
+        return new File(directory, hash(key) + SUFFIX);
+    }
+
+    private static String hash(String key) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("MD5").digest(key.getBytes(UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+        StringBuilder name = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            name.append(Character.forDigit((b >> 4) & 0xF, 16));
+            name.append(Character.forDigit(b & 0xF, 16));
+        }
+        return name.toString();
+    }
+
+    /**
+     * Converts a result to and from bytes. Keep the format compact, a smaller file is faster to map
+     * and decode on a cold start.
+     */
+    public interface Codec<T> {
+        /**
+         * Writes the result to the stream. Don't close it.
+         */
+        void encode(T result, OutputStream out) throws IOException;
+
+        /**
+         * Reads the result from the buffer, which is positioned at the start of the bytes written by
+         * {@link #encode(Object, OutputStream)} and ends where they end.
+         */
+        T decode(ByteBuffer buffer) throws IOException;
+    }
+
+    public static class Builder {
+        private final File directory;
+        private long maxBytes = 1024 * 1024;
+        private long maxAgeMillis = TimeUnit.DAYS.toMillis(7);
+
+        public Builder(File directory) {
+            if (directory == null) {
+                throw new NullPointerException("directory == null");
+            }
+            this.directory = directory;
+        }
+
+        /**
+         * The max total size of the cached results in bytes. Defaults to 1MB.
+         */
+        public Builder maxBytes(long maxBytes) {
+            if (maxBytes <= 0) {
+                throw new IllegalArgumentException("maxBytes <= 0");
+            }
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * How old a result can be before it's no longer shown. Defaults to 7 days.
+         */
+        public Builder maxAge(long duration, TimeUnit unit) {
+            if (duration <= 0) {
+                throw new IllegalArgumentException("duration <= 0");
+            }
+            this.maxAgeMillis = unit.toMillis(duration);
+            return this;
+        }
+
+        public DiskResultCache build() {
+            return new DiskResultCache(this);
+        }
+    }
+}
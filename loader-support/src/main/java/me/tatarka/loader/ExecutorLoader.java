@@ -0,0 +1,152 @@
+package me.tatarka.loader;
+
+import android.os.AsyncTask;
+import android.support.v4.os.OperationCanceledException;
+
+import java.util.concurrent.Executor;
+
+/**
+ * A {@link Loader} that runs some work on an {@link Executor}. It has the same cancellation and
+ * result semantics as {@link AsyncTaskLoader} but doesn't create an {@link AsyncTask} for every
+ * load. Each load allocates a single job that runs the work and is then posted back to the main
+ * thread to deliver the result, instead of an {@code AsyncTask} with its {@code FutureTask}, worker
+ * and result holder. Prefer this when you start a lot of loads, like a loader per list item.
+ */
+public abstract class ExecutorLoader<T> extends Loader<T> {
+
+    private final Executor executor;
+    private Job<T> job;
+
+    public ExecutorLoader() {
+        this.executor = AsyncTask.THREAD_POOL_EXECUTOR;
+    }
+
+    public ExecutorLoader(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Runs the work on the {@link Bulkhead} for the given category. See {@link
+     * AsyncTaskLoader#AsyncTaskLoader(String)}.
+     */
+    public ExecutorLoader(String category) {
+        this.executor = Bulkhead.get(category);
+    }
+
+    /**
+     * Called on a worker thread to perform the load and return the result. See {@link
+     * AsyncTaskLoader#doInBackground(CancellationToken)}.
+     */
+    protected abstract T doInBackground(CancellationToken token);
+
+    /**
+     * Publishes a partial result while {@link #doInBackground(CancellationToken)} keeps working.
+     * See {@link AsyncTaskLoader#publishResult(Object)}.
+     */
+    protected final void publishResult(T result) {
+        ResultThrottle.current(this).publish(result);
+    }
+
+    /**
+     * Override to change the minimum time between partial results delivered with {@link
+     * #publishResult(Object)}. Defaults to 100ms.
+     */
+    protected long publishIntervalMillis() {
+        return 100;
+    }
+
+    /**
+     * Override to return true if the worker thread should be interrupted when the loader is
+     * canceled. See {@link AsyncTaskLoader#interruptOnCancel()}.
+     */
+    protected boolean interruptOnCancel() {
+        return false;
+    }
+
+    @Override
+    protected final void onStart(Receiver receiver) {
+        job = new Job<>(this, receiver, new CancellationToken(interruptOnCancel()));
+        executor.execute(job);
+    }
+
+    @Override
+    protected final void onCancel() {
+        job.token.cancel();
+        job = null;
+    }
+
+    /**
+     * Runs once on the worker thread and then again on the main thread to deliver the result.
+     */
+    private static final class Job<T> implements Runnable, Bulkhead.Discardable, ResultThrottle.Host<T> {
+        private final ExecutorLoader<T> loader;
+        private final Loader<T>.Receiver receiver;
+        final CancellationToken token;
+        // Written on the worker thread before posting, the handler makes them visible on the main
+        // thread.
+        private ResultThrottle<T> throttle;
+        private boolean ran;
+        private boolean hasResult;
+        private T result;
+
+        Job(ExecutorLoader<T> loader, Loader<T>.Receiver receiver, CancellationToken token) {
+            this.loader = loader;
+            this.receiver = receiver;
+            this.token = token;
+        }
+
+        @Override
+        public Loader<T> getLoader() {
+            return loader;
+        }
+
+        @Override
+        public ResultThrottle<T> getThrottle() {
+            if (throttle == null) {
+                throttle = new ResultThrottle<>(receiver, token, ResultThrottle.MAIN_HANDLER, loader.publishIntervalMillis());
+            }
+            return throttle;
+        }
+
+        @Override
+        public void run() {
+            if (ran) {
+                if (throttle != null) {
+                    throttle.finish();
+                }
+                if (!token.isCanceled()) {
+                    if (hasResult) {
+                        receiver.deliverResult(result);
+                    }
+                    receiver.complete();
+                }
+                return;
+            }
+            ran = true;
+            if (!token.isCanceled()) {
+                token.enter();
+                ResultThrottle.enter(this);
+                try {
+                    result = loader.doInBackground(token);
+                    hasResult = true;
+                } catch (OperationCanceledException e) {
+                    if (!token.isCanceled()) {
+                        // Thrown when not actually canceled, just propagate exception.
+                        throw e;
+                    }
+                } finally {
+                    ResultThrottle.exit();
+                    token.exit();
+                }
+            }
+            ResultThrottle.MAIN_HANDLER.post(this);
+        }
+
+        @Override
+        public void discard() {
+            // Complete without a result like a discarded AsyncTaskLoader.
+            ran = true;
+            ResultThrottle.MAIN_HANDLER.post(this);
+        }
+    }
+}
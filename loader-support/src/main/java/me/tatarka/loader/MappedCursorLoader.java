@@ -0,0 +1,740 @@
+package me.tatarka.loader;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.AbstractWindowedCursor;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.net.Uri;
+import android.os.Handler;
+import android.support.annotation.Nullable;
+import android.support.v4.content.ContentResolverCompat;
+import android.support.v4.os.OperationCanceledException;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import me.tatarka.retainstate.RetainState;
+
+/**
+ * A {@link Loader} that queries a cursor and maps every row to an object with a {@link RowMapper}
+ * on a worker thread, so the main thread only gets a list that's ready to bind. The cursor is
+ * closed as soon as it's mapped to free its window. Like {@link CursorLoader} it re-queries when
+ * the content changes, waiting until it's resumed and attached if needed.
+ * <p>
+ * If the whole result fits in a single cursor window, rows can be mapped in parallel chunks with
+ * {@link Builder#parallelism(int)}. Each chunk reads the shared window through its own cursor.
+ * <p>
+ * With {@link Builder#idColumn(String)}, a change to a single row's uri, like {@code
+ * content://authority/items/5}, queries just that row and patches it into the last result instead
+ * of re-running the whole query. The delivered list is then a {@link RowList} that knows each
+ * row's id.
+ */
+public final class MappedCursorLoader<T> extends ExecutorLoader<List<T>> {
+
+    public static <T> RetainState.OnCreate<MappedCursorLoader<T>> create(final Builder<T> builder) {
+        return new RetainState.OnCreate<MappedCursorLoader<T>>() {
+            @Override
+            public MappedCursorLoader<T> onCreate() {
+                return builder.build();
+            }
+        };
+    }
+
+    /**
+     * Check for cancellation every this many rows.
+     */
+    private static final int CANCEL_CHECK_ROWS = 64;
+    /**
+     * Re-run the whole query if more rows than this change at once.
+     */
+    private static final int MAX_PATCH_ROWS = 16;
+    /**
+     * Marks a row a patch removed.
+     */
+    private static final Object REMOVED = new Object();
+
+    private final Handler handler;
+    private final ForceLoadContentObserver observer;
+    private final Runnable requery = new Runnable() {
+        @Override
+        public void run() {
+            requeryScheduled = false;
+            if (isVisible()) {
+                requery();
+            } else {
+                stale = true;
+            }
+        }
+    };
+
+    private final ContentResolver resolver;
+    private final Uri uri;
+    private final String[] projection;
+    private final String selection;
+    private final String[] selectionArgs;
+    private final String sortOrder;
+    private final String idColumn;
+    private final RowMapper<T> mapper;
+    private final Executor pool;
+    private final int parallelism;
+    private final int minChunkRows;
+    private final long updateThrottle;
+
+    /**
+     * The column indexes for the last cursor's columns.
+     */
+    private volatile ResolvedColumns resolved;
+    /**
+     * Set when the content changed while paused or detached.
+     */
+    private boolean stale;
+    private boolean requeryScheduled;
+    /**
+     * Rows that changed since the last query, if every change so far was to a single row.
+     */
+    private final List<Long> changedIds = new ArrayList<>();
+    private boolean changedAll;
+    /**
+     * Handed from the main thread to the next load.
+     */
+    private final AtomicReference<Patch<T>> nextPatch = new AtomicReference<>();
+
+    MappedCursorLoader(Builder<T> builder, Executor executor) {
+        super(executor);
+        handler = new Handler();
+        observer = new ForceLoadContentObserver(handler);
+        this.resolver = builder.resolver;
+        this.uri = builder.uri;
+        this.idColumn = builder.idColumn;
+        this.projection = withIdColumn(builder.projection != null ? builder.projection : builder.mapper.columns(), idColumn);
+        this.selection = builder.selection;
+        this.selectionArgs = builder.selectionArgs;
+        this.sortOrder = builder.sortOrder;
+        this.mapper = builder.mapper;
+        this.pool = builder.pool;
+        this.parallelism = builder.parallelism;
+        this.minChunkRows = builder.minChunkRows;
+        this.updateThrottle = builder.updateThrottle;
+        // The cursor is closed right away, so watch the uri instead.
+        resolver.registerContentObserver(uri, true, observer);
+    }
+
+    @Override
+    protected List<T> doInBackground(CancellationToken token) {
+        Patch<T> patch = nextPatch.getAndSet(null);
+        if (patch != null) {
+            RowList<T> patched = patch(patch, token);
+            if (patched != null) {
+                return patched;
+            }
+        }
+        Cursor cursor = query(selection, selectionArgs, token);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            // Ensure the cursor window is filled.
+            int count = cursor.getCount();
+            ResolvedColumns resolved = resolveColumns(cursor);
+            Object[] items = new Object[count];
+            long[] ids = idColumn != null ? new long[count] : null;
+            if (parallelism <= 1 || count < minChunkRows * 2 || !mapParallel(cursor, count, resolved, items, ids, token)) {
+                mapRows(cursor, 0, count, resolved, items, ids, token);
+            }
+            return new RowList<>(items, ids);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Cursor query(String selection, String[] selectionArgs, CancellationToken token) {
+        try {
+            return ContentResolverCompat.query(resolver,
+                    uri, projection, selection, selectionArgs, sortOrder, token.getCancellationSignal());
+        } catch (OperationCanceledException e) {
+            token.throwIfCanceled();
+            throw e;
+        }
+    }
+
+    /**
+     * Queries just the changed rows and applies them to the previous result. Returns null if the
+     * change can't be applied in place, like when a row was inserted.
+     */
+    @Nullable
+    private RowList<T> patch(Patch<T> patch, CancellationToken token) {
+        long[] changed = patch.ids;
+        StringBuilder where = new StringBuilder();
+        if (selection != null) {
+            where.append('(').append(selection).append(") AND ");
+        }
+        where.append(idColumn).append(" IN (");
+        int argCount = selectionArgs != null ? selectionArgs.length : 0;
+        String[] args = new String[argCount + changed.length];
+        if (argCount > 0) {
+            System.arraycopy(selectionArgs, 0, args, 0, argCount);
+        }
+        for (int i = 0; i < changed.length; i++) {
+            where.append(i == 0 ? "?" : ",?");
+            args[argCount + i] = Long.toString(changed[i]);
+        }
+        where.append(')');
+
+        Cursor cursor = query(where.toString(), args, token);
+        if (cursor == null) {
+            return null;
+        }
+        RowList<T> previous = patch.previous;
+        Object[] items = previous.items.clone();
+        long[] ids = previous.ids.clone();
+        boolean[] found = new boolean[changed.length];
+        int removed = 0;
+        try {
+            ResolvedColumns resolved = resolveColumns(cursor);
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(resolved.idColumn);
+                int index = previous.indexOfId(id);
+                if (index < 0) {
+                    // A new row, we don't know where it goes.
+                    return null;
+                }
+                items[index] = mapper.map(cursor, resolved.columns);
+                for (int i = 0; i < changed.length; i++) {
+                    if (changed[i] == id) {
+                        found[i] = true;
+                    }
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        token.throwIfCanceled();
+        for (int i = 0; i < changed.length; i++) {
+            int index = previous.indexOfId(changed[i]);
+            if (!found[i] && index >= 0) {
+                // Deleted, or no longer matches the selection.
+                items[index] = REMOVED;
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            Object[] keptItems = new Object[items.length - removed];
+            long[] keptIds = new long[items.length - removed];
+            int kept = 0;
+            for (int i = 0; i < items.length; i++) {
+                if (items[i] != REMOVED) {
+                    keptItems[kept] = items[i];
+                    keptIds[kept] = ids[i];
+                    kept++;
+                }
+            }
+            items = keptItems;
+            ids = keptIds;
+        }
+        return new RowList<>(items, ids);
+    }
+
+    @Override
+    protected void onResume() {
+        requeryIfStale();
+    }
+
+    @Override
+    protected void onAttach() {
+        requeryIfStale();
+    }
+
+    @Override
+    protected void onDestroy() {
+        handler.removeCallbacks(requery);
+        resolver.unregisterContentObserver(observer);
+    }
+
+    /**
+     * Looks up the mapper's columns, reusing the indexes from the last query if the cursor has the
+     * same columns.
+     */
+    private ResolvedColumns resolveColumns(Cursor cursor) {
+        String[] names = cursor.getColumnNames();
+        ResolvedColumns resolved = this.resolved;
+        if (resolved != null && Arrays.equals(names, resolved.names)) {
+            return resolved;
+        }
+        String[] wanted = mapper.columns();
+        int[] columns = new int[wanted.length];
+        for (int i = 0; i < wanted.length; i++) {
+            columns[i] = cursor.getColumnIndexOrThrow(wanted[i]);
+        }
+        int idIndex = idColumn != null ? cursor.getColumnIndexOrThrow(idColumn) : -1;
+        resolved = new ResolvedColumns(names, columns, idIndex);
+        this.resolved = resolved;
+        return resolved;
+    }
+
+    private void mapRows(Cursor cursor, int start, int end, ResolvedColumns resolved, Object[] items, long[] ids, CancellationToken token) {
+        for (int position = start; position < end; position++) {
+            if ((position - start) % CANCEL_CHECK_ROWS == 0) {
+                token.throwIfCanceled();
+            }
+            cursor.moveToPosition(position);
+            items[position] = mapper.map(cursor, resolved.columns);
+            if (ids != null) {
+                ids[position] = cursor.getLong(resolved.idColumn);
+            }
+        }
+    }
+
+    /**
+     * Maps chunks of rows on the pool, reading the filled window directly. Returns false if the
+     * cursor isn't backed by a single window holding every row.
+     */
+    private boolean mapParallel(Cursor cursor, int count, ResolvedColumns resolved, Object[] items, long[] ids, CancellationToken token) {
+        if (!(cursor instanceof AbstractWindowedCursor)) {
+            return false;
+        }
+        CursorWindow window = ((AbstractWindowedCursor) cursor).getWindow();
+        if (window == null || window.getStartPosition() != 0 || window.getNumRows() != count) {
+            return false;
+        }
+        Executor pool = this.pool;
+        if (pool == null) {
+            pool = Bulkhead.get(ParallelLoader.BULKHEAD, Runtime.getRuntime().availableProcessors());
+        }
+        int chunks = Math.min(parallelism, count / minChunkRows);
+        Chunks<T> work = new Chunks<>(this, window, cursor.getColumnNames(), count, chunks, resolved, items, ids, token);
+        for (int i = 1; i < chunks; i++) {
+            pool.execute(work);
+        }
+        // Help out, and wait for chunks other threads claimed.
+        work.run();
+        work.await();
+        return true;
+    }
+
+    private boolean isVisible() {
+        return !isPaused() && isAttached();
+    }
+
+    private void requeryIfStale() {
+        if (stale && isVisible()) {
+            stale = false;
+            requery();
+        }
+    }
+
+    /**
+     * Re-runs the query, or just patches the changed rows if every change was to a single row. A
+     * load that is still running is canceled by the restart, and the changes it would have applied
+     * are lost with it, so then everything is re-queried.
+     */
+    private void requery() {
+        List<T> previous = getCachedResult();
+        if (!isRunning() && !changedAll && !changedIds.isEmpty() && previous instanceof RowList && ((RowList<T>) previous).ids != null) {
+            long[] ids = new long[changedIds.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = changedIds.get(i);
+            }
+            nextPatch.set(new Patch<>((RowList<T>) previous, ids));
+        } else {
+            nextPatch.set(null);
+        }
+        changedAll = false;
+        changedIds.clear();
+        restart();
+    }
+
+    /**
+     * Returns the id of the row if the uri points to a single row under the loader's uri, or -1.
+     */
+    private long rowId(@Nullable Uri changed) {
+        if (idColumn == null || changed == null) {
+            return -1;
+        }
+        List<String> segments = changed.getPathSegments();
+        List<String> base = uri.getPathSegments();
+        if (segments.size() != base.size() + 1
+                || !segments.subList(0, base.size()).equals(base)
+                || !uri.getAuthority().equals(changed.getAuthority())) {
+            return -1;
+        }
+        try {
+            return ContentUris.parseId(changed);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Coalesces changes within the update throttle into a single re-query.
+     */
+    private void onContentChanged(@Nullable Uri changed) {
+        long id = rowId(changed);
+        if (id < 0) {
+            changedAll = true;
+            changedIds.clear();
+        } else if (!changedAll && !changedIds.contains(id)) {
+            if (changedIds.size() < MAX_PATCH_ROWS) {
+                changedIds.add(id);
+            } else {
+                changedAll = true;
+                changedIds.clear();
+            }
+        }
+        if (!isVisible()) {
+            // Nobody is looking, wait until we are resumed and attached to re-query.
+            stale = true;
+        } else if (!requeryScheduled) {
+            requeryScheduled = true;
+            handler.postDelayed(requery, updateThrottle);
+        }
+    }
+
+    private static String[] withIdColumn(String[] projection, @Nullable String idColumn) {
+        if (idColumn == null || projection == null || Arrays.asList(projection).contains(idColumn)) {
+            return projection;
+        }
+        String[] withId = Arrays.copyOf(projection, projection.length + 1);
+        withId[projection.length] = idColumn;
+        return withId;
+    }
+
+    private static final class ResolvedColumns {
+        final String[] names;
+        final int[] columns;
+        final int idColumn;
+
+        ResolvedColumns(String[] names, int[] columns, int idColumn) {
+            this.names = names;
+            this.columns = columns;
+            this.idColumn = idColumn;
+        }
+    }
+
+    private static final class Patch<T> {
+        final RowList<T> previous;
+        final long[] ids;
+
+        Patch(RowList<T> previous, long[] ids) {
+            this.previous = previous;
+            this.ids = ids;
+        }
+    }
+
+    /**
+     * Maps a window in chunks. Chunks are claimed by whichever thread gets to them first, so
+     * helpers that never run, like ones a full {@link Bulkhead} discarded, are covered by the
+     * others.
+     */
+    private static final class Chunks<T> implements Runnable, Bulkhead.Discardable {
+        private final MappedCursorLoader<T> loader;
+        private final CursorWindow window;
+        private final String[] names;
+        private final int count;
+        private final int chunks;
+        private final ResolvedColumns resolved;
+        private final Object[] items;
+        private final long[] ids;
+        private final CancellationToken token;
+        private final AtomicInteger next = new AtomicInteger();
+        // Guarded by this, which also makes the mapped items visible to the waiting thread.
+        private int finished;
+        private Throwable failure;
+
+        Chunks(MappedCursorLoader<T> loader, CursorWindow window, String[] names, int count, int chunks,
+               ResolvedColumns resolved, Object[] items, long[] ids, CancellationToken token) {
+            this.loader = loader;
+            this.window = window;
+            this.names = names;
+            this.count = count;
+            this.chunks = chunks;
+            this.resolved = resolved;
+            this.items = items;
+            this.ids = ids;
+            this.token = token;
+        }
+
+        @Override
+        public void run() {
+            int chunk;
+            while ((chunk = next.getAndIncrement()) < chunks) {
+                int start = (int) ((long) count * chunk / chunks);
+                int end = (int) ((long) count * (chunk + 1) / chunks);
+                Throwable error = null;
+                WindowCursor cursor = new WindowCursor(window, names);
+                try {
+                    loader.mapRows(cursor, start, end, resolved, items, ids, token);
+                } catch (Throwable e) {
+                    error = e;
+                } finally {
+                    cursor.close();
+                }
+                synchronized (this) {
+                    if (error != null && failure == null) {
+                        failure = error;
+                    }
+                    finished++;
+                    notifyAll();
+                }
+            }
+        }
+
+        @Override
+        public void discard() {
+            // The other threads pick up its chunks.
+        }
+
+        void await() {
+            synchronized (this) {
+                while (finished < chunks) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new OperationCanceledException();
+                    }
+                }
+                if (failure instanceof RuntimeException) {
+                    throw (RuntimeException) failure;
+                }
+                if (failure != null) {
+                    throw new RuntimeException("An error occurred while mapping rows", failure);
+                }
+            }
+        }
+    }
+
+    /**
+     * A cursor over a window shared with another cursor, so each chunk can have its own position.
+     * It holds a reference to the window until it's closed.
+     */
+    private static final class WindowCursor extends AbstractWindowedCursor {
+        private final String[] names;
+
+        WindowCursor(CursorWindow window, String[] names) {
+            this.names = names;
+            window.acquireReference();
+            setWindow(window);
+        }
+
+        @Override
+        public int getCount() {
+            return mWindow.getNumRows();
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return names;
+        }
+    }
+
+    private final class ForceLoadContentObserver extends ContentObserver {
+        ForceLoadContentObserver(Handler handler) {
+            super(handler);
+        }
+
+        @Override
+        public boolean deliverSelfNotifications() {
+            return true;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            if (isRunning() || hasResult()) {
+                onContentChanged(uri);
+            }
+        }
+    }
+
+    /**
+     * The mapped rows, along with each row's id if {@link Builder#idColumn(String)} was set.
+     */
+    public static final class RowList<T> extends AbstractList<T> implements RandomAccess {
+        private final Object[] items;
+        @Nullable
+        private final long[] ids;
+
+        RowList(Object[] items, @Nullable long[] ids) {
+            this.items = items;
+            this.ids = ids;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get(int location) {
+            return (T) items[location];
+        }
+
+        @Override
+        public int size() {
+            return items.length;
+        }
+
+        /**
+         * Returns the id of the row at the given position.
+         *
+         * @throws IllegalStateException if there is no id column.
+         */
+        public long getId(int location) {
+            if (ids == null) {
+                throw new IllegalStateException("no idColumn set");
+            }
+            return ids[location];
+        }
+
+        /**
+         * Returns the position of the row with the given id, or -1 if it's not in the list or there
+         * is no id column.
+         */
+        public int indexOfId(long id) {
+            if (ids != null) {
+                for (int i = 0; i < ids.length; i++) {
+                    if (ids[i] == id) {
+                        return i;
+                    }
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Maps a cursor row to an object. This is called on worker threads, if rows are mapped in
+     * parallel at the same time, so it must be thread-safe.
+     */
+    public interface RowMapper<T> {
+        /**
+         * The columns this mapper reads. Their indexes are looked up once per query and passed to
+         * {@link #map(Cursor, int[])} in the same order. If no projection is set, this is used as
+         * the projection.
+         */
+        String[] columns();
+
+        /**
+         * Maps the row the cursor is on. Read it with the given indexes instead of looking them up
+         * by name.
+         */
+        T map(Cursor cursor, int[] columns);
+    }
+
+    public static class Builder<T> {
+        private final ContentResolver resolver;
+        private final Uri uri;
+        private final RowMapper<T> mapper;
+        private String[] projection;
+        private String selection;
+        private String[] selectionArgs;
+        private String sortOrder;
+        private String idColumn;
+        private Executor executor;
+        private Executor pool;
+        private int parallelism = 1;
+        private int minChunkRows = 500;
+        private long updateThrottle;
+
+        public Builder(ContentResolver resolver, Uri uri, RowMapper<T> mapper) {
+            this.resolver = resolver;
+            this.uri = uri;
+            this.mapper = mapper;
+        }
+
+        public Builder<T> projection(String... projection) {
+            this.projection = projection;
+            return this;
+        }
+
+        public Builder<T> selection(String selection, String... selectionArgs) {
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+            return this;
+        }
+
+        public Builder<T> sortOrder(String sortOrder) {
+            this.sortOrder = sortOrder;
+            return this;
+        }
+
+        /**
+         * The column holding each row's id, usually {@code _id}. This lets a change to a single
+         * row's uri re-query just that row and patch it into the last result. A patched row keeps
+         * its position, so only use this if the sort order doesn't depend on columns that change.
+         * A new row or a change to anything else re-runs the whole query.
+         */
+        public Builder<T> idColumn(String idColumn) {
+            this.idColumn = idColumn;
+            return this;
+        }
+
+        /**
+         * The executor to query and map on. Defaults to the {@link CursorLoader#BULKHEAD} bulkhead.
+         */
+        public Builder<T> executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Maps rows in up to this many chunks at once when the whole result fits in one cursor
+         * window, including the thread that ran the query. Other chunks run on the {@link
+         * ParallelLoader#BULKHEAD} bulkhead. Defaults to 1, mapping every row on one thread.
+         */
+        public Builder<T> parallelism(int parallelism) {
+            if (parallelism <= 0) {
+                throw new IllegalArgumentException("parallelism <= 0");
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Maps chunks on the given pool instead of the {@link ParallelLoader#BULKHEAD} bulkhead.
+         */
+        public Builder<T> parallelism(int parallelism, Executor pool) {
+            this.pool = pool;
+            return parallelism(parallelism);
+        }
+
+        /**
+         * The fewest rows worth handing to another thread. Defaults to 500.
+         */
+        public Builder<T> minChunkRows(int minChunkRows) {
+            if (minChunkRows <= 0) {
+                throw new IllegalArgumentException("minChunkRows <= 0");
+            }
+            this.minChunkRows = minChunkRows;
+            return this;
+        }
+
+        /**
+         * Waits this long after the content changes before re-querying. See {@link
+         * CursorLoader.Builder#updateThrottle(long)}.
+         */
+        public Builder<T> updateThrottle(long delayMillis) {
+            if (delayMillis < 0) {
+                throw new IllegalArgumentException("delayMillis < 0");
+            }
+            this.updateThrottle = delayMillis;
+            return this;
+        }
+
+        public MappedCursorLoader<T> build() {
+            Executor executor = this.executor;
+            if (executor == null) {
+                executor = CursorLoader.bulkhead();
+            }
+            return new MappedCursorLoader<>(this, executor);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package me.tatarka.loader;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+/**
+ * Wraps another loader to remember its last result on disk with a {@link DiskResultCache}. When
+ * started, the remembered result is read off the main thread and delivered first, so content shows
+ * up right away on a cold start, while the wrapped loader runs the real load. Its results replace
+ * the remembered one, which is never delivered after them. When the wrapped loader completes, its
+ * last result is saved for next time.
+ * <p>
+ * The wrapped loader is owned by this one. It's canceled, destroyed, paused and resumed along with
+ * it, so don't attach it to a {@link LoaderManager} yourself.
+ */
+public class MemoizingLoader<T> extends Loader<T> {
+
+    private final Loader<T> loader;
+    private final DiskResultCache cache;
+    private final String key;
+    private final DiskResultCache.Codec<T> codec;
+    private final Executor executor;
+    private Load<T> load;
+
+    /**
+     * Reads and writes results on the "disk" {@link Bulkhead}.
+     */
+    public MemoizingLoader(Loader<T> loader, DiskResultCache cache, String key, DiskResultCache.Codec<T> codec) {
+        this(loader, cache, key, codec, Bulkhead.get("disk"));
+    }
+
+    public MemoizingLoader(Loader<T> loader, DiskResultCache cache, String key, DiskResultCache.Codec<T> codec, Executor executor) {
+        this.loader = loader;
+        this.cache = cache;
+        this.key = key;
+        this.codec = codec;
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the wrapped loader.
+     */
+    public Loader<T> getLoader() {
+        return loader;
+    }
+
+    @Override
+    protected void onStart(Receiver receiver) {
+        // A completed load isn't canceled on restart, drop it and reset the wrapped loader so the
+        // real load runs again.
+        if (this.load != null) {
+            this.load.canceled = true;
+        }
+        loader.setCallbacks(null);
+        loader.cancel();
+        Load<T> load = new Load<>(this, receiver);
+        this.load = load;
+        executor.execute(load);
+        loader.setCallbacks(load);
+        loader.start();
+    }
+
+    @Override
+    protected void onCancel() {
+        load.canceled = true;
+        load = null;
+        loader.setCallbacks(null);
+        loader.cancel();
+    }
+
+    @Override
+    protected void onDestroy() {
+        loader.destroy();
+    }
+
+    @Override
+    protected void onPause() {
+        loader.pause();
+    }
+
+    @Override
+    protected void onResume() {
+        loader.resume();
+    }
+
+    /**
+     * Reads the remembered result on a worker thread, delivers it on the main thread and then
+     * forwards the wrapped loader's callbacks.
+     */
+    private static final class Load<T> implements Runnable, Callbacks<T> {
+        private final MemoizingLoader<T> memo;
+        private final Loader<T>.Receiver receiver;
+        // Only touched on the main thread.
+        boolean canceled;
+        private boolean fresh;
+        private T freshResult;
+        // Written on the worker thread before posting, the handler makes it visible on the main
+        // thread.
+        private boolean ran;
+        private T cachedResult;
+
+        Load(MemoizingLoader<T> memo, Loader<T>.Receiver receiver) {
+            this.memo = memo;
+            this.receiver = receiver;
+        }
+
+        @Override
+        public void run() {
+            if (ran) {
+                if (!canceled && !fresh && cachedResult != null) {
+                    receiver.deliverResult(cachedResult);
+                }
+                cachedResult = null;
+                return;
+            }
+            ran = true;
+            try {
+                cachedResult = memo.cache.get(memo.key, memo.codec);
+            } catch (IOException | RuntimeException e) {
+                // A missing or broken result just means a slower start.
+            }
+            ResultThrottle.MAIN_HANDLER.post(this);
+        }
+
+        @Override
+        public void onLoaderStart() {
+        }
+
+        @Override
+        public void onLoaderResult(T result) {
+            fresh = true;
+            freshResult = result;
+            receiver.deliverResult(result);
+        }
+
+        @Override
+        public void onLoaderComplete() {
+            fresh = true;
+            if (freshResult != null) {
+                memo.executor.execute(new Save<>(memo, freshResult));
+            }
+            freshResult = null;
+            receiver.complete();
+        }
+    }
+
+    private static final class Save<T> implements Runnable {
+        private final MemoizingLoader<T> memo;
+        private final T result;
+
+        Save(MemoizingLoader<T> memo, T result) {
+            this.memo = memo;
+            this.result = result;
+        }
+
+        @Override
+        public void run() {
+            try {
+                memo.cache.put(memo.key, result, memo.codec);
+            } catch (IOException | RuntimeException e) {
+                // Next start will just be slower.
+            }
+        }
+    }
+}
@@ -0,0 +1,713 @@
+package me.tatarka.loader;
+
+import android.content.ContentResolver;
+import android.database.AbstractCursor;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Handler;
+import android.support.annotation.Nullable;
+import android.support.v4.content.ContentResolverCompat;
+import android.support.v4.os.OperationCanceledException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import me.tatarka.retainstate.RetainState;
+
+/**
+ * A {@link Loader} that queries several sources at once, like one uri per account in a unified
+ * inbox, and merges them into one cursor sorted by a column. Each source is queried on its own
+ * worker so they run in parallel, and the last one to finish merges them on its thread. Sources
+ * must already be sorted by the column, it defaults to their sort order if they don't set one.
+ * <p>
+ * Every source is watched separately. When one changes, only that source is re-queried and merged
+ * with the cursors the others already have. Like {@link CursorLoader} it waits until it's resumed
+ * and attached if needed, and the replaced cursors are closed once the new merge is delivered.
+ */
+public final class MergeCursorLoader extends Loader<MergeCursorLoader.SortedMergeCursor> {
+
+    public static RetainState.OnCreate<MergeCursorLoader> create(final Builder builder) {
+        return new RetainState.OnCreate<MergeCursorLoader>() {
+            @Override
+            public MergeCursorLoader onCreate() {
+                return builder.build();
+            }
+        };
+    }
+
+    private final Handler handler;
+    private final Runnable requery = new Runnable() {
+        @Override
+        public void run() {
+            requeryScheduled = false;
+            if (isVisible()) {
+                requery();
+            } else {
+                stale = true;
+            }
+        }
+    };
+
+    private final Source[] sources;
+    private final String sortColumn;
+    private final boolean descending;
+    private final Executor executor;
+    private final long updateThrottle;
+
+    private SortedMergeCursor merged;
+    private Merge merge;
+    private boolean stale;
+    private boolean requeryPending;
+    private boolean requeryScheduled;
+
+    MergeCursorLoader(Builder builder, Executor executor) {
+        handler = new Handler();
+        this.sortColumn = builder.sortColumn;
+        this.descending = builder.descending;
+        this.executor = executor;
+        this.updateThrottle = builder.updateThrottle;
+        String defaultSortOrder = sortColumn + (descending ? " DESC" : " ASC");
+        sources = new Source[builder.sources.size()];
+        for (int i = 0; i < sources.length; i++) {
+            CursorLoader.Builder source = builder.sources.get(i);
+            sources[i] = new Source(source.resolver(), source.query(defaultSortOrder), new SourceObserver(handler, i));
+        }
+    }
+
+    @Override
+    protected void onStart(Receiver receiver) {
+        boolean changed = false;
+        for (Source source : sources) {
+            changed |= source.isDirty();
+        }
+        Merge merge = new Merge(this, receiver);
+        List<SourceLoad> loads = new ArrayList<>(sources.length);
+        for (int i = 0; i < sources.length; i++) {
+            Source source = sources[i];
+            merge.cursors[i] = source.cursor;
+            merge.keys[i] = source.keys;
+            // A fresh start without changes re-queries everything.
+            if (source.isDirty() || !changed) {
+                merge.versions[i] = source.version;
+                loads.add(new SourceLoad(merge, i, new CancellationToken(false)));
+            }
+        }
+        this.merge = merge;
+        merge.start(loads);
+    }
+
+    @Override
+    protected void onCancel() {
+        if (merge != null) {
+            merge.cancel();
+            merge = null;
+        }
+        requeryPending = false;
+        requeryScheduled = false;
+        stale = false;
+        handler.removeCallbacks(requery);
+    }
+
+    @Override
+    protected void onResume() {
+        requeryIfStale();
+    }
+
+    @Override
+    protected void onAttach() {
+        requeryIfStale();
+    }
+
+    @Override
+    protected void onDestroy() {
+        handler.removeCallbacks(requery);
+        if (merged != null) {
+            merged.close();
+        }
+        for (Source source : sources) {
+            close(source.cursor);
+        }
+    }
+
+    /**
+     * Called on the main thread once every source load has finished.
+     */
+    void onMerged(Merge merge) {
+        if (merge != this.merge || merge.canceled) {
+            for (int i = 0; i < sources.length; i++) {
+                if (merge.loaded[i]) {
+                    close(merge.cursors[i]);
+                }
+            }
+            return;
+        }
+        this.merge = null;
+        List<Cursor> replaced = new ArrayList<>();
+        for (int i = 0; i < sources.length; i++) {
+            if (merge.loaded[i]) {
+                Source source = sources[i];
+                replaced.add(source.cursor);
+                source.cursor = merge.cursors[i];
+                source.keys = merge.keys[i];
+                source.loadedVersion = merge.versions[i];
+            }
+        }
+        SortedMergeCursor oldMerged = merged;
+        merged = merge.result;
+
+        merge.receiver.deliverResult(merged);
+
+        if (oldMerged != null && oldMerged != merged) {
+            oldMerged.close();
+        }
+        for (Cursor cursor : replaced) {
+            close(cursor);
+        }
+
+        if (requeryPending) {
+            requeryPending = false;
+            onContentChanged();
+        }
+    }
+
+    private static void close(@Nullable Cursor cursor) {
+        if (cursor != null && !cursor.isClosed()) {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Coalesces changes within the update throttle into a single re-query.
+     */
+    private void onContentChanged() {
+        if (!isVisible()) {
+            // Nobody is looking, wait until we are resumed and attached to re-query.
+            stale = true;
+        } else if (!requeryScheduled) {
+            requeryScheduled = true;
+            handler.postDelayed(requery, updateThrottle);
+        }
+    }
+
+    private boolean isVisible() {
+        return !isPaused() && isAttached();
+    }
+
+    private void requeryIfStale() {
+        if (stale && isVisible()) {
+            stale = false;
+            requery();
+        }
+    }
+
+    /**
+     * Re-queries the changed sources, unless a merge is already running in which case they're
+     * re-queried once that one finishes.
+     */
+    private void requery() {
+        if (merge != null) {
+            requeryPending = true;
+        } else {
+            restart();
+        }
+    }
+
+    /**
+     * Merges the sources by their sort keys without touching their cursors, so it's safe to do
+     * while the old merge is being read on the main thread.
+     */
+    SortedMergeCursor mergeSources(Cursor[] cursors, SortKeys[] keys) {
+        int k = cursors.length;
+        int total = 0;
+        for (SortKeys sourceKeys : keys) {
+            if (sourceKeys != null) {
+                total += sourceKeys.count;
+            }
+        }
+        int[] sourceOf = new int[total];
+        int[] rowOf = new int[total];
+        int[] heads = new int[k];
+        // A binary heap of sources by their next row.
+        int[] heap = new int[k];
+        int size = 0;
+        for (int i = 0; i < k; i++) {
+            if (keys[i] != null && keys[i].count > 0) {
+                heap[size++] = i;
+            }
+        }
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(heap, size, i, keys, heads);
+        }
+        for (int position = 0; position < total; position++) {
+            int source = heap[0];
+            sourceOf[position] = source;
+            rowOf[position] = heads[source]++;
+            if (heads[source] == keys[source].count) {
+                heap[0] = heap[--size];
+            }
+            siftDown(heap, size, 0, keys, heads);
+        }
+        return new SortedMergeCursor(cursors, sourceOf, rowOf);
+    }
+
+    private void siftDown(int[] heap, int size, int index, SortKeys[] keys, int[] heads) {
+        while (true) {
+            int smallest = index;
+            int left = index * 2 + 1;
+            int right = left + 1;
+            if (left < size && compare(heap[left], heap[smallest], keys, heads) < 0) {
+                smallest = left;
+            }
+            if (right < size && compare(heap[right], heap[smallest], keys, heads) < 0) {
+                smallest = right;
+            }
+            if (smallest == index) {
+                return;
+            }
+            int swap = heap[index];
+            heap[index] = heap[smallest];
+            heap[smallest] = swap;
+            index = smallest;
+        }
+    }
+
+    private int compare(int a, int b, SortKeys[] keys, int[] heads) {
+        int result = SortKeys.compare(keys[a], heads[a], keys[b], heads[b]);
+        if (descending) {
+            result = -result;
+        }
+        // Ties keep the order the sources were added in.
+        return result != 0 ? result : a - b;
+    }
+
+    private static final class Source {
+        final ContentResolver resolver;
+        final SharedCursors.Key query;
+        final SourceObserver observer;
+        Cursor cursor;
+        SortKeys keys;
+        int version;
+        int loadedVersion = -1;
+
+        Source(ContentResolver resolver, SharedCursors.Key query, SourceObserver observer) {
+            this.resolver = resolver;
+            this.query = query;
+            this.observer = observer;
+        }
+
+        boolean isDirty() {
+            return version != loadedVersion;
+        }
+    }
+
+    /**
+     * One run of the sources that changed. Starts with the cursors the sources already have and
+     * replaces the ones that were loaded. The last load to finish merges them and posts this back to
+     * the main thread.
+     */
+    private static final class Merge implements Runnable {
+        final MergeCursorLoader loader;
+        final Loader<SortedMergeCursor>.Receiver receiver;
+        final Cursor[] cursors;
+        final SortKeys[] keys;
+        final boolean[] loaded;
+        final int[] versions;
+        private final AtomicInteger remaining = new AtomicInteger();
+        private List<SourceLoad> loads;
+        volatile boolean canceled;
+        // Written on the worker thread before posting, the handler makes it visible on the main
+        // thread.
+        SortedMergeCursor result;
+
+        Merge(MergeCursorLoader loader, Loader<SortedMergeCursor>.Receiver receiver) {
+            int count = loader.sources.length;
+            this.loader = loader;
+            this.receiver = receiver;
+            this.cursors = new Cursor[count];
+            this.keys = new SortKeys[count];
+            this.loaded = new boolean[count];
+            this.versions = new int[count];
+        }
+
+        void start(List<SourceLoad> loads) {
+            this.loads = loads;
+            remaining.set(loads.size());
+            for (SourceLoad load : loads) {
+                loader.executor.execute(load);
+            }
+        }
+
+        void cancel() {
+            canceled = true;
+            for (SourceLoad load : loads) {
+                load.token.cancel();
+            }
+        }
+
+        /**
+         * Called on a worker thread when a load finished, was canceled or discarded.
+         */
+        void onSourceLoaded() {
+            if (remaining.decrementAndGet() == 0) {
+                if (!canceled) {
+                    result = loader.mergeSources(cursors, keys);
+                }
+                ResultThrottle.MAIN_HANDLER.post(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            loader.onMerged(this);
+        }
+    }
+
+    /**
+     * Queries a single source on a worker thread. A source that isn't loaded, because it was
+     * discarded or failed, keeps the cursor it had.
+     */
+    private static final class SourceLoad implements Runnable, Bulkhead.Discardable {
+        private final Merge merge;
+        private final int index;
+        final CancellationToken token;
+
+        SourceLoad(Merge merge, int index, CancellationToken token) {
+            this.merge = merge;
+            this.index = index;
+            this.token = token;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (!token.isCanceled()) {
+                    load();
+                }
+            } finally {
+                merge.onSourceLoaded();
+            }
+        }
+
+        private void load() {
+            Source source = merge.loader.sources[index];
+            SharedCursors.Key query = source.query;
+            Cursor cursor;
+            try {
+                cursor = ContentResolverCompat.query(source.resolver, query.uri, query.projection,
+                        query.selection, query.selectionArgs, query.sortOrder, token.getCancellationSignal());
+            } catch (OperationCanceledException e) {
+                // The query was canceled, this merge won't be delivered anyway.
+                return;
+            }
+            SortKeys keys = null;
+            if (cursor != null) {
+                try {
+                    keys = SortKeys.read(cursor, cursor.getColumnIndexOrThrow(merge.loader.sortColumn));
+                    cursor.registerContentObserver(source.observer);
+                } catch (RuntimeException e) {
+                    cursor.close();
+                    throw e;
+                }
+            }
+            merge.cursors[index] = cursor;
+            merge.keys[index] = keys;
+            merge.loaded[index] = true;
+        }
+
+        @Override
+        public void discard() {
+            merge.onSourceLoaded();
+        }
+    }
+
+    /**
+     * A copy of a source's sort column, so merging never moves its cursor. Values compare like
+     * SQLite orders them: nulls, then numbers, then text, then blobs.
+     */
+    static final class SortKeys {
+        final int count;
+        /**
+         * The keys if they are all integers, which is the common case of sorting by a date.
+         */
+        @Nullable
+        private final long[] longs;
+        @Nullable
+        private final Object[] values;
+
+        private SortKeys(int count, @Nullable long[] longs, @Nullable Object[] values) {
+            this.count = count;
+            this.longs = longs;
+            this.values = values;
+        }
+
+        static SortKeys read(Cursor cursor, int column) {
+            int count = cursor.getCount();
+            long[] longs = new long[count];
+            Object[] values = null;
+            for (int row = 0; row < count; row++) {
+                cursor.moveToPosition(row);
+                int type = cursor.getType(column);
+                if (values == null && type == Cursor.FIELD_TYPE_INTEGER) {
+                    longs[row] = cursor.getLong(column);
+                    continue;
+                }
+                if (values == null) {
+                    values = new Object[count];
+                    for (int i = 0; i < row; i++) {
+                        values[i] = longs[i];
+                    }
+                }
+                switch (type) {
+                    case Cursor.FIELD_TYPE_NULL:
+                        values[row] = null;
+                        break;
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        values[row] = cursor.getLong(column);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        values[row] = cursor.getDouble(column);
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        values[row] = cursor.getBlob(column);
+                        break;
+                    default:
+                        values[row] = cursor.getString(column);
+                        break;
+                }
+            }
+            return values == null ? new SortKeys(count, longs, null) : new SortKeys(count, null, values);
+        }
+
+        static int compare(SortKeys a, int i, SortKeys b, int j) {
+            if (a.longs != null && b.longs != null) {
+                long l = a.longs[i];
+                long r = b.longs[j];
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+            return compareValues(a.value(i), b.value(j));
+        }
+
+        private Object value(int row) {
+            return longs != null ? longs[row] : values[row];
+        }
+
+        private static int compareValues(Object l, Object r) {
+            int lRank = rank(l);
+            int rRank = rank(r);
+            if (lRank != rRank) {
+                return lRank < rRank ? -1 : 1;
+            }
+            switch (lRank) {
+                case 0:
+                    return 0;
+                case 1:
+                    if (l instanceof Long && r instanceof Long) {
+                        long lLong = (Long) l;
+                        long rLong = (Long) r;
+                        return lLong < rLong ? -1 : (lLong == rLong ? 0 : 1);
+                    }
+                    return Double.compare(((Number) l).doubleValue(), ((Number) r).doubleValue());
+                case 2:
+                    return ((String) l).compareTo((String) r);
+                default:
+                    byte[] lBytes = (byte[]) l;
+                    byte[] rBytes = (byte[]) r;
+                    for (int i = 0; i < Math.min(lBytes.length, rBytes.length); i++) {
+                        int diff = (lBytes[i] & 0xFF) - (rBytes[i] & 0xFF);
+                        if (diff != 0) {
+                            return diff;
+                        }
+                    }
+                    return lBytes.length - rBytes.length;
+            }
+        }
+
+        private static int rank(Object value) {
+            if (value == null) {
+                return 0;
+            } else if (value instanceof Number) {
+                return 1;
+            } else if (value instanceof String) {
+                return 2;
+            } else {
+                return 3;
+            }
+        }
+    }
+
+    private final class SourceObserver extends ContentObserver {
+        private final int index;
+
+        SourceObserver(Handler handler, int index) {
+            super(handler);
+            this.index = index;
+        }
+
+        @Override
+        public boolean deliverSelfNotifications() {
+            return true;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            sources[index].version++;
+            onContentChanged();
+        }
+    }
+
+    /**
+     * The merged rows of every source. It reads through the sources' cursors, so it shares their
+     * position, and closing it leaves them open for the loader to close.
+     */
+    public static final class SortedMergeCursor extends AbstractCursor {
+        private final Cursor[] cursors;
+        private final int[] sourceOf;
+        private final int[] rowOf;
+        private final String[] columnNames;
+        private Cursor current;
+
+        SortedMergeCursor(Cursor[] cursors, int[] sourceOf, int[] rowOf) {
+            this.cursors = cursors;
+            this.sourceOf = sourceOf;
+            this.rowOf = rowOf;
+            String[] columnNames = new String[0];
+            for (Cursor cursor : cursors) {
+                if (cursor != null) {
+                    columnNames = cursor.getColumnNames();
+                    break;
+                }
+            }
+            this.columnNames = columnNames;
+        }
+
+        /**
+         * Returns the index of the source the current row came from, in the order they were added
+         * to the {@link Builder}.
+         */
+        public int getSource() {
+            checkPosition();
+            return sourceOf[getPosition()];
+        }
+
+        @Override
+        public boolean onMove(int oldPosition, int newPosition) {
+            current = cursors[sourceOf[newPosition]];
+            return current.moveToPosition(rowOf[newPosition]);
+        }
+
+        @Override
+        public int getCount() {
+            return sourceOf.length;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return columnNames;
+        }
+
+        @Override
+        public String getString(int column) {
+            return current.getString(column);
+        }
+
+        @Override
+        public short getShort(int column) {
+            return current.getShort(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return current.getInt(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            return current.getLong(column);
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return current.getFloat(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return current.getDouble(column);
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            return current.getBlob(column);
+        }
+
+        @Override
+        public int getType(int column) {
+            return current.getType(column);
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return current.isNull(column);
+        }
+    }
+
+    public static class Builder {
+        private final String sortColumn;
+        private final boolean descending;
+        private final List<CursorLoader.Builder> sources = new ArrayList<>();
+        private Executor executor;
+        private long updateThrottle;
+
+        /**
+         * @param sortColumn The column to merge by, every source must have it.
+         * @param descending If the sources are sorted by the column in descending order.
+         */
+        public Builder(String sortColumn, boolean descending) {
+            this.sortColumn = sortColumn;
+            this.descending = descending;
+        }
+
+        /**
+         * Adds a source to query. Only its query is used, its executor and other options are
+         * ignored. Every source should have the same columns in the same order.
+         */
+        public Builder add(CursorLoader.Builder source) {
+            sources.add(source);
+            return this;
+        }
+
+        /**
+         * The executor to run the queries on. Defaults to the {@link CursorLoader#BULKHEAD}
+         * bulkhead.
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Waits this long after a source changes before re-querying. See {@link
+         * CursorLoader.Builder#updateThrottle(long)}.
+         */
+        public Builder updateThrottle(long delayMillis) {
+            if (delayMillis < 0) {
+                throw new IllegalArgumentException("delayMillis < 0");
+            }
+            this.updateThrottle = delayMillis;
+            return this;
+        }
+
+        public MergeCursorLoader build() {
+            if (sources.isEmpty()) {
+                throw new IllegalStateException("no sources");
+            }
+            Executor executor = this.executor;
+            if (executor == null) {
+                executor = CursorLoader.bulkhead();
+            }
+            return new MergeCursorLoader(this, executor);
+        }
+    }
+}
@@ -0,0 +1,560 @@
+package me.tatarka.loader;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.support.annotation.MainThread;
+import android.support.annotation.Nullable;
+import android.support.v4.content.ContentResolverCompat;
+import android.support.v4.os.OperationCanceledException;
+import android.util.SparseArray;
+
+import java.util.concurrent.Executor;
+
+import me.tatarka.retainstate.RetainState;
+
+/**
+ * A {@link Loader} for very large queries that loads them a page at a time instead of filling one
+ * huge cursor like {@link CursorLoader}. Pages are queried with {@code LIMIT} and {@code OFFSET}
+ * appended to the sort order, so the content provider must be backed by SQLite or otherwise
+ * understand them.
+ * <p>
+ * Call {@link #setPosition(int)} as the user scrolls. The loader queries the page containing that
+ * position and prefetches its neighbors, and closes pages that are far away. Each time a page
+ * arrives, a new {@link CursorPages} with every loaded page is delivered. When the content changes,
+ * the loaded pages are re-queried in place, the old ones are closed once their replacement has been
+ * delivered.
+ */
+public final class PagedCursorLoader extends Loader<PagedCursorLoader.CursorPages> {
+
+    public static RetainState.OnCreate<PagedCursorLoader> create(final Builder builder) {
+        return new RetainState.OnCreate<PagedCursorLoader>() {
+            @Override
+            public PagedCursorLoader onCreate() {
+                return builder.build();
+            }
+        };
+    }
+
+    private final Handler handler;
+    private final ForceLoadContentObserver observer;
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            refreshScheduled = false;
+            if (isVisible()) {
+                refresh();
+            } else {
+                stale = true;
+            }
+        }
+    };
+
+    private final ContentResolver resolver;
+    private final Uri uri;
+    private final String[] projection;
+    private final String selection;
+    private final String[] selectionArgs;
+    private final String sortOrder;
+    private final Executor executor;
+    private final int pageSize;
+    private final int prefetchPages;
+    private final int releasePages;
+    private final long updateThrottle;
+
+    private final SparseArray<Page> pages = new SparseArray<>();
+    private Receiver receiver;
+    private int position;
+    /**
+     * The number of rows, or -1 if the last page hasn't been loaded yet.
+     */
+    private int end = -1;
+    /**
+     * Set when the content changed while paused or detached so the pages can be re-queried once
+     * someone can see them again.
+     */
+    private boolean stale;
+    /**
+     * Set while a refresh is waiting out the update throttle. Every page cursor notifies the
+     * observer, so this is what makes one change refresh the pages once.
+     */
+    private boolean refreshScheduled;
+
+    PagedCursorLoader(Builder builder) {
+        handler = new Handler();
+        observer = new ForceLoadContentObserver(handler);
+        this.resolver = builder.resolver;
+        this.uri = builder.uri;
+        this.projection = builder.projection;
+        this.selection = builder.selection;
+        this.selectionArgs = builder.selectionArgs;
+        this.sortOrder = builder.sortOrder;
+        this.executor = builder.executor != null ? builder.executor : CursorLoader.bulkhead();
+        this.pageSize = builder.pageSize;
+        this.prefetchPages = builder.prefetchPages;
+        this.releasePages = builder.releasePages;
+        this.updateThrottle = builder.updateThrottle;
+    }
+
+    /**
+     * Returns the position last passed to {@link #setPosition(int)}.
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Moves the viewport to the given row, usually the first visible one. If the loader is running,
+     * this queries any missing pages around it and closes pages that are far away. This must be
+     * called on the main thread.
+     */
+    @MainThread
+    public void setPosition(int position) {
+        if (position < 0) {
+            throw new IllegalArgumentException("position < 0");
+        }
+        this.position = position;
+        if (receiver != null) {
+            loadAround();
+        }
+    }
+
+    @Override
+    protected void onStart(Receiver receiver) {
+        this.receiver = receiver;
+        end = -1;
+        loadAround();
+    }
+
+    @Override
+    protected void onCancel() {
+        receiver = null;
+        stale = false;
+        refreshScheduled = false;
+        handler.removeCallbacks(refresh);
+        for (int i = 0; i < pages.size(); i++) {
+            release(pages.valueAt(i));
+        }
+        pages.clear();
+    }
+
+    @Override
+    protected void onResume() {
+        refreshIfStale();
+    }
+
+    @Override
+    protected void onAttach() {
+        refreshIfStale();
+    }
+
+    private void loadAround() {
+        int center = position / pageSize;
+        for (int i = pages.size() - 1; i >= 0; i--) {
+            int index = pages.keyAt(i);
+            if (Math.abs(index - center) > releasePages) {
+                release(pages.valueAt(i));
+                pages.removeAt(i);
+            }
+        }
+        load(center);
+        for (int distance = 1; distance <= prefetchPages; distance++) {
+            load(center + distance);
+            load(center - distance);
+        }
+    }
+
+    private void load(int index) {
+        if (index < 0 || pages.get(index) != null) {
+            return;
+        }
+        if (end >= 0 && index > 0 && index * pageSize >= end) {
+            // Past the last row.
+            return;
+        }
+        Page page = new Page();
+        pages.put(index, page);
+        query(index, page);
+    }
+
+    private void query(int index, Page page) {
+        page.load = new PageLoad(this, index, new CancellationToken(false));
+        executor.execute(page.load);
+    }
+
+    private static void release(Page page) {
+        if (page.load != null) {
+            page.load.token.cancel();
+            page.load = null;
+        }
+        if (page.cursor != null && !page.cursor.isClosed()) {
+            page.cursor.close();
+        }
+    }
+
+    /**
+     * Called on the main thread with the queried page, or null if the query was discarded or
+     * returned no cursor.
+     */
+    void onPageLoaded(PageLoad load, @Nullable Cursor cursor) {
+        Page page = pages.get(load.index);
+        if (receiver == null || page == null || page.load != load || load.token.isCanceled()) {
+            if (cursor != null) {
+                cursor.close();
+            }
+            return;
+        }
+        page.load = null;
+        if (cursor == null) {
+            if (page.dirty) {
+                page.dirty = false;
+                query(load.index, page);
+            } else if (page.cursor == null) {
+                // Try again the next time the position changes.
+                pages.remove(load.index);
+            }
+            return;
+        }
+        Cursor oldCursor = page.cursor;
+        page.cursor = cursor;
+        int oldEnd = end;
+        end = computeEnd();
+        receiver.deliverResult(new CursorPages(pages, pageSize, end));
+        if (oldCursor != null && !oldCursor.isClosed()) {
+            oldCursor.close();
+        }
+
+        if (page.dirty) {
+            page.dirty = false;
+            query(load.index, page);
+        }
+        if (end != oldEnd) {
+            // Prefetches past the old end may have been skipped.
+            loadAround();
+        }
+    }
+
+    /**
+     * The rows end in the first page that isn't full. Pages after it are either empty or about to
+     * be replaced by a re-query.
+     */
+    private int computeEnd() {
+        for (int i = 0; i < pages.size(); i++) {
+            Cursor cursor = pages.valueAt(i).cursor;
+            if (cursor != null) {
+                int count = cursor.getCount();
+                if (count < pageSize) {
+                    return pages.keyAt(i) * pageSize + count;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private boolean isVisible() {
+        return !isPaused() && isAttached();
+    }
+
+    /**
+     * Coalesces changes within the update throttle into a single refresh.
+     */
+    private void onContentChanged() {
+        if (receiver == null) {
+            return;
+        }
+        if (!isVisible()) {
+            // Nobody is looking, wait until we are resumed and attached to re-query.
+            stale = true;
+        } else if (!refreshScheduled) {
+            refreshScheduled = true;
+            handler.postDelayed(refresh, updateThrottle);
+        }
+    }
+
+    private void refreshIfStale() {
+        if (stale && isVisible()) {
+            stale = false;
+            refresh();
+        }
+    }
+
+    /**
+     * Re-queries every page, keeping the old cursors until their replacements arrive. Pages that
+     * are still loading are re-queried once they finish.
+     */
+    private void refresh() {
+        for (int i = 0; i < pages.size(); i++) {
+            Page page = pages.valueAt(i);
+            if (page.load != null) {
+                page.dirty = true;
+            } else {
+                query(pages.keyAt(i), page);
+            }
+        }
+    }
+
+    private static final class Page {
+        Cursor cursor;
+        PageLoad load;
+        /**
+         * Set when the content changed while the page was loading.
+         */
+        boolean dirty;
+    }
+
+    /**
+     * Queries a page on a worker thread and is then posted back to the main thread to deliver it.
+     */
+    private static final class PageLoad implements Runnable, Bulkhead.Discardable {
+        private final PagedCursorLoader loader;
+        final int index;
+        final CancellationToken token;
+        // Written on the worker thread before posting, the handler makes them visible on the main
+        // thread.
+        private boolean ran;
+        private Cursor cursor;
+
+        PageLoad(PagedCursorLoader loader, int index, CancellationToken token) {
+            this.loader = loader;
+            this.index = index;
+            this.token = token;
+        }
+
+        @Override
+        public void run() {
+            if (ran) {
+                loader.onPageLoaded(this, cursor);
+                cursor = null;
+                return;
+            }
+            ran = true;
+            if (!token.isCanceled()) {
+                cursor = query();
+            }
+            loader.handler.post(this);
+        }
+
+        private Cursor query() {
+            PagedCursorLoader loader = this.loader;
+            String pageOrder = loader.sortOrder + " LIMIT " + loader.pageSize + " OFFSET " + index * loader.pageSize;
+            try {
+                Cursor cursor = ContentResolverCompat.query(loader.resolver, loader.uri, loader.projection,
+                        loader.selection, loader.selectionArgs, pageOrder, token.getCancellationSignal());
+                if (cursor != null) {
+                    try {
+                        // Ensure the cursor window is filled, it's only a page.
+                        cursor.getCount();
+                        cursor.registerContentObserver(loader.observer);
+                    } catch (RuntimeException e) {
+                        cursor.close();
+                        throw e;
+                    }
+                }
+                return cursor;
+            } catch (OperationCanceledException e) {
+                // The query was canceled, this page won't be delivered anyway.
+                return null;
+            }
+        }
+
+        @Override
+        public void discard() {
+            ran = true;
+            loader.handler.post(this);
+        }
+    }
+
+    private final class ForceLoadContentObserver extends ContentObserver {
+        ForceLoadContentObserver(Handler handler) {
+            super(handler);
+        }
+
+        @Override
+        public boolean deliverSelfNotifications() {
+            return true;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            onContentChanged();
+        }
+    }
+
+    /**
+     * The pages loaded so far. Only use the latest one delivered, pages are closed when they are
+     * replaced or released which makes them show up as not loaded here.
+     */
+    public static final class CursorPages {
+        private final SparseArray<Cursor> cursors;
+        private final int pageSize;
+        private final int count;
+        private final boolean countKnown;
+
+        CursorPages(SparseArray<Page> pages, int pageSize, int end) {
+            this.pageSize = pageSize;
+            this.cursors = new SparseArray<>(pages.size());
+            int count = 0;
+            for (int i = 0; i < pages.size(); i++) {
+                Cursor cursor = pages.valueAt(i).cursor;
+                if (cursor != null) {
+                    int index = pages.keyAt(i);
+                    cursors.put(index, cursor);
+                    count = Math.max(count, index * pageSize + cursor.getCount());
+                }
+            }
+            this.countKnown = end >= 0;
+            this.count = countKnown ? end : count;
+        }
+
+        /**
+         * Returns the number of rows. If {@link #isCountKnown()} is false, the last page hasn't
+         * been loaded and this is only the rows up to the end of the furthest loaded page.
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * Returns true if the last page has been loaded so {@link #getCount()} is exact.
+         */
+        public boolean isCountKnown() {
+            return countKnown;
+        }
+
+        public int getPageSize() {
+            return pageSize;
+        }
+
+        /**
+         * Returns true if the page containing the row is loaded.
+         */
+        public boolean isLoaded(int position) {
+            Cursor cursor = cursors.get(position / pageSize);
+            return position < count && cursor != null && !cursor.isClosed() && position % pageSize < cursor.getCount();
+        }
+
+        /**
+         * Returns the cursor for the page containing the row moved to that row, or null if it
+         * isn't loaded. Show a placeholder for rows that aren't loaded.
+         */
+        @Nullable
+        public Cursor moveToPosition(int position) {
+            if (!isLoaded(position)) {
+                return null;
+            }
+            Cursor cursor = cursors.get(position / pageSize);
+            cursor.moveToPosition(position % pageSize);
+            return cursor;
+        }
+    }
+
+    public static class Builder {
+        private final ContentResolver resolver;
+        private final Uri uri;
+        private String[] projection;
+        private String selection;
+        private String[] selectionArgs;
+        private String sortOrder;
+        private Executor executor;
+        private int pageSize = 50;
+        private int prefetchPages = 1;
+        private int releasePages = 3;
+        private long updateThrottle;
+
+        public Builder(ContentResolver resolver, Uri uri) {
+            this.resolver = resolver;
+            this.uri = uri;
+        }
+
+        public Builder projection(String... projection) {
+            this.projection = projection;
+            return this;
+        }
+
+        public Builder selection(String selection, String... selectionArgs) {
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+            return this;
+        }
+
+        /**
+         * The sort order, which is required so that pages line up. Make it unique, like by ending
+         * with the {@code _id} column, or rows with the same sort key may show up on two pages.
+         */
+        public Builder sortOrder(String sortOrder) {
+            this.sortOrder = sortOrder;
+            return this;
+        }
+
+        /**
+         * The executor to run page queries on. Defaults to the {@link CursorLoader#BULKHEAD}
+         * bulkhead.
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * The number of rows in a page. Defaults to 50.
+         */
+        public Builder pageSize(int pageSize) {
+            if (pageSize <= 0) {
+                throw new IllegalArgumentException("pageSize <= 0");
+            }
+            this.pageSize = pageSize;
+            return this;
+        }
+
+        /**
+         * The number of pages to load on either side of the current one. Defaults to 1.
+         */
+        public Builder prefetchPages(int prefetchPages) {
+            if (prefetchPages < 0) {
+                throw new IllegalArgumentException("prefetchPages < 0");
+            }
+            this.prefetchPages = prefetchPages;
+            return this;
+        }
+
+        /**
+         * How many pages away from the current one a page can be before it's closed. This is
+         * raised to the prefetch distance if it's lower. Defaults to 3.
+         */
+        public Builder releasePages(int releasePages) {
+            if (releasePages < 0) {
+                throw new IllegalArgumentException("releasePages < 0");
+            }
+            this.releasePages = releasePages;
+            return this;
+        }
+
+        /**
+         * Waits this long after the content changes before re-querying the loaded pages. See
+         * {@link CursorLoader.Builder#updateThrottle(long)}.
+         */
+        public Builder updateThrottle(long delayMillis) {
+            if (delayMillis < 0) {
+                throw new IllegalArgumentException("delayMillis < 0");
+            }
+            this.updateThrottle = delayMillis;
+            return this;
+        }
+
+        public PagedCursorLoader build() {
+            if (sortOrder == null) {
+                throw new IllegalStateException("sortOrder is required for paging");
+            }
+            if (releasePages < prefetchPages) {
+                releasePages = prefetchPages;
+            }
+            return new PagedCursorLoader(this);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package me.tatarka.loader;
+
+import android.support.v4.os.OperationCanceledException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link Loader} for work that can be split into independent chunks, like parsing many files.
+ * The work is split with {@link #split(CancellationToken)}, each chunk is processed in parallel
+ * with {@link #process(Object, CancellationToken)} and the results are combined with {@link
+ * #merge(List)}. Chunks are handed out one at a time to whichever thread is free, so a few slow
+ * chunks don't hold up the rest.
+ * <p>
+ * Chunks run on the {@value #BULKHEAD} {@link Bulkhead}, which has a thread per core unless you
+ * configure it yourself. The thread that splits the work processes chunks too. When the loader is
+ * canceled, chunks that haven't started are skipped and running ones can check the token.
+ *
+ * @param <C> The type of a chunk of work.
+ * @param <P> The result of processing a chunk.
+ * @param <T> The merged result the loader delivers.
+ */
+public abstract class ParallelLoader<C, P, T> extends ExecutorLoader<T> {
+
+    /**
+     * The name of the {@link Bulkhead} chunks run on.
+     */
+    public static final String BULKHEAD = "parallel";
+
+    private final Executor pool;
+    private final int parallelism;
+
+    public ParallelLoader() {
+        this.pool = null;
+        this.parallelism = 0;
+    }
+
+    /**
+     * @param executor Runs {@link #split(CancellationToken)} and coordinates the chunks.
+     */
+    public ParallelLoader(Executor executor) {
+        super(executor);
+        this.pool = null;
+        this.parallelism = 0;
+    }
+
+    /**
+     * @param executor    Runs {@link #split(CancellationToken)} and coordinates the chunks.
+     * @param pool        Runs chunks.
+     * @param parallelism The maximum number of chunks to process at once, including the
+     *                    coordinating thread.
+     */
+    public ParallelLoader(Executor executor, Executor pool, int parallelism) {
+        super(executor);
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism <= 0");
+        }
+        this.pool = pool;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Splits the work into chunks. This is called on a worker thread.
+     */
+    protected abstract List<C> split(CancellationToken token);
+
+    /**
+     * Processes a single chunk. This is called on any of the pool's threads at the same time as
+     * other chunks, so it must be thread-safe. Long running chunks should check the token.
+     */
+    protected abstract P process(C chunk, CancellationToken token);
+
+    /**
+     * Combines processed chunks into the result, they are in the same order as their chunks. This is
+     * called on a single worker thread.
+     */
+    protected abstract T merge(List<P> results);
+
+    /**
+     * Override to return true to publish merged results as chunks finish. Each intermediate result
+     * is {@link #merge(List)} of the chunks finished so far, in chunk order, delivered through
+     * {@link #publishResult(Object)}.
+     */
+    protected boolean publishIntermediateResults() {
+        return false;
+    }
+
+    @Override
+    protected final T doInBackground(CancellationToken token) {
+        List<C> chunks = split(token);
+        Executor pool = this.pool;
+        int parallelism = this.parallelism;
+        if (pool == null) {
+            int cores = Runtime.getRuntime().availableProcessors();
+            pool = Bulkhead.get(BULKHEAD, cores);
+            parallelism = ((Bulkhead) pool).getThreads() + 1;
+        }
+        Work<C, P> work = new Work<>(this, chunks, token);
+        int helpers = Math.min(chunks.size(), parallelism) - 1;
+        for (int i = 0; i < helpers; i++) {
+            pool.execute(work);
+        }
+
+        boolean publish = publishIntermediateResults();
+        int published = 0;
+        int count = chunks.size();
+        while (true) {
+            boolean processed = work.processNext();
+            List<P> intermediate = null;
+            synchronized (work) {
+                if (!processed) {
+                    // Nothing left to claim, wait for the other threads.
+                    while (work.finished < count && work.failure == null && (!publish || work.finished == published)) {
+                        try {
+                            work.wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new OperationCanceledException();
+                        }
+                    }
+                }
+                if (work.failure != null) {
+                    throw new RuntimeException("An error occurred while processing a chunk", work.failure);
+                }
+                if (work.finished == count) {
+                    break;
+                }
+                if (publish && work.finished > published) {
+                    published = work.finished;
+                    intermediate = work.finishedResults();
+                }
+            }
+            if (intermediate != null && !token.isCanceled()) {
+                publishResult(merge(intermediate));
+            }
+        }
+        token.throwIfCanceled();
+        List<P> results;
+        synchronized (work) {
+            results = work.finishedResults();
+        }
+        return merge(results);
+    }
+
+    /**
+     * The shared state of one load, also the task run on the pool to help process chunks.
+     */
+    private static final class Work<C, P> implements Runnable {
+        private final ParallelLoader<C, P, ?> loader;
+        private final List<C> chunks;
+        private final CancellationToken token;
+        private final AtomicInteger next = new AtomicInteger();
+        private final Object[] results;
+        private final boolean[] done;
+        // Guarded by this.
+        int finished;
+        Throwable failure;
+
+        Work(ParallelLoader<C, P, ?> loader, List<C> chunks, CancellationToken token) {
+            this.loader = loader;
+            this.chunks = chunks;
+            this.token = token;
+            this.results = new Object[chunks.size()];
+            this.done = new boolean[chunks.size()];
+        }
+
+        @Override
+        public void run() {
+            while (processNext()) {
+                // Keep claiming chunks until there are none left.
+            }
+        }
+
+        /**
+         * Claims and processes the next chunk, returning false if there are none left. Chunks
+         * claimed after the load is canceled or has failed are skipped.
+         */
+        boolean processNext() {
+            int index = next.getAndIncrement();
+            if (index >= chunks.size()) {
+                return false;
+            }
+            Object result = null;
+            Throwable error = null;
+            boolean skip;
+            synchronized (this) {
+                skip = failure != null;
+            }
+            if (!skip && !token.isCanceled()) {
+                try {
+                    result = loader.process(chunks.get(index), token);
+                } catch (OperationCanceledException e) {
+                    if (!token.isCanceled()) {
+                        error = e;
+                    }
+                } catch (Throwable e) {
+                    error = e;
+                }
+            }
+            synchronized (this) {
+                results[index] = result;
+                done[index] = true;
+                finished++;
+                if (error != null && failure == null) {
+                    failure = error;
+                }
+                notifyAll();
+            }
+            return true;
+        }
+
+        /**
+         * Returns the results of the chunks that have finished so far, in chunk order. Must be
+         * called while holding the lock.
+         */
+        @SuppressWarnings("unchecked")
+        List<P> finishedResults() {
+            if (finished == results.length) {
+                return (List<P>) Arrays.asList(results);
+            }
+            List<P> list = new ArrayList<>(finished);
+            for (int i = 0; i < results.length; i++) {
+                if (done[i]) {
+                    list.add((P) results[i]);
+                }
+            }
+            return list;
+        }
+    }
+}
@@ -0,0 +1,413 @@
+package me.tatarka.loader;
+
+import android.net.Uri;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the queries {@link CursorLoader} runs, so you can find the provider queries behind slow
+ * screens. Each query is timed in two parts: the query itself, and filling the cursor window with
+ * {@link android.database.Cursor#getCount()}, which is where SQLite does most of the work.
+ * <p>
+ * Queries are grouped by their shape, the uri with numeric ids replaced by {@code #} and the
+ * selection with literals replaced by {@code ?}, so {@code items/5} and {@code items/6} count as
+ * the same query. {@link #all()} returns percentiles over each shape's recent queries. Queries that
+ * take longer than {@link #setSlowThresholdMillis(long)} are also reported to a {@link Sink}, which
+ * logs them to logcat by default.
+ */
+public final class QueryLog {
+    private static final String TAG = "QueryLog";
+    /**
+     * The number of recent queries each shape keeps for percentiles.
+     */
+    static final int WINDOW = 128;
+    /**
+     * The most shapes that are tracked, the least recently queried is dropped after that.
+     */
+    static final int MAX_SHAPES = 256;
+
+    /**
+     * Logs slow queries to logcat as warnings.
+     */
+    public static final Sink LOGCAT = new Sink() {
+        @Override
+        public void onSlowQuery(SlowQuery query) {
+            Log.w(TAG, query.toString());
+        }
+    };
+
+    // Guarded by registry.
+    private static final Map<String, Shape> registry = new Registry();
+    private static volatile Sink sink = LOGCAT;
+    private static volatile long slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private QueryLog() {
+    }
+
+    /**
+     * Sets where slow queries are reported, or null to stop reporting them. Defaults to {@link
+     * #LOGCAT}.
+     */
+    public static void setSink(@Nullable Sink sink) {
+        QueryLog.sink = sink;
+    }
+
+    /**
+     * Sets how long a query, including filling its window, can take before it's reported as slow.
+     * Defaults to 100ms.
+     */
+    public static void setSlowThresholdMillis(long thresholdMillis) {
+        if (thresholdMillis < 0) {
+            throw new IllegalArgumentException("thresholdMillis < 0");
+        }
+        slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    }
+
+    /**
+     * Returns the stats for every query shape seen so far, most recently queried last.
+     */
+    public static List<Stats> all() {
+        synchronized (registry) {
+            List<Stats> all = new ArrayList<>(registry.size());
+            for (Shape shape : registry.values()) {
+                all.add(shape.snapshot());
+            }
+            return all;
+        }
+    }
+
+    /**
+     * Forgets every query seen so far.
+     */
+    public static void clear() {
+        synchronized (registry) {
+            registry.clear();
+        }
+    }
+
+    /**
+     * Records a finished query. This is called on the worker thread that ran it.
+     */
+    @WorkerThread
+    static void record(Uri uri, String[] projection, String selection, String sortOrder, long queryNanos, long fillNanos, int rows) {
+        String uriShape = uriShape(uri);
+        String selectionShape = selection != null ? selectionShape(selection) : null;
+        String key = uriShape + '\0' + selectionShape;
+        synchronized (registry) {
+            Shape shape = registry.get(key);
+            if (shape == null) {
+                shape = new Shape(uriShape, selectionShape);
+                registry.put(key, shape);
+            }
+            shape.add(queryNanos, fillNanos);
+        }
+        Sink sink = QueryLog.sink;
+        if (sink != null && queryNanos + fillNanos > slowThresholdNanos) {
+            sink.onSlowQuery(new SlowQuery(uri, projection, selection, sortOrder, queryNanos, fillNanos, rows));
+        }
+    }
+
+    /**
+     * Replaces numeric path segments with {@code #}, like {@link android.content.UriMatcher}.
+     */
+    static String uriShape(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        boolean numeric = false;
+        for (String segment : segments) {
+            numeric |= isNumber(segment);
+        }
+        if (!numeric) {
+            return uri.toString();
+        }
+        StringBuilder shape = new StringBuilder();
+        shape.append(uri.getScheme()).append("://").append(uri.getAuthority());
+        for (String segment : segments) {
+            shape.append('/').append(isNumber(segment) ? "#" : segment);
+        }
+        return shape.toString();
+    }
+
+    private static boolean isNumber(String segment) {
+        if (segment.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < segment.length(); i++) {
+            if (!Character.isDigit(segment.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replaces quoted strings and numbers that aren't part of a name with {@code ?}, so selections
+     * that inline their arguments group together.
+     */
+    static String selectionShape(String selection) {
+        StringBuilder shape = null;
+        int length = selection.length();
+        for (int i = 0; i < length; i++) {
+            char c = selection.charAt(i);
+            int end = i;
+            if (c == '\'') {
+                end = i + 1;
+                while (end < length) {
+                    if (selection.charAt(end) == '\'') {
+                        // A doubled quote is an escaped quote.
+                        if (end + 1 < length && selection.charAt(end + 1) == '\'') {
+                            end += 2;
+                            continue;
+                        }
+                        end++;
+                        break;
+                    }
+                    end++;
+                }
+            } else if (Character.isDigit(c) && (i == 0 || !isNamePart(selection.charAt(i - 1)))) {
+                end = i + 1;
+                while (end < length && (Character.isDigit(selection.charAt(end)) || selection.charAt(end) == '.')) {
+                    end++;
+                }
+            }
+            if (end > i) {
+                if (shape == null) {
+                    shape = new StringBuilder(length);
+                    shape.append(selection, 0, i);
+                }
+                shape.append('?');
+                i = end - 1;
+            } else if (shape != null) {
+                shape.append(c);
+            }
+        }
+        return shape != null ? shape.toString() : selection;
+    }
+
+    private static boolean isNamePart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    /**
+     * Receives queries that took longer than the slow threshold.
+     */
+    public interface Sink {
+        /**
+         * Called on the worker thread that ran the query, right after it finished. Don't block.
+         */
+        @WorkerThread
+        void onSlowQuery(SlowQuery query);
+    }
+
+    /**
+     * A query that took longer than the slow threshold.
+     */
+    public static final class SlowQuery {
+        private final Uri uri;
+        private final String[] projection;
+        private final String selection;
+        private final String sortOrder;
+        private final long queryNanos;
+        private final long fillNanos;
+        private final int rows;
+
+        SlowQuery(Uri uri, String[] projection, String selection, String sortOrder, long queryNanos, long fillNanos, int rows) {
+            this.uri = uri;
+            this.projection = projection;
+            this.selection = selection;
+            this.sortOrder = sortOrder;
+            this.queryNanos = queryNanos;
+            this.fillNanos = fillNanos;
+            this.rows = rows;
+        }
+
+        public Uri getUri() {
+            return uri;
+        }
+
+        @Nullable
+        public String[] getProjection() {
+            return projection;
+        }
+
+        @Nullable
+        public String getSelection() {
+            return selection;
+        }
+
+        @Nullable
+        public String getSortOrder() {
+            return sortOrder;
+        }
+
+        /**
+         * Returns how long the query itself took.
+         */
+        public float getQueryMillis() {
+            return queryNanos / 1e6f;
+        }
+
+        /**
+         * Returns how long filling the cursor window took.
+         */
+        public float getFillMillis() {
+            return fillNanos / 1e6f;
+        }
+
+        /**
+         * Returns the number of rows, or -1 if the query returned no cursor.
+         */
+        public int getRows() {
+            return rows;
+        }
+
+        @Override
+        public String toString() {
+            return "SlowQuery{uri=" + uri
+                    + ", projection=" + Arrays.toString(projection)
+                    + ", selection=" + selection
+                    + ", sortOrder=" + sortOrder
+                    + ", query=" + getQueryMillis() + "ms"
+                    + ", fill=" + getFillMillis() + "ms"
+                    + ", rows=" + rows
+                    + "}";
+        }
+    }
+
+    /**
+     * A snapshot of the recent queries of one shape.
+     */
+    public static final class Stats {
+        private final String uri;
+        private final String selection;
+        private final int count;
+        private final long[] queryNanos;
+        private final long[] fillNanos;
+
+        Stats(String uri, String selection, int count, long[] queryNanos, long[] fillNanos) {
+            this.uri = uri;
+            this.selection = selection;
+            this.count = count;
+            this.queryNanos = queryNanos;
+            this.fillNanos = fillNanos;
+            Arrays.sort(queryNanos);
+            Arrays.sort(fillNanos);
+        }
+
+        /**
+         * Returns the uri with numeric ids replaced by {@code #}.
+         */
+        public String getUri() {
+            return uri;
+        }
+
+        /**
+         * Returns the selection with literals replaced by {@code ?}.
+         */
+        @Nullable
+        public String getSelection() {
+            return selection;
+        }
+
+        /**
+         * Returns the number of queries of this shape, including ones too old to count towards the
+         * percentiles.
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * Returns how long the query itself took for the given percentile, from 0 to 100, of recent
+         * queries.
+         */
+        public float getQueryMillis(float percentile) {
+            return percentile(queryNanos, percentile) / 1e6f;
+        }
+
+        /**
+         * Returns how long filling the cursor window took for the given percentile, from 0 to 100,
+         * of recent queries.
+         */
+        public float getFillMillis(float percentile) {
+            return percentile(fillNanos, percentile) / 1e6f;
+        }
+
+        private static long percentile(long[] sorted, float percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("percentile must be between 0 and 100");
+            }
+            if (sorted.length == 0) {
+                return 0;
+            }
+            // Nearest rank.
+            int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+            return sorted[Math.max(rank - 1, 0)];
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{uri=" + uri
+                    + ", selection=" + selection
+                    + ", count=" + count
+                    + ", query=" + getQueryMillis(50) + "/" + getQueryMillis(90) + "/" + getQueryMillis(99) + "ms"
+                    + ", fill=" + getFillMillis(50) + "/" + getFillMillis(90) + "/" + getFillMillis(99) + "ms"
+                    + "}";
+        }
+    }
+
+    /**
+     * The query shapes in access order, dropping the least recently queried past {@link
+     * #MAX_SHAPES}.
+     */
+    private static final class Registry extends LinkedHashMap<String, Shape> {
+        private static final long serialVersionUID = 1L;
+
+        Registry() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Shape> eldest) {
+            return size() > MAX_SHAPES;
+        }
+    }
+
+    /**
+     * The recent queries of one shape in a ring buffer.
+     */
+    private static final class Shape {
+        final String uri;
+        final String selection;
+        final long[] queryNanos = new long[WINDOW];
+        final long[] fillNanos = new long[WINDOW];
+        int count;
+        int next;
+
+        Shape(String uri, String selection) {
+            this.uri = uri;
+            this.selection = selection;
+        }
+
+        void add(long query, long fill) {
+            queryNanos[next] = query;
+            fillNanos[next] = fill;
+            next = (next + 1) % WINDOW;
+            if (count < Integer.MAX_VALUE) {
+                count++;
+            }
+        }
+
+        Stats snapshot() {
+            int size = Math.min(count, WINDOW);
+            return new Stats(uri, selection, count, Arrays.copyOf(queryNanos, size), Arrays.copyOf(fillNanos, size));
+        }
+    }
+}
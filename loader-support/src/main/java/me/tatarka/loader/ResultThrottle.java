@@ -0,0 +1,127 @@
+package me.tatarka.loader;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Delivers partial results published from a worker thread to a {@link Loader.Receiver} on the main
+ * thread, at most once per interval. Results published faster than that are conflated, only the
+ * latest one is delivered.
+ */
+final class ResultThrottle<T> implements Runnable {
+
+    /**
+     * A handler for the main thread shared by all background loaders.
+     */
+    static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    private static final ThreadLocal<Host<?>> current = new ThreadLocal<>();
+
+    /**
+     * Makes the given load the one running on the current thread until {@link #exit()}.
+     */
+    static void enter(Host<?> host) {
+        current.set(host);
+    }
+
+    static void exit() {
+        // Not remove(), so the thread's entry is reused by the next load.
+        current.set(null);
+    }
+
+    /**
+     * Returns the throttle for the load running on the current thread, if it belongs to the given
+     * loader.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> ResultThrottle<T> current(Loader<T> loader) {
+        Host<?> host = current.get();
+        if (host == null || host.getLoader() != loader) {
+            throw new IllegalStateException("publishResult() must be called from doInBackground()");
+        }
+        return ((Host<T>) host).getThrottle();
+    }
+
+    private final Loader<T>.Receiver receiver;
+    private final CancellationToken token;
+    private final Handler handler;
+    private final long intervalMillis;
+
+    // Guarded by this.
+    private T pending;
+    private boolean scheduled;
+    private boolean finished;
+    private long lastDeliveredAt;
+
+    ResultThrottle(Loader<T>.Receiver receiver, CancellationToken token, Handler handler, long intervalMillis) {
+        this.receiver = receiver;
+        this.token = token;
+        this.handler = handler;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Called on the worker thread to publish a partial result.
+     */
+    void publish(T result) {
+        if (token.isCanceled()) {
+            return;
+        }
+        long delay;
+        synchronized (this) {
+            if (finished) {
+                return;
+            }
+            pending = result;
+            if (scheduled) {
+                // Conflate with the one already on its way.
+                return;
+            }
+            scheduled = true;
+            delay = lastDeliveredAt == 0 ? 0 : Math.max(0, lastDeliveredAt + intervalMillis - SystemClock.uptimeMillis());
+        }
+        handler.postDelayed(this, delay);
+    }
+
+    @Override
+    public void run() {
+        T result;
+        synchronized (this) {
+            if (!scheduled) {
+                return;
+            }
+            result = pending;
+            pending = null;
+            scheduled = false;
+            lastDeliveredAt = SystemClock.uptimeMillis();
+        }
+        if (!token.isCanceled()) {
+            receiver.deliverResult(result);
+        }
+    }
+
+    /**
+     * Drops any pending partial result so the final result is the last one delivered. This must be
+     * called on the main thread.
+     */
+    void finish() {
+        synchronized (this) {
+            finished = true;
+            scheduled = false;
+            pending = null;
+        }
+        handler.removeCallbacks(this);
+    }
+
+    /**
+     * A single load that can publish results. Most loads never do, so the throttle is only created
+     * on the worker thread the first time it's asked for. It's then visible to the main thread
+     * once the load has posted its final result.
+     */
+    interface Host<T> {
+        Loader<T> getLoader();
+
+        ResultThrottle<T> getThrottle();
+    }
+}
@@ -0,0 +1,245 @@
+package me.tatarka.loader;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.DataSetObserver;
+import android.net.Uri;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.support.v4.content.ContentResolverCompat;
+import android.support.v4.os.CancellationSignal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A process-wide cache that lets {@link CursorLoader}s running the same query share one cursor, see
+ * {@link CursorLoader.Builder#shared(boolean)}. Each consumer gets its own wrapper around the shared
+ * cursor and closing it releases that consumer's reference. The cursor is closed once the last
+ * reference is released.
+ * <p>
+ * When the content changes the first consumer to notice invalidates the entry, so the next query
+ * runs again and is shared by everyone re-querying, while the old cursor stays open until each
+ * consumer has moved on.
+ */
+final class SharedCursors {
+
+    static final SharedCursors INSTANCE = new SharedCursors();
+
+    // Guarded by this.
+    private final Map<Key, Entry> entries = new HashMap<>();
+
+    /**
+     * Returns a cursor for the query, running it only if no one else has it or is running it. A
+     * query that is already running is waited on. Close the returned cursor to release it.
+     */
+    @Nullable
+    @WorkerThread
+    Cursor acquire(ContentResolver resolver, Key key, CancellationSignal signal) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry(key);
+                entries.put(key, entry);
+            }
+            // Hold a reference while querying so the entry isn't dropped from under us.
+            entry.refs++;
+        }
+        boolean acquired = false;
+        try {
+            synchronized (entry) {
+                if (entry.cursor == null) {
+                    long start = System.nanoTime();
+                    Cursor cursor = ContentResolverCompat.query(resolver,
+                            key.uri, key.projection, key.selection, key.selectionArgs, key.sortOrder, signal);
+                    long queried = System.nanoTime();
+                    if (cursor == null) {
+                        QueryLog.record(key.uri, key.projection, key.selection, key.sortOrder, queried - start, 0, -1);
+                        return null;
+                    }
+                    int rows;
+                    try {
+                        // Ensure the cursor window is filled.
+                        rows = cursor.getCount();
+                    } catch (RuntimeException e) {
+                        cursor.close();
+                        throw e;
+                    }
+                    QueryLog.record(key.uri, key.projection, key.selection, key.sortOrder, queried - start, System.nanoTime() - queried, rows);
+                    entry.cursor = cursor;
+                }
+            }
+            acquired = true;
+            return new SharedCursor(this, entry);
+        } finally {
+            if (!acquired) {
+                release(entry);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of queries that are cached or running.
+     */
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Makes sure the next {@link #acquire(ContentResolver, Key, CancellationSignal)} for the
+     * cursor's query runs it again. Does nothing if the cursor isn't shared or was already
+     * invalidated.
+     */
+    static void invalidate(@Nullable Cursor cursor) {
+        if (cursor instanceof SharedCursor) {
+            SharedCursor shared = (SharedCursor) cursor;
+            shared.cache.remove(shared.entry);
+        }
+    }
+
+    private synchronized void remove(Entry entry) {
+        if (entries.get(entry.key) == entry) {
+            entries.remove(entry.key);
+        }
+    }
+
+    private void release(Entry entry) {
+        Cursor cursor = null;
+        synchronized (this) {
+            entry.refs--;
+            if (entry.refs == 0) {
+                remove(entry);
+                cursor = entry.cursor;
+            }
+        }
+        if (cursor != null) {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Everything that makes up a query.
+     */
+    static final class Key {
+        final Uri uri;
+        final String[] projection;
+        final String selection;
+        final String[] selectionArgs;
+        final String sortOrder;
+
+        Key(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+            this.uri = uri;
+            this.projection = projection;
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+            this.sortOrder = sortOrder;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return uri.equals(key.uri)
+                    && Arrays.equals(projection, key.projection)
+                    && (selection != null ? selection.equals(key.selection) : key.selection == null)
+                    && Arrays.equals(selectionArgs, key.selectionArgs)
+                    && (sortOrder != null ? sortOrder.equals(key.sortOrder) : key.sortOrder == null);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = uri.hashCode();
+            result = 31 * result + Arrays.hashCode(projection);
+            result = 31 * result + (selection != null ? selection.hashCode() : 0);
+            result = 31 * result + Arrays.hashCode(selectionArgs);
+            result = 31 * result + (sortOrder != null ? sortOrder.hashCode() : 0);
+            return result;
+        }
+    }
+
+    private static final class Entry {
+        final Key key;
+        // Guarded by the cache.
+        int refs;
+        // Written while holding the entry, read when the last reference is released.
+        volatile Cursor cursor;
+
+        Entry(Key key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * One consumer's reference to a shared cursor. Consumers share its position, so move to the row
+     * you want before reading it like adapters do. Observers registered through it are unregistered
+     * when it's closed.
+     */
+    private static final class SharedCursor extends CursorWrapper {
+        final SharedCursors cache;
+        final Entry entry;
+        private final List<ContentObserver> contentObservers = new ArrayList<>();
+        private final List<DataSetObserver> dataSetObservers = new ArrayList<>();
+        private boolean closed;
+
+        SharedCursor(SharedCursors cache, Entry entry) {
+            super(entry.cursor);
+            this.cache = cache;
+            this.entry = entry;
+        }
+
+        @Override
+        public void registerContentObserver(ContentObserver observer) {
+            super.registerContentObserver(observer);
+            contentObservers.add(observer);
+        }
+
+        @Override
+        public void unregisterContentObserver(ContentObserver observer) {
+            if (contentObservers.remove(observer)) {
+                super.unregisterContentObserver(observer);
+            }
+        }
+
+        @Override
+        public void registerDataSetObserver(DataSetObserver observer) {
+            super.registerDataSetObserver(observer);
+            dataSetObservers.add(observer);
+        }
+
+        @Override
+        public void unregisterDataSetObserver(DataSetObserver observer) {
+            if (dataSetObservers.remove(observer)) {
+                super.unregisterDataSetObserver(observer);
+            }
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (ContentObserver observer : contentObservers) {
+                super.unregisterContentObserver(observer);
+            }
+            contentObservers.clear();
+            for (DataSetObserver observer : dataSetObservers) {
+                super.unregisterDataSetObserver(observer);
+            }
+            dataSetObservers.clear();
+            cache.release(entry);
+        }
+    }
+}
@@ -7,6 +7,7 @@ import android.support.v4.os.OperationCanceledException;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.InOrder;
 import org.robolectric.RobolectricGradleTestRunner;
 import org.robolectric.annotation.Config;
 import org.robolectric.shadows.ShadowApplication;
@@ -15,8 +16,10 @@ import org.robolectric.util.Scheduler;
 import java.util.concurrent.Executor;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -97,6 +100,50 @@ public class AsyncTaskLoaderTest {
         assertEquals(OperationCanceledException.class, backgroundExecutor.exception.getCause().getClass());
     }
 
+    @Test
+    public void cancelBeforeRunSkipsDoInBackground() {
+        background.pause();
+
+        loader.start();
+        loader.cancel();
+
+        background.unPause();
+
+        assertFalse(loader.didRun());
+    }
+
+    @Test
+    public void publishedResultsAreDeliveredBeforeFinalResult() {
+        Scheduler foreground = ShadowApplication.getInstance().getForegroundThreadScheduler();
+        foreground.pause();
+
+        AsyncTaskLoader<String> loader = new AsyncTaskLoader<String>(backgroundExecutor) {
+            @Override
+            protected String doInBackground(CancellationToken token) {
+                publishResult("one");
+                publishResult("two");
+                return "final";
+            }
+        };
+        Loader.Callbacks<String> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+
+        foreground.unPause();
+
+        InOrder inOrder = inOrder(callbacks);
+        inOrder.verify(callbacks).onLoaderStart();
+        inOrder.verify(callbacks).onLoaderResult(eq("two"));
+        inOrder.verify(callbacks).onLoaderResult(eq("final"));
+        inOrder.verify(callbacks).onLoaderComplete();
+        verifyNoMoreInteractions(callbacks);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void publishOutsideOfDoInBackgroundThrows() {
+        loader.publishResult("test");
+    }
+
     private static class BackgroundThreadSchedulerExecutor implements Executor {
         @Nullable
         Throwable exception;
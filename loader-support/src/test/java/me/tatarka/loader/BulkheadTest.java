@@ -0,0 +1,257 @@
+package me.tatarka.loader;
+
+import android.database.Cursor;
+import android.net.Uri;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class BulkheadTest {
+
+    final CountDownLatch release = new CountDownLatch(1);
+
+    @After
+    public void teardown() {
+        release.countDown();
+    }
+
+    @Test
+    public void getReturnsSameBulkhead() {
+        Bulkhead bulkhead = new Bulkhead.Builder("getReturnsSameBulkhead").build();
+
+        assertTrue(bulkhead == Bulkhead.get("getReturnsSameBulkhead"));
+        assertTrue(Bulkhead.all().contains(bulkhead));
+    }
+
+    @Test
+    public void getCreatesDefault() {
+        Bulkhead bulkhead = Bulkhead.get("getCreatesDefault");
+
+        assertEquals(2, bulkhead.getThreads());
+        assertEquals(64, bulkhead.getQueueLimit());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void buildTwiceThrows() {
+        new Bulkhead.Builder("buildTwiceThrows").build();
+        new Bulkhead.Builder("buildTwiceThrows").build();
+    }
+
+    @Test
+    public void runsWork() throws InterruptedException {
+        Bulkhead bulkhead = new Bulkhead.Builder("runsWork").build();
+        final CountDownLatch ran = new CountDownLatch(1);
+        bulkhead.execute(new Runnable() {
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        });
+
+        assertTrue(ran.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void reportsQueueDepthAndSaturation() throws InterruptedException {
+        Bulkhead bulkhead = new Bulkhead.Builder("reportsQueueDepthAndSaturation").threads(1).queueLimit(3).build();
+        block(bulkhead);
+        bulkhead.execute(task());
+        bulkhead.execute(task());
+
+        assertEquals(1, bulkhead.getActiveCount());
+        assertEquals(2, bulkhead.getQueueDepth());
+        assertEquals(0.75f, bulkhead.getSaturation(), 0.001f);
+    }
+
+    @Test
+    public void discardOldestCancelsOldest() throws InterruptedException {
+        Bulkhead bulkhead = new Bulkhead.Builder("discardOldestCancelsOldest").threads(1).queueLimit(1).build();
+        block(bulkhead);
+        FutureTask<Void> oldest = task();
+        FutureTask<Void> newest = task();
+        bulkhead.execute(oldest);
+        bulkhead.execute(newest);
+
+        assertTrue(oldest.isCancelled());
+        assertFalse(newest.isCancelled());
+        assertEquals(1, bulkhead.getQueueDepth());
+        assertEquals(1, bulkhead.getRejectedCount());
+    }
+
+    @Test
+    public void discardCancelsNewest() throws InterruptedException {
+        Bulkhead bulkhead = new Bulkhead.Builder("discardCancelsNewest").threads(1).queueLimit(1).rejectionPolicy(Bulkhead.DISCARD).build();
+        block(bulkhead);
+        FutureTask<Void> oldest = task();
+        FutureTask<Void> newest = task();
+        bulkhead.execute(oldest);
+        bulkhead.execute(newest);
+
+        assertFalse(oldest.isCancelled());
+        assertTrue(newest.isCancelled());
+        assertEquals(1, bulkhead.getRejectedCount());
+    }
+
+    @Test
+    public void waitHoldsNewestUntilThereIsRoom() throws InterruptedException {
+        Bulkhead bulkhead = new Bulkhead.Builder("waitHoldsNewestUntilThereIsRoom").threads(1).queueLimit(1).rejectionPolicy(Bulkhead.WAIT).build();
+        block(bulkhead);
+        FutureTask<Void> oldest = task();
+        FutureTask<Void> newest = task();
+        bulkhead.execute(oldest);
+        bulkhead.execute(newest);
+
+        assertFalse(oldest.isCancelled());
+        assertFalse(newest.isCancelled());
+        assertEquals(2, bulkhead.getQueueDepth());
+        assertEquals(1, bulkhead.getRejectedCount());
+
+        release.countDown();
+
+        assertTrue(awaitDone(oldest));
+        assertTrue(awaitDone(newest));
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void abortThrows() throws InterruptedException {
+        Bulkhead bulkhead = new Bulkhead.Builder("abortThrows").threads(1).queueLimit(1).rejectionPolicy(Bulkhead.ABORT).build();
+        block(bulkhead);
+        bulkhead.execute(task());
+        bulkhead.execute(task());
+    }
+
+    @Test
+    public void asyncTaskLoaderUsesCategory() throws InterruptedException {
+        Bulkhead bulkhead = new Bulkhead.Builder("asyncTaskLoaderUsesCategory").threads(1).build();
+        block(bulkhead);
+        AsyncTaskLoader<String> loader = new AsyncTaskLoader<String>("asyncTaskLoaderUsesCategory") {
+            @Override
+            protected String doInBackground(CancellationToken token) {
+                return null;
+            }
+        };
+        loader.start();
+
+        assertEquals(1, bulkhead.getQueueDepth());
+
+        loader.cancel();
+    }
+
+    @Test
+    public void discardedAsyncTaskLoaderCompletes() throws InterruptedException {
+        Bulkhead bulkhead = new Bulkhead.Builder("discardedAsyncTaskLoaderCompletes").threads(1).queueLimit(1).build();
+        block(bulkhead);
+        AsyncTaskLoader<String> loader = new AsyncTaskLoader<String>("discardedAsyncTaskLoaderCompletes") {
+            @Override
+            protected String doInBackground(CancellationToken token) {
+                return null;
+            }
+        };
+        Loader.Callbacks<String> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+        bulkhead.execute(task());
+
+        assertTrue(loader.isCompleted());
+        assertFalse(loader.hasResult());
+        verify(callbacks, never()).onLoaderResult(anyString());
+        verify(callbacks).onLoaderComplete();
+    }
+
+    @Test
+    public void discardedCursorLoaderCompletes() throws InterruptedException {
+        Bulkhead bulkhead = new Bulkhead.Builder("discardedCursorLoaderCompletes").threads(1).queueLimit(1).build();
+        block(bulkhead);
+        CursorLoader loader = new CursorLoader.Builder(RuntimeEnvironment.application.getContentResolver(), Uri.parse("content://me.tatarka.loader.discarded"))
+                .executor(bulkhead)
+                .build();
+        Loader.Callbacks<Cursor> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+        bulkhead.execute(task());
+
+        assertTrue(loader.isCompleted());
+        assertFalse(loader.hasResult());
+        verify(callbacks, never()).onLoaderResult(any(Cursor.class));
+        verify(callbacks).onLoaderComplete();
+    }
+
+    @Test
+    public void discardedExecutorLoaderCompletes() throws InterruptedException {
+        Bulkhead bulkhead = new Bulkhead.Builder("discardedExecutorLoaderCompletes").threads(1).queueLimit(1).build();
+        block(bulkhead);
+        ExecutorLoader<String> loader = new ExecutorLoader<String>("discardedExecutorLoaderCompletes") {
+            @Override
+            protected String doInBackground(CancellationToken token) {
+                return null;
+            }
+        };
+        loader.start();
+        bulkhead.execute(task());
+
+        assertTrue(loader.isCompleted());
+        assertFalse(loader.hasResult());
+    }
+
+    /**
+     * Occupies the bulkhead's threads until the test is done.
+     */
+    private void block(Bulkhead bulkhead) throws InterruptedException {
+        final CountDownLatch running = new CountDownLatch(bulkhead.getThreads());
+        for (int i = 0; i < bulkhead.getThreads(); i++) {
+            bulkhead.execute(new Runnable() {
+                @Override
+                public void run() {
+                    running.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        // Done
+                    }
+                }
+            });
+        }
+        assertTrue(running.await(1, TimeUnit.SECONDS));
+    }
+
+    private static boolean awaitDone(FutureTask<Void> task) throws InterruptedException {
+        try {
+            task.get(1, TimeUnit.SECONDS);
+            return true;
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        }
+    }
+
+    private static FutureTask<Void> task() {
+        return new FutureTask<>(new Callable<Void>() {
+            @Override
+            public Void call() {
+                return null;
+            }
+        });
+    }
+}
@@ -0,0 +1,105 @@
+package me.tatarka.loader;
+
+import android.support.v4.os.CancellationSignal;
+import android.support.v4.os.OperationCanceledException;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class CancellationTokenTest {
+
+    @After
+    public void teardown() {
+        // Don't leak an interrupt into the next test.
+        Thread.interrupted();
+    }
+
+    @Test
+    public void newTokenIsNotCanceled() {
+        CancellationToken token = new CancellationToken(false);
+
+        assertFalse(token.isCanceled());
+        assertFalse(token.getCancellationSignal().isCanceled());
+    }
+
+    @Test
+    public void cancelCancelsSignal() {
+        CancellationToken token = new CancellationToken(false);
+        CancellationSignal signal = token.getCancellationSignal();
+        token.cancel();
+
+        assertTrue(token.isCanceled());
+        assertTrue(signal.isCanceled());
+    }
+
+    @Test
+    public void signalAfterCancelIsCanceled() {
+        CancellationToken token = new CancellationToken(false);
+        token.cancel();
+
+        assertTrue(token.getCancellationSignal().isCanceled());
+    }
+
+    @Test
+    public void throwIfCanceledThrows() {
+        CancellationToken token = new CancellationToken(false);
+        token.throwIfCanceled();
+        token.cancel();
+
+        try {
+            token.throwIfCanceled();
+            fail();
+        } catch (OperationCanceledException e) {
+            // pass
+        }
+    }
+
+    @Test
+    public void cancelDoesNotInterruptByDefault() {
+        CancellationToken token = new CancellationToken(false);
+        token.enter();
+        token.cancel();
+
+        assertFalse(Thread.currentThread().isInterrupted());
+        token.exit();
+    }
+
+    @Test
+    public void cancelInterruptsWhenRequested() {
+        CancellationToken token = new CancellationToken(true);
+        token.enter();
+        token.cancel();
+
+        assertTrue(Thread.currentThread().isInterrupted());
+        token.exit();
+    }
+
+    @Test
+    public void exitClearsInterrupt() {
+        CancellationToken token = new CancellationToken(true);
+        token.enter();
+        token.cancel();
+        token.exit();
+
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    @Test
+    public void cancelAfterExitDoesNotInterrupt() {
+        CancellationToken token = new CancellationToken(true);
+        token.enter();
+        token.exit();
+        token.cancel();
+
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+}
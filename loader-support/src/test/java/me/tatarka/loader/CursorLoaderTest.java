@@ -15,11 +15,22 @@ import org.robolectric.shadows.ShadowApplication;
 import org.robolectric.shadows.ShadowContentResolver;
 import org.robolectric.util.Scheduler;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.robolectric.Shadows.shadowOf;
 
 @RunWith(RobolectricGradleTestRunner.class)
@@ -27,13 +38,24 @@ import static org.robolectric.Shadows.shadowOf;
 public class CursorLoaderTest {
     static final String AUTHORITY = "me.tatarka.loader.TestContentProvider";
     static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY);
+    /**
+     * Runs queries on Robolectric's background scheduler so tests control when they run.
+     */
+    static final Executor BACKGROUND = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            ShadowApplication.getInstance().getBackgroundThreadScheduler().post(command);
+        }
+    };
 
+    Scheduler foreground;
     Scheduler background;
     ContentResolver resolver;
     Cursor cursor;
 
     @Before
     public void setup() {
+        foreground = ShadowApplication.getInstance().getForegroundThreadScheduler();
         background = ShadowApplication.getInstance().getBackgroundThreadScheduler();
         resolver = RuntimeEnvironment.application.getContentResolver();
         ShadowContentResolver shadowResolver = shadowOf(resolver);
@@ -45,7 +67,7 @@ public class CursorLoaderTest {
 
     @Test
     public void emptyUriReturnsNullCursor() {
-        CursorLoader loader = new CursorLoader.Builder(resolver, Uri.EMPTY).build();
+        CursorLoader loader = new CursorLoader.Builder(resolver, Uri.EMPTY).executor(BACKGROUND).build();
         Loader.Callbacks<Cursor> callbacks = mock(Loader.Callbacks.class);
         loader.setCallbacks(callbacks);
         loader.start();
@@ -56,7 +78,7 @@ public class CursorLoaderTest {
 
     @Test
     public void correctUriReturnsCursor() {
-        CursorLoader loader = new CursorLoader.Builder(resolver, CONTENT_URI).build();
+        CursorLoader loader = new CursorLoader.Builder(resolver, CONTENT_URI).executor(BACKGROUND).build();
         Loader.Callbacks<Cursor> callbacks = mock(Loader.Callbacks.class);
         loader.setCallbacks(callbacks);
         loader.start();
@@ -67,7 +89,7 @@ public class CursorLoaderTest {
 
     @Test
     public void notifyDataChangeCallsCallbackAgain() {
-        CursorLoader loader = new CursorLoader.Builder(resolver, CONTENT_URI).build();
+        CursorLoader loader = new CursorLoader.Builder(resolver, CONTENT_URI).executor(BACKGROUND).build();
         Loader.Callbacks<Cursor> callbacks = mock(Loader.Callbacks.class);
         loader.setCallbacks(callbacks);
         loader.start();
@@ -81,24 +103,41 @@ public class CursorLoaderTest {
 
     @Test
     public void cancelClosesCursorIfLoading() {
-        CursorLoader loader = new CursorLoader.Builder(resolver, CONTENT_URI).build();
+        CursorLoader loader = new CursorLoader.Builder(resolver, CONTENT_URI).executor(BACKGROUND).build();
         Loader.Callbacks<Cursor> callbacks = mock(Loader.Callbacks.class);
         loader.setCallbacks(callbacks);
         
-        background.pause();
+        foreground.pause();
         
         loader.start();
         loader.cancel();
 
-        background.unPause();
-        ShadowApplication.runBackgroundTasks();
+        foreground.unPause();
 
         assertTrue(cursor.isClosed());
     }
+
+    @Test
+    public void cancelBeforeQuerySkipsQuery() {
+        CursorLoader loader = new CursorLoader.Builder(resolver, CONTENT_URI).executor(BACKGROUND).build();
+        Loader.Callbacks<Cursor> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+
+        background.pause();
+
+        loader.start();
+        loader.cancel();
+
+        background.unPause();
+
+        verify(callbacks).onLoaderStart();
+        verifyNoMoreInteractions(callbacks);
+        assertFalse(cursor.isClosed());
+    }
     
     @Test
     public void destroyClosesCursor() {
-        CursorLoader loader = new CursorLoader.Builder(resolver, CONTENT_URI).build();
+        CursorLoader loader = new CursorLoader.Builder(resolver, CONTENT_URI).executor(BACKGROUND).build();
         Loader.Callbacks<Cursor> callbacks = mock(Loader.Callbacks.class);
         loader.setCallbacks(callbacks);
         loader.start();
@@ -108,4 +147,295 @@ public class CursorLoaderTest {
 
         assertTrue(cursor.isClosed());
     }
+
+    @Test
+    public void notifyDataChangeWhilePausedDefersQuery() {
+        CursorLoader loader = new CursorLoader.Builder(resolver, CONTENT_URI).executor(BACKGROUND).build();
+        Loader.Callbacks<Cursor> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+
+        ShadowApplication.runBackgroundTasks();
+        loader.pause();
+        RuntimeEnvironment.application.getContentResolver().notifyChange(CONTENT_URI, null);
+        RuntimeEnvironment.application.getContentResolver().notifyChange(CONTENT_URI, null);
+
+        verify(callbacks, times(1)).onLoaderStart();
+        verify(callbacks, times(1)).onLoaderResult(eq(cursor));
+
+        loader.resume();
+
+        verify(callbacks, times(2)).onLoaderStart();
+        verify(callbacks, times(2)).onLoaderResult(eq(cursor));
+    }
+
+    @Test
+    public void queryRunsOnBuilderExecutor() {
+        final AtomicInteger executed = new AtomicInteger();
+        CursorLoader loader = new CursorLoader.Builder(resolver, CONTENT_URI).executor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                executed.incrementAndGet();
+                BACKGROUND.execute(command);
+            }
+        }).build();
+        Loader.Callbacks<Cursor> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+
+        assertEquals(1, executed.get());
+        verify(callbacks).onLoaderResult(eq(cursor));
+    }
+
+    @Test
+    public void defaultsToCursorBulkhead() {
+        new CursorLoader.Builder(resolver, CONTENT_URI).build();
+        Bulkhead bulkhead = Bulkhead.get(CursorLoader.BULKHEAD);
+
+        assertTrue(Bulkhead.all().contains(bulkhead));
+        assertEquals(4, bulkhead.getThreads());
+    }
+
+    @Test
+    public void floodedBulkheadQueriesEveryLoader() throws InterruptedException {
+        Bulkhead bulkhead = CursorLoader.bulkhead();
+        final CountDownLatch running = new CountDownLatch(bulkhead.getThreads());
+        final CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < bulkhead.getThreads(); i++) {
+            bulkhead.execute(new Runnable() {
+                @Override
+                public void run() {
+                    running.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        // Done
+                    }
+                }
+            });
+        }
+        assertTrue(running.await(1, TimeUnit.SECONDS));
+        // More loaders than the bulkhead has threads and queue for.
+        int count = bulkhead.getThreads() + bulkhead.getQueueLimit() + 8;
+        List<Loader.Callbacks<Cursor>> callbacks = new ArrayList<>();
+        foreground.pause();
+        try {
+            for (int i = 0; i < count; i++) {
+                CursorLoader loader = new CursorLoader.Builder(resolver, CONTENT_URI).build();
+                Loader.Callbacks<Cursor> loaderCallbacks = mock(Loader.Callbacks.class);
+                loader.setCallbacks(loaderCallbacks);
+                loader.start();
+                callbacks.add(loaderCallbacks);
+            }
+        } finally {
+            release.countDown();
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (bulkhead.getQueueDepth() > 0 || bulkhead.getActiveCount() > 0) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        foreground.unPause();
+
+        for (Loader.Callbacks<Cursor> loaderCallbacks : callbacks) {
+            verify(loaderCallbacks).onLoaderResult(eq(cursor));
+        }
+    }
+
+    @Test
+    public void changesWhileQueryingRunOneMoreQuery() {
+        CursorLoader loader = new CursorLoader.Builder(resolver, CONTENT_URI).executor(BACKGROUND).build();
+        Loader.Callbacks<Cursor> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+
+        background.pause();
+        ContentResolver resolver = RuntimeEnvironment.application.getContentResolver();
+        for (int i = 0; i < 5; i++) {
+            resolver.notifyChange(CONTENT_URI, null);
+        }
+        background.unPause();
+
+        // The first change starts a query, the rest wait for it and run one more.
+        verify(callbacks, times(3)).onLoaderStart();
+        verify(callbacks, times(3)).onLoaderResult(eq(cursor));
+    }
+
+    @Test
+    public void updateThrottleCoalescesChanges() {
+        CursorLoader loader = new CursorLoader.Builder(resolver, CONTENT_URI)
+                .executor(BACKGROUND)
+                .updateThrottle(100)
+                .build();
+        Loader.Callbacks<Cursor> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+
+        ContentResolver resolver = RuntimeEnvironment.application.getContentResolver();
+        foreground.pause();
+        for (int i = 0; i < 5; i++) {
+            resolver.notifyChange(CONTENT_URI, null);
+            foreground.advanceBy(10);
+        }
+        verify(callbacks, times(1)).onLoaderStart();
+
+        foreground.advanceBy(100);
+
+        verify(callbacks, times(2)).onLoaderStart();
+        verify(callbacks, times(2)).onLoaderResult(eq(cursor));
+    }
+
+    @Test
+    public void cancelDropsScheduledRequery() {
+        CursorLoader loader = new CursorLoader.Builder(resolver, CONTENT_URI)
+                .executor(BACKGROUND)
+                .updateThrottle(100)
+                .build();
+        Loader.Callbacks<Cursor> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+
+        foreground.pause();
+        RuntimeEnvironment.application.getContentResolver().notifyChange(CONTENT_URI, null);
+        foreground.advanceBy(10);
+        loader.cancel();
+        foreground.advanceBy(100);
+
+        verify(callbacks, times(1)).onLoaderStart();
+        assertFalse(loader.isRunning());
+    }
+
+    @Test
+    public void notifyDataChangeWhileDetachedDefersQuery() {
+        CursorLoader loader = new CursorLoader.Builder(resolver, CONTENT_URI).executor(BACKGROUND).build();
+        Loader.Callbacks<Cursor> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+
+        loader.setCallbacks(null);
+        RuntimeEnvironment.application.getContentResolver().notifyChange(CONTENT_URI, null);
+        RuntimeEnvironment.application.getContentResolver().notifyChange(CONTENT_URI, null);
+
+        verify(callbacks, times(1)).onLoaderStart();
+
+        Loader.Callbacks<Cursor> newCallbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(newCallbacks);
+
+        // The old cursor is delivered on attach, followed by a single re-query.
+        verify(newCallbacks).onLoaderStart();
+        verify(newCallbacks, times(2)).onLoaderResult(eq(cursor));
+    }
+
+    @Test
+    public void attachWithoutChangesDoesNotRequery() {
+        CursorLoader loader = new CursorLoader.Builder(resolver, CONTENT_URI).executor(BACKGROUND).build();
+        loader.start();
+        Loader.Callbacks<Cursor> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+
+        verify(callbacks).onLoaderResult(eq(cursor));
+        verifyNoMoreInteractions(callbacks);
+    }
+
+    @Test
+    public void sharedLoadersRunOneQuery() {
+        MappedCursorLoaderTest.RowsProvider provider = registerRowsProvider();
+        CursorLoader loader1 = sharedBuilder().build();
+        CursorLoader loader2 = sharedBuilder().build();
+        Loader.Callbacks<Cursor> callbacks = mock(Loader.Callbacks.class);
+        loader1.setCallbacks(callbacks);
+        loader2.setCallbacks(callbacks);
+        loader1.start();
+        loader2.start();
+
+        verify(callbacks, times(2)).onLoaderResult(any(Cursor.class));
+        assertEquals(1, provider.cursors.size());
+        assertEquals(1, SharedCursors.INSTANCE.size());
+
+        loader1.destroy();
+        loader2.destroy();
+    }
+
+    @Test
+    public void sharedCursorClosesWhenLastLoaderReleasesIt() {
+        MappedCursorLoaderTest.RowsProvider provider = registerRowsProvider();
+        CursorLoader loader1 = sharedBuilder().build();
+        CursorLoader loader2 = sharedBuilder().build();
+        loader1.start();
+        loader2.start();
+
+        loader1.destroy();
+
+        assertFalse(provider.cursors.get(0).isClosed());
+
+        loader2.destroy();
+
+        assertTrue(provider.cursors.get(0).isClosed());
+        assertEquals(0, SharedCursors.INSTANCE.size());
+    }
+
+    @Test
+    public void sharedLoadersRequeryOnceOnChange() {
+        MappedCursorLoaderTest.RowsProvider provider = registerRowsProvider();
+        CursorLoader loader1 = sharedBuilder().build();
+        CursorLoader loader2 = sharedBuilder().build();
+        Loader.Callbacks<Cursor> callbacks = mock(Loader.Callbacks.class);
+        loader1.setCallbacks(callbacks);
+        loader2.setCallbacks(callbacks);
+        loader1.start();
+        loader2.start();
+
+        resolver.notifyChange(MappedCursorLoaderTest.CONTENT_URI, null);
+
+        verify(callbacks, times(4)).onLoaderResult(any(Cursor.class));
+        assertEquals(2, provider.cursors.size());
+        assertTrue(provider.cursors.get(0).isClosed());
+        assertEquals(1, SharedCursors.INSTANCE.size());
+
+        loader1.destroy();
+        loader2.destroy();
+    }
+
+    @Test
+    public void differentQueriesAreNotShared() {
+        MappedCursorLoaderTest.RowsProvider provider = registerRowsProvider();
+        CursorLoader loader1 = sharedBuilder().build();
+        CursorLoader loader2 = sharedBuilder().selection("name = ?", "name1").build();
+        loader1.start();
+        loader2.start();
+
+        assertEquals(2, provider.cursors.size());
+
+        loader1.destroy();
+        loader2.destroy();
+    }
+
+    @Test
+    public void unsharedLoadersQueryEach() {
+        MappedCursorLoaderTest.RowsProvider provider = registerRowsProvider();
+        CursorLoader loader1 = sharedBuilder().shared(false).build();
+        CursorLoader loader2 = sharedBuilder().shared(false).build();
+        loader1.start();
+        loader2.start();
+
+        assertEquals(2, provider.cursors.size());
+        assertEquals(0, SharedCursors.INSTANCE.size());
+
+        loader1.destroy();
+        loader2.destroy();
+    }
+
+    MappedCursorLoaderTest.RowsProvider registerRowsProvider() {
+        MappedCursorLoaderTest.RowsProvider provider = new MappedCursorLoaderTest.RowsProvider();
+        provider.rows = 3;
+        ShadowContentResolver.registerProvider(MappedCursorLoaderTest.AUTHORITY, provider);
+        return provider;
+    }
+
+    CursorLoader.Builder sharedBuilder() {
+        return new CursorLoader.Builder(resolver, MappedCursorLoaderTest.CONTENT_URI)
+                .projection("_id", "name")
+                .executor(BACKGROUND)
+                .shared(true);
+    }
 }
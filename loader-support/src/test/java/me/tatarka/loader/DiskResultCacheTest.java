@@ -0,0 +1,133 @@
+package me.tatarka.loader;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class DiskResultCacheTest {
+
+    static final DiskResultCache.Codec<String> STRING = new DiskResultCache.Codec<String>() {
+        final Charset utf8 = Charset.forName("UTF-8");
+
+        @Override
+        public void encode(String result, OutputStream out) throws IOException {
+            out.write(result.getBytes(utf8));
+        }
+
+        @Override
+        public String decode(ByteBuffer buffer) throws IOException {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return new String(bytes, utf8);
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    File dir;
+
+    @Before
+    public void setup() {
+        dir = new File(folder.getRoot(), "results");
+    }
+
+    @Test
+    public void getReturnsPutResult() throws IOException {
+        DiskResultCache cache = new DiskResultCache.Builder(dir).build();
+        cache.put("key", "test", STRING);
+
+        assertEquals("test", cache.get("key", STRING));
+    }
+
+    @Test
+    public void getMissingKeyReturnsNull() throws IOException {
+        DiskResultCache cache = new DiskResultCache.Builder(dir).build();
+        cache.put("key", "test", STRING);
+
+        assertNull(cache.get("other", STRING));
+    }
+
+    @Test
+    public void putReplacesResult() throws IOException {
+        DiskResultCache cache = new DiskResultCache.Builder(dir).build();
+        cache.put("key", "first", STRING);
+        cache.put("key", "second", STRING);
+
+        assertEquals("second", cache.get("key", STRING));
+    }
+
+    @Test
+    public void expiredResultIsIgnoredAndDeleted() throws IOException, InterruptedException {
+        DiskResultCache cache = new DiskResultCache.Builder(dir).maxAge(1, TimeUnit.MILLISECONDS).build();
+        cache.put("key", "test", STRING);
+        Thread.sleep(10);
+
+        assertNull(cache.get("key", STRING));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedWhenFull() throws IOException {
+        DiskResultCache cache = new DiskResultCache.Builder(dir).build();
+        cache.put("one", "1", STRING);
+        long entrySize = cache.size();
+        cache = new DiskResultCache.Builder(dir).maxBytes(entrySize * 2).build();
+        cache.put("two", "2", STRING);
+        File[] files = dir.listFiles();
+        long now = System.currentTimeMillis();
+        // "two" was used more recently than "one".
+        for (File file : files) {
+            file.setLastModified(now - 10000);
+        }
+        cache.get("two", STRING);
+        cache.put("thr", "3", STRING);
+
+        assertNull(cache.get("one", STRING));
+        assertEquals("2", cache.get("two", STRING));
+        assertEquals("3", cache.get("thr", STRING));
+        assertTrue(cache.size() <= entrySize * 2);
+    }
+
+    @Test
+    public void corruptResultIsDeleted() throws IOException {
+        DiskResultCache cache = new DiskResultCache.Builder(dir).build();
+        cache.put("key", "test", STRING);
+        File file = dir.listFiles()[0];
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[]{1, 2, 3});
+        out.close();
+
+        assertNull(cache.get("key", STRING));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void clearRemovesEverything() throws IOException {
+        DiskResultCache cache = new DiskResultCache.Builder(dir).build();
+        cache.put("one", "1", STRING);
+        cache.put("two", "2", STRING);
+        cache.clear();
+
+        assertEquals(0, cache.size());
+        assertNull(cache.get("one", STRING));
+    }
+}
@@ -0,0 +1,228 @@
+package me.tatarka.loader;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.os.OperationCanceledException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowApplication;
+import org.robolectric.util.Scheduler;
+
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class ExecutorLoaderTest {
+
+    Scheduler foreground;
+    Scheduler background;
+    BackgroundThreadSchedulerExecutor backgroundExecutor;
+    TestExecutorLoader loader;
+
+    @Before
+    public void setup() {
+        foreground = ShadowApplication.getInstance().getForegroundThreadScheduler();
+        background = ShadowApplication.getInstance().getBackgroundThreadScheduler();
+        backgroundExecutor = new BackgroundThreadSchedulerExecutor();
+        loader = new TestExecutorLoader(backgroundExecutor);
+    }
+
+    @Test
+    public void returningFromDoInBackgroundCallsCallbacks() {
+        background.pause();
+
+        Loader.Callbacks<String> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+        loader.result = "test";
+
+        background.unPause();
+
+        verify(callbacks).onLoaderStart();
+        verify(callbacks).onLoaderResult(eq("test"));
+        verify(callbacks).onLoaderComplete();
+    }
+
+    @Test
+    public void resultIsDeliveredOnMainThread() {
+        foreground.pause();
+
+        Loader.Callbacks<String> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+
+        verify(callbacks).onLoaderStart();
+        verifyNoMoreInteractions(callbacks);
+
+        foreground.unPause();
+
+        verify(callbacks).onLoaderResult(null);
+        verify(callbacks).onLoaderComplete();
+    }
+
+    @Test
+    public void cancelDoesNotCallCallbacks() {
+        background.pause();
+
+        Loader.Callbacks<String> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+        loader.result = "test";
+        loader.cancel();
+
+        background.unPause();
+
+        verify(callbacks).onLoaderStart();
+        verifyNoMoreInteractions(callbacks);
+    }
+
+    @Test
+    public void cancelAfterRunBeforeDeliveryDoesNotCallCallbacks() {
+        foreground.pause();
+
+        Loader.Callbacks<String> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+        loader.cancel();
+
+        foreground.unPause();
+
+        assertTrue(loader.didRun);
+        verify(callbacks).onLoaderStart();
+        verifyNoMoreInteractions(callbacks);
+    }
+
+    @Test
+    public void cancelWithCanceledExceptionDoesNotPropagate() {
+        background.pause();
+
+        Loader.Callbacks<String> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+        loader.cancel();
+        loader.throwOperationCanceled = true;
+
+        background.unPause();
+
+        verify(callbacks).onLoaderStart();
+        verifyNoMoreInteractions(callbacks);
+        assertEquals(null, backgroundExecutor.exception);
+    }
+
+    @Test
+    public void canceledExceptionPropagates() {
+        background.pause();
+
+        loader.start();
+        loader.throwOperationCanceled = true;
+
+        background.unPause();
+
+        assertNotNull(backgroundExecutor.exception);
+        assertEquals(OperationCanceledException.class, backgroundExecutor.exception.getClass());
+    }
+
+    @Test
+    public void cancelBeforeRunSkipsDoInBackground() {
+        background.pause();
+
+        loader.start();
+        loader.cancel();
+
+        background.unPause();
+
+        assertFalse(loader.didRun);
+    }
+
+    @Test
+    public void restartDeliversNewResult() {
+        Loader.Callbacks<String> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.result = "one";
+        loader.start();
+        loader.result = "two";
+        loader.restart();
+
+        verify(callbacks).onLoaderResult(eq("one"));
+        verify(callbacks).onLoaderResult(eq("two"));
+    }
+
+    @Test
+    public void publishedResultsAreDeliveredBeforeFinalResult() {
+        foreground.pause();
+
+        ExecutorLoader<String> loader = new ExecutorLoader<String>(backgroundExecutor) {
+            @Override
+            protected String doInBackground(CancellationToken token) {
+                publishResult("one");
+                publishResult("two");
+                return "final";
+            }
+        };
+        Loader.Callbacks<String> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+
+        foreground.unPause();
+
+        InOrder inOrder = inOrder(callbacks);
+        inOrder.verify(callbacks).onLoaderStart();
+        inOrder.verify(callbacks).onLoaderResult(eq("two"));
+        inOrder.verify(callbacks).onLoaderResult(eq("final"));
+        inOrder.verify(callbacks).onLoaderComplete();
+        verifyNoMoreInteractions(callbacks);
+    }
+
+    static class TestExecutorLoader extends ExecutorLoader<String> {
+        String result;
+        boolean throwOperationCanceled;
+        boolean didRun;
+
+        TestExecutorLoader(Executor executor) {
+            super(executor);
+        }
+
+        @Override
+        protected String doInBackground(CancellationToken token) {
+            didRun = true;
+            if (throwOperationCanceled) {
+                throw new OperationCanceledException();
+            }
+            return result;
+        }
+    }
+
+    private static class BackgroundThreadSchedulerExecutor implements Executor {
+        @Nullable
+        Throwable exception;
+
+        @Override
+        public void execute(@NonNull final Runnable command) {
+            ShadowApplication.getInstance().getBackgroundThreadScheduler().post(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        command.run();
+                    } catch (Throwable e) {
+                        exception = e;
+                    }
+                }
+            });
+        }
+    }
+}
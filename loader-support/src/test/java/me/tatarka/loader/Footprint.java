@@ -0,0 +1,164 @@
+package me.tatarka.loader;
+
+import org.openjdk.jol.vm.VM;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Measures the retained heap of an object graph, similar to JOL's {@code GraphLayout} but stopping
+ * at objects that are shared by the whole process (like the main {@link android.os.Looper}) so
+ * they don't get charged to whatever happens to reference them. Object sizes come from JOL so they
+ * match the running VM's layout.
+ */
+class Footprint {
+    private final List<Class<?>> sharedTypes = new ArrayList<>();
+    private final List<String> ignoredPackages = new ArrayList<>();
+    private final Set<Object> sharedInstances = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+
+    Footprint() {
+        // Never charge the runtime itself.
+        sharedTypes.add(Class.class);
+        sharedTypes.add(ClassLoader.class);
+        sharedTypes.add(Thread.class);
+    }
+
+    /**
+     * Don't follow references to instances of the given type.
+     */
+    Footprint sharedType(Class<?> type) {
+        sharedTypes.add(type);
+        return this;
+    }
+
+    /**
+     * Don't follow references to instances of types in the given package, useful for skipping
+     * test-only objects like Robolectric's shadows.
+     */
+    Footprint ignorePackage(String packageName) {
+        ignoredPackages.add(packageName + ".");
+        return this;
+    }
+
+    /**
+     * Don't follow references to the given instances.
+     */
+    Footprint shared(Object... instances) {
+        Collections.addAll(sharedInstances, instances);
+        return this;
+    }
+
+    /**
+     * Walks everything reachable from the given roots that isn't shared.
+     */
+    Result measure(Object... roots) {
+        Result result = new Result();
+        Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        ArrayDeque<Object> queue = new ArrayDeque<>();
+        for (Object root : roots) {
+            if (root != null && seen.add(root)) {
+                queue.add(root);
+            }
+        }
+        while (!queue.isEmpty()) {
+            Object obj = queue.poll();
+            Class<?> type = obj.getClass();
+            result.add(type, VM.current().sizeOf(obj));
+            if (type.isArray()) {
+                if (!type.getComponentType().isPrimitive()) {
+                    for (int i = 0, length = Array.getLength(obj); i < length; i++) {
+                        visit(Array.get(obj, i), seen, queue);
+                    }
+                }
+            } else {
+                for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                    for (Field field : c.getDeclaredFields()) {
+                        if (Modifier.isStatic(field.getModifiers()) || field.getType().isPrimitive()) {
+                            continue;
+                        }
+                        field.setAccessible(true);
+                        try {
+                            visit(field.get(obj), seen, queue);
+                        } catch (IllegalAccessException e) {
+                            throw new AssertionError(e);
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private void visit(Object obj, Set<Object> seen, ArrayDeque<Object> queue) {
+        if (obj == null || sharedInstances.contains(obj) || !seen.add(obj)) {
+            return;
+        }
+        for (Class<?> type : sharedTypes) {
+            if (type.isInstance(obj)) {
+                return;
+            }
+        }
+        String name = obj.getClass().getName();
+        for (String packageName : ignoredPackages) {
+            if (name.startsWith(packageName)) {
+                return;
+            }
+        }
+        queue.add(obj);
+    }
+
+    static class Result {
+        private final Map<Class<?>, long[]> byClass = new HashMap<>();
+        private long totalSize;
+        private long totalCount;
+
+        private void add(Class<?> type, long size) {
+            long[] entry = byClass.get(type);
+            if (entry == null) {
+                entry = new long[2];
+                byClass.put(type, entry);
+            }
+            entry[0]++;
+            entry[1] += size;
+            totalCount++;
+            totalSize += size;
+        }
+
+        long totalSize() {
+            return totalSize;
+        }
+
+        long totalCount() {
+            return totalCount;
+        }
+
+        /**
+         * A table of count and bytes per class, largest first.
+         */
+        String toFootprint() {
+            List<Map.Entry<Class<?>, long[]>> entries = new ArrayList<>(byClass.entrySet());
+            Collections.sort(entries, new Comparator<Map.Entry<Class<?>, long[]>>() {
+                @Override
+                public int compare(Map.Entry<Class<?>, long[]> lhs, Map.Entry<Class<?>, long[]> rhs) {
+                    return Long.compare(rhs.getValue()[1], lhs.getValue()[1]);
+                }
+            });
+            StringBuilder builder = new StringBuilder();
+            for (Map.Entry<Class<?>, long[]> entry : entries) {
+                builder.append(String.format("%8d %8d  %s%n", entry.getValue()[0], entry.getValue()[1], entry.getKey().getName()));
+            }
+            builder.append(String.format("%8d %8d  (total)%n", totalCount, totalSize));
+            return builder.toString();
+        }
+    }
+}
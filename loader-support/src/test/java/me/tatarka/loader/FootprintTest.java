@@ -0,0 +1,153 @@
+package me.tatarka.loader;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.support.v4.content.ShadowContentResolverCompatJellybean;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowApplication;
+import org.robolectric.util.Scheduler;
+
+import java.lang.reflect.Constructor;
+import java.util.concurrent.Executor;
+
+import me.tatarka.retainstate.RetainState;
+
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Reports the retained heap of each construct a host keeps alive across configuration changes and
+ * fails if the cost per loader grows past a budget. Run with {@code -i} to see the per-class
+ * breakdown.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21, shadows = ShadowContentResolverCompatJellybean.class)
+public class FootprintTest {
+    /**
+     * Budget for one idle loader in a {@link LoaderManager}, including its {@code Handler} and the
+     * manager's bookkeeping. Measured at 122 bytes on a 64-bit VM with compressed oops, raise this
+     * deliberately if a change needs the space.
+     */
+    static final long MAX_BYTES_PER_LOADER = 144;
+    /**
+     * Budget for a started loader, which additionally holds a {@link Loader.Receiver}. Measured at
+     * 136 bytes.
+     */
+    static final long MAX_BYTES_PER_STARTED_LOADER = 160;
+
+    static final int LOADER_COUNT = 100;
+
+    Scheduler foreground;
+    ContentResolver resolver;
+    Footprint footprint;
+
+    @Before
+    public void setup() {
+        foreground = ShadowApplication.getInstance().getForegroundThreadScheduler();
+        resolver = RuntimeEnvironment.application.getContentResolver();
+        MyRoboCursor cursor = new MyRoboCursor();
+        cursor.setNotificationUri(resolver, CursorLoaderTest.CONTENT_URI);
+        shadowOf(resolver).setCursor(CursorLoaderTest.CONTENT_URI, cursor);
+        // These are owned by the process, not by anything we retain.
+        footprint = new Footprint()
+                .sharedType(Looper.class)
+                .sharedType(MessageQueue.class)
+                .sharedType(Context.class)
+                .sharedType(ContentResolver.class)
+                .sharedType(Executor.class)
+                .sharedType(Cursor.class)
+                .shared(CursorLoaderTest.CONTENT_URI, Uri.EMPTY, LoaderManager.PAUSE_ALL)
+                // Shadows only exist under Robolectric.
+                .ignorePackage("org.robolectric");
+    }
+
+    @Test
+    public void emptyRetainState() {
+        RetainState retainState = new RetainState(null);
+        Footprint.Result empty = footprint.measure(retainState);
+        retainState.retain(0, LoaderManager.CREATE);
+        Footprint.Result withManager = footprint.measure(retainState);
+
+        report("RetainState (empty)", empty);
+        report("RetainState with an empty LoaderManager", withManager);
+    }
+
+    @Test
+    public void loaderManagerPerLoader() {
+        LoaderManager empty = new LoaderManager();
+        LoaderManager full = new LoaderManager();
+        Loader.Callbacks<Object> callbacks = new Loader.CallbacksAdapter<Object>() {
+        };
+        footprint.shared(callbacks);
+        for (int i = 0; i < LOADER_COUNT; i++) {
+            full.init(i, TestLoader.create(), callbacks);
+        }
+
+        Footprint.Result emptyResult = footprint.measure(empty);
+        Footprint.Result fullResult = footprint.measure(full);
+        long perLoader = (fullResult.totalSize() - emptyResult.totalSize()) / LOADER_COUNT;
+
+        report("LoaderManager (empty)", emptyResult);
+        report("LoaderManager with " + LOADER_COUNT + " idle loaders", fullResult);
+        System.out.println("per loader: " + perLoader + " bytes");
+
+        assertTrue("Idle loader costs " + perLoader + " bytes, budget is " + MAX_BYTES_PER_LOADER, perLoader <= MAX_BYTES_PER_LOADER);
+    }
+
+    @Test
+    public void startedLoader() {
+        foreground.pause();
+        Loader.Callbacks<Object> callbacks = new Loader.CallbacksAdapter<Object>() {
+        };
+        footprint.shared(callbacks);
+        TestLoader<Object> loader = new TestLoader<>();
+        loader.setCallbacks(callbacks);
+        loader.start();
+
+        Footprint.Result result = footprint.measure(loader);
+        report("Started loader with Handler and Receiver", result);
+
+        assertTrue("Started loader costs " + result.totalSize() + " bytes, budget is " + MAX_BYTES_PER_STARTED_LOADER, result.totalSize() <= MAX_BYTES_PER_STARTED_LOADER);
+    }
+
+    @Test
+    public void handlerArgs() throws Exception {
+        // Allocated for every dispatched callback and held by the message until it's handled.
+        Class<?> type = Class.forName(Loader.class.getName() + "$HandlerArgs");
+        Constructor<?> constructor = type.getDeclaredConstructors()[0];
+        constructor.setAccessible(true);
+        Object args = constructor.newInstance(null, null);
+
+        report("HandlerArgs (per dispatch)", footprint.measure(args));
+    }
+
+    @Test
+    public void cursorLoader() {
+        CursorLoader loader = new CursorLoader.Builder(resolver, CursorLoaderTest.CONTENT_URI)
+                .projection("one", "two")
+                .selection("one = ?", "1")
+                .executor(CursorLoaderTest.BACKGROUND)
+                .build();
+        Footprint.Result idle = footprint.measure(loader);
+        loader.start();
+        Footprint.Result loaded = footprint.measure(loader);
+
+        report("CursorLoader with observer (idle)", idle);
+        report("CursorLoader with observer (loaded, excluding cursor)", loaded);
+    }
+
+    private static void report(String name, Footprint.Result result) {
+        System.out.println(name + ": " + result.totalSize() + " bytes in " + result.totalCount() + " objects");
+        System.out.print(result.toFootprint());
+    }
+}
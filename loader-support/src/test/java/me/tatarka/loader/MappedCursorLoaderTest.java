@@ -0,0 +1,535 @@
+package me.tatarka.loader;
+
+import android.content.ContentProvider;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.AbstractWindowedCursor;
+import android.database.Cursor;
+import android.database.ContentObserver;
+import android.database.CursorWindow;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.content.ShadowContentResolverCompatJellybean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowApplication;
+import org.robolectric.shadows.ShadowContentResolver;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.util.Scheduler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21, shadows = ShadowContentResolverCompatJellybean.class)
+public class MappedCursorLoaderTest {
+    static final String AUTHORITY = "me.tatarka.loader.MappedProvider";
+    static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY);
+
+    static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            command.run();
+        }
+    };
+
+    RowsProvider provider;
+    NameMapper mapper;
+    ExecutorService pool;
+
+    @Before
+    public void setup() {
+        provider = new RowsProvider();
+        ShadowContentResolver.registerProvider(AUTHORITY, provider);
+        mapper = new NameMapper();
+        pool = Executors.newFixedThreadPool(3);
+    }
+
+    @After
+    public void teardown() {
+        pool.shutdownNow();
+    }
+
+    MappedCursorLoader.Builder<String> builder() {
+        return new MappedCursorLoader.Builder<>(RuntimeEnvironment.application.getContentResolver(), CONTENT_URI, mapper)
+                .executor(CursorLoaderTest.BACKGROUND);
+    }
+
+    /**
+     * Notifies a change to a single row the way a provider would. The shadow resolver only notifies
+     * observers of the exact uri, so dispatch to the observers of the parent uri directly.
+     */
+    static void notifyRowChange(long id) {
+        Uri rowUri = ContentUris.withAppendedId(CONTENT_URI, id);
+        for (ContentObserver observer : shadowOf(RuntimeEnvironment.application.getContentResolver()).getContentObservers(CONTENT_URI)) {
+            observer.dispatchChange(false, rowUri);
+        }
+    }
+
+    static List<String> names(int count) {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            names.add(i + ":name" + i);
+        }
+        return names;
+    }
+
+    @Test
+    public void mapsRowsAndClosesCursor() {
+        provider.rows = 5;
+        MappedCursorLoader<String> loader = builder().build();
+        Loader.Callbacks<List<String>> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+
+        verify(callbacks).onLoaderResult(names(5));
+        verify(callbacks).onLoaderComplete();
+        assertTrue(provider.cursors.get(0).isClosed());
+    }
+
+    @Test
+    public void projectionDefaultsToMapperColumns() {
+        MappedCursorLoader<String> loader = builder().build();
+        loader.start();
+
+        assertArrayEquals(new String[]{"_id", "name"}, provider.projections.get(0));
+    }
+
+    @Test
+    public void columnsAreResolvedOncePerProjection() {
+        provider.rows = 5;
+        MappedCursorLoader<String> loader = builder().projection("name", "_id").build();
+        loader.start();
+        loader.restart();
+        loader.restart();
+
+        assertEquals(1, mapper.columnsCalls);
+        assertEquals(15, mapper.mapCalls.get());
+    }
+
+    @Test
+    public void contentChangeRequeries() {
+        provider.rows = 2;
+        MappedCursorLoader<String> loader = builder().build();
+        Loader.Callbacks<List<String>> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+        provider.rows = 3;
+
+        RuntimeEnvironment.application.getContentResolver().notifyChange(CONTENT_URI, null);
+
+        verify(callbacks).onLoaderResult(names(2));
+        verify(callbacks).onLoaderResult(names(3));
+    }
+
+    @Test
+    public void contentChangeWhileDetachedDefersQuery() {
+        MappedCursorLoader<String> loader = builder().build();
+        loader.setCallbacks(mock(Loader.Callbacks.class));
+        loader.start();
+        loader.setCallbacks(null);
+
+        RuntimeEnvironment.application.getContentResolver().notifyChange(CONTENT_URI, null);
+        RuntimeEnvironment.application.getContentResolver().notifyChange(CONTENT_URI, null);
+
+        assertEquals(1, provider.cursors.size());
+
+        loader.setCallbacks(mock(Loader.Callbacks.class));
+
+        assertEquals(2, provider.cursors.size());
+    }
+
+    @Test
+    public void contentChangeBeforeStartIsIgnored() {
+        MappedCursorLoader<String> loader = builder().build();
+        loader.setCallbacks(mock(Loader.Callbacks.class));
+
+        RuntimeEnvironment.application.getContentResolver().notifyChange(CONTENT_URI, null);
+
+        assertEquals(0, provider.cursors.size());
+    }
+
+    @Test
+    public void destroyStopsWatching() {
+        MappedCursorLoader<String> loader = builder().build();
+        loader.setCallbacks(mock(Loader.Callbacks.class));
+        loader.start();
+        loader.destroy();
+
+        RuntimeEnvironment.application.getContentResolver().notifyChange(CONTENT_URI, null);
+
+        assertEquals(1, provider.cursors.size());
+    }
+
+    @Test
+    public void mapsWindowInParallelChunks() {
+        provider.rows = 100;
+        provider.windowed = true;
+        final AtomicInteger helpers = new AtomicInteger();
+        MappedCursorLoader<String> loader = builder()
+                .executor(DIRECT)
+                .parallelism(4, new Executor() {
+                    @Override
+                    public void execute(@NonNull Runnable command) {
+                        helpers.incrementAndGet();
+                        pool.execute(command);
+                    }
+                })
+                .minChunkRows(10)
+                .build();
+        Loader.Callbacks<List<String>> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+        ShadowApplication.runBackgroundTasks();
+
+        ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+        verify(callbacks).onLoaderResult(captor.capture());
+        assertEquals(names(100), captor.getValue());
+        assertEquals(3, helpers.get());
+        assertEquals(100, mapper.mapCalls.get());
+    }
+
+    @Test
+    public void smallResultIsMappedOnOneThread() {
+        provider.rows = 15;
+        provider.windowed = true;
+        final AtomicInteger helpers = new AtomicInteger();
+        MappedCursorLoader<String> loader = builder()
+                .parallelism(4, new Executor() {
+                    @Override
+                    public void execute(@NonNull Runnable command) {
+                        helpers.incrementAndGet();
+                        command.run();
+                    }
+                })
+                .minChunkRows(10)
+                .build();
+        Loader.Callbacks<List<String>> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+
+        verify(callbacks, times(1)).onLoaderResult(names(15));
+        assertEquals(0, helpers.get());
+    }
+
+    @Test
+    public void idColumnIsAddedToProjection() {
+        MappedCursorLoader<String> loader = builder().projection("name").idColumn("_id").build();
+        loader.start();
+
+        assertArrayEquals(new String[]{"name", "_id"}, provider.projections.get(0));
+    }
+
+    @Test
+    public void resultKnowsRowIds() {
+        provider.rows = 3;
+        provider.deleted.add(1L);
+        MappedCursorLoader<String> loader = builder().idColumn("_id").build();
+        Loader.Callbacks<List<String>> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+
+        ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+        verify(callbacks).onLoaderResult(captor.capture());
+        MappedCursorLoader.RowList<String> rows = (MappedCursorLoader.RowList<String>) captor.getValue();
+        assertEquals(2, rows.getId(1));
+        assertEquals(1, rows.indexOfId(2));
+        assertEquals(-1, rows.indexOfId(1));
+    }
+
+    @Test
+    public void rowChangeQueriesJustThatRow() {
+        provider.rows = 3;
+        MappedCursorLoader<String> loader = builder().idColumn("_id").build();
+        Loader.Callbacks<List<String>> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+        provider.renamed.put(1L, "changed");
+
+        notifyRowChange(1);
+
+        verify(callbacks).onLoaderResult(Arrays.asList("0:name0", "1:changed", "2:name2"));
+        assertEquals("_id IN (?)", provider.selections.get(1));
+        assertEquals(4, mapper.mapCalls.get());
+    }
+
+    @Test
+    public void rowChangesWithinThrottleArePatchedTogether() {
+        provider.rows = 4;
+        MappedCursorLoader<String> loader = builder().idColumn("_id").selection("name != ?", "x").updateThrottle(100).build();
+        Loader.Callbacks<List<String>> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+        provider.renamed.put(1L, "changed");
+        provider.renamed.put(3L, "changed");
+
+        notifyRowChange(1);
+        notifyRowChange(3);
+        ShadowLooper.idleMainLooper(100);
+
+        verify(callbacks).onLoaderResult(Arrays.asList("0:name0", "1:changed", "2:name2", "3:changed"));
+        assertEquals(2, provider.cursors.size());
+        assertEquals("(name != ?) AND _id IN (?,?)", provider.selections.get(1));
+    }
+
+    @Test
+    public void rowChangeWhilePatchIsLoadingKeepsBothChanges() {
+        provider.rows = 8;
+        MappedCursorLoader<String> loader = builder().idColumn("_id").build();
+        Loader.Callbacks<List<String>> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+        Scheduler background = ShadowApplication.getInstance().getBackgroundThreadScheduler();
+        background.pause();
+        provider.renamed.put(5L, "changed");
+        notifyRowChange(5);
+        provider.onQuery = new Runnable() {
+            @Override
+            public void run() {
+                // Row 7 changes while row 5 is being patched.
+                provider.renamed.put(7L, "changed");
+                notifyRowChange(7);
+            }
+        };
+
+        background.unPause();
+
+        ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+        verify(callbacks, times(2)).onLoaderResult(captor.capture());
+        List<String> rows = captor.getValue();
+        assertEquals("5:changed", rows.get(5));
+        assertEquals("7:changed", rows.get(7));
+    }
+
+    @Test
+    public void deletedRowIsRemoved() {
+        provider.rows = 3;
+        MappedCursorLoader<String> loader = builder().idColumn("_id").build();
+        Loader.Callbacks<List<String>> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+        provider.deleted.add(1L);
+
+        notifyRowChange(1);
+
+        ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+        verify(callbacks, times(2)).onLoaderResult(captor.capture());
+        MappedCursorLoader.RowList<String> rows = (MappedCursorLoader.RowList<String>) captor.getValue();
+        assertEquals(Arrays.asList("0:name0", "2:name2"), rows);
+        assertEquals(2, rows.getId(1));
+        assertEquals(2, provider.cursors.size());
+    }
+
+    @Test
+    public void insertedRowRequeriesEverything() {
+        provider.rows = 3;
+        MappedCursorLoader<String> loader = builder().idColumn("_id").build();
+        Loader.Callbacks<List<String>> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+        provider.rows = 4;
+
+        notifyRowChange(3);
+
+        verify(callbacks).onLoaderResult(names(4));
+        assertEquals(3, provider.cursors.size());
+        assertNull(provider.selections.get(2));
+    }
+
+    @Test
+    public void changeToWholeUriRequeriesEverything() {
+        provider.rows = 3;
+        MappedCursorLoader<String> loader = builder().idColumn("_id").build();
+        Loader.Callbacks<List<String>> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+        provider.renamed.put(1L, "changed");
+
+        notifyRowChange(1);
+        RuntimeEnvironment.application.getContentResolver().notifyChange(CONTENT_URI, null);
+
+        assertEquals(3, provider.cursors.size());
+        assertNull(provider.selections.get(2));
+    }
+
+    @Test
+    public void rowChangeWithoutIdColumnRequeriesEverything() {
+        provider.rows = 3;
+        MappedCursorLoader<String> loader = builder().build();
+        loader.setCallbacks(mock(Loader.Callbacks.class));
+        loader.start();
+
+        notifyRowChange(1);
+
+        assertEquals(2, provider.cursors.size());
+        assertNull(provider.selections.get(1));
+    }
+
+    static class NameMapper implements MappedCursorLoader.RowMapper<String> {
+        int columnsCalls;
+        final AtomicInteger mapCalls = new AtomicInteger();
+
+        @Override
+        public String[] columns() {
+            columnsCalls++;
+            return new String[]{"_id", "name"};
+        }
+
+        @Override
+        public String map(Cursor cursor, int[] columns) {
+            mapCalls.incrementAndGet();
+            return cursor.getLong(columns[0]) + ":" + cursor.getString(columns[1]);
+        }
+    }
+
+    static class WindowedCursor extends AbstractWindowedCursor {
+        final String[] names;
+
+        WindowedCursor(CursorWindow window, String[] names) {
+            this.names = names;
+            setWindow(window);
+        }
+
+        @Override
+        public int getCount() {
+            return mWindow.getNumRows();
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return names;
+        }
+    }
+
+    static class RowsProvider extends ContentProvider {
+        int rows;
+        boolean windowed;
+        final Map<Long, String> renamed = new HashMap<>();
+        final Set<Long> deleted = new HashSet<>();
+        final List<String[]> projections = new ArrayList<>();
+        final List<String> selections = new ArrayList<>();
+        final List<Cursor> cursors = new ArrayList<>();
+        /**
+         * Run once at the start of the next query.
+         */
+        Runnable onQuery;
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Nullable
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+            if (onQuery != null) {
+                Runnable onQuery = this.onQuery;
+                this.onQuery = null;
+                onQuery.run();
+            }
+            projections.add(projection);
+            selections.add(selection);
+            String[] names = projection != null ? projection : new String[]{"_id", "name"};
+            // Only the id filter from a patch is supported, its args are last.
+            Set<Long> only = null;
+            if (selection != null && selection.contains("_id IN")) {
+                only = new HashSet<>();
+                String in = selection.substring(selection.indexOf("_id IN"));
+                int idArgs = in.length() - in.replace("?", "").length();
+                for (int i = selectionArgs.length - idArgs; i < selectionArgs.length; i++) {
+                    only.add(Long.parseLong(selectionArgs[i]));
+                }
+            }
+            List<Long> ids = new ArrayList<>();
+            for (long id = 0; id < rows; id++) {
+                if (!deleted.contains(id) && (only == null || only.contains(id))) {
+                    ids.add(id);
+                }
+            }
+            Cursor cursor;
+            if (windowed) {
+                CursorWindow window = new CursorWindow("test");
+                window.setNumColumns(names.length);
+                for (int i = 0; i < ids.size(); i++) {
+                    long id = ids.get(i);
+                    window.allocRow();
+                    for (int c = 0; c < names.length; c++) {
+                        if (names[c].equals("_id")) {
+                            window.putLong(id, i, c);
+                        } else {
+                            window.putString(name(id), i, c);
+                        }
+                    }
+                }
+                cursor = new WindowedCursor(window, names);
+            } else {
+                Object[][] results = new Object[ids.size()][];
+                for (int i = 0; i < ids.size(); i++) {
+                    long id = ids.get(i);
+                    results[i] = new Object[names.length];
+                    for (int c = 0; c < names.length; c++) {
+                        results[i][c] = names[c].equals("_id") ? (Object) id : name(id);
+                    }
+                }
+                MyRoboCursor roboCursor = new MyRoboCursor();
+                roboCursor.setColumnNames(Arrays.asList(names));
+                roboCursor.setResults(results);
+                roboCursor.setNotificationUri(RuntimeEnvironment.application.getContentResolver(), uri);
+                cursor = roboCursor;
+            }
+            cursors.add(cursor);
+            return cursor;
+        }
+
+        String name(long id) {
+            String name = renamed.get(id);
+            return name != null ? name : "name" + id;
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return null;
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            return null;
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            return 0;
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+            return 0;
+        }
+    }
+}
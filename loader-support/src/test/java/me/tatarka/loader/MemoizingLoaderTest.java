@@ -0,0 +1,194 @@
+package me.tatarka.loader;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static me.tatarka.loader.DiskResultCacheTest.STRING;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class MemoizingLoaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    DiskResultCache cache;
+    QueueExecutor executor;
+    ManualLoader wrapped;
+    MemoizingLoader<String> loader;
+
+    @Before
+    public void setup() {
+        cache = new DiskResultCache.Builder(folder.getRoot()).build();
+        executor = new QueueExecutor();
+        wrapped = new ManualLoader();
+        loader = new MemoizingLoader<>(wrapped, cache, "key", STRING, executor);
+    }
+
+    @Test
+    public void deliversRememberedResultBeforeFreshResult() throws IOException {
+        cache.put("key", "old", STRING);
+        Loader.Callbacks<String> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+        executor.runAll();
+        wrapped.receiver.deliverResult("new");
+        wrapped.receiver.complete();
+
+        InOrder inOrder = inOrder(callbacks);
+        inOrder.verify(callbacks).onLoaderStart();
+        inOrder.verify(callbacks).onLoaderResult("old");
+        inOrder.verify(callbacks).onLoaderResult("new");
+        inOrder.verify(callbacks).onLoaderComplete();
+    }
+
+    @Test
+    public void rememberedResultIsDroppedAfterFreshResult() throws IOException {
+        cache.put("key", "old", STRING);
+        Loader.Callbacks<String> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+        wrapped.receiver.deliverResult("new");
+        executor.runAll();
+
+        verify(callbacks).onLoaderResult("new");
+        verify(callbacks, never()).onLoaderResult("old");
+    }
+
+    @Test
+    public void savesLastResultOnComplete() throws IOException {
+        loader.start();
+        executor.runAll();
+        wrapped.receiver.deliverResult("first");
+        wrapped.receiver.deliverResult("second");
+        wrapped.receiver.complete();
+        executor.runAll();
+
+        assertEquals("second", cache.get("key", STRING));
+    }
+
+    @Test
+    public void doesNotSaveWithoutResult() throws IOException {
+        cache.put("key", "old", STRING);
+        loader.start();
+        wrapped.receiver.complete();
+        executor.runAll();
+
+        assertEquals("old", cache.get("key", STRING));
+    }
+
+    @Test
+    public void cancelDropsRememberedResultAndCancelsWrapped() throws IOException {
+        cache.put("key", "old", STRING);
+        Loader.Callbacks<String> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+        loader.cancel();
+        executor.runAll();
+
+        verify(callbacks, never()).onLoaderResult(anyString());
+        assertTrue(wrapped.canceled);
+        assertTrue(!wrapped.isRunning());
+    }
+
+    @Test
+    public void restartAfterCompleteRunsWrappedAgain() throws IOException {
+        Loader.Callbacks<String> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+        executor.runAll();
+        wrapped.receiver.deliverResult("first");
+        wrapped.receiver.complete();
+        executor.runAll();
+        loader.restart();
+        executor.runAll();
+        wrapped.receiver.deliverResult("second");
+        wrapped.receiver.complete();
+        executor.runAll();
+
+        assertEquals(2, wrapped.starts);
+        InOrder inOrder = inOrder(callbacks);
+        inOrder.verify(callbacks).onLoaderResult("first");
+        inOrder.verify(callbacks).onLoaderComplete();
+        inOrder.verify(callbacks).onLoaderResult("second");
+        inOrder.verify(callbacks).onLoaderComplete();
+        assertEquals("second", cache.get("key", STRING));
+    }
+
+    @Test
+    public void destroyDestroysWrapped() {
+        loader.start();
+        loader.destroy();
+
+        assertTrue(wrapped.destroyed);
+    }
+
+    @Test
+    public void missingResultOnlyDeliversFresh() {
+        Loader.Callbacks<String> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+        executor.runAll();
+        wrapped.receiver.deliverResult("new");
+
+        verify(callbacks).onLoaderResult(eq("new"));
+        verify(callbacks).onLoaderResult(anyString());
+    }
+
+    static class ManualLoader extends Loader<String> {
+        Receiver receiver;
+        int starts;
+        boolean canceled;
+        boolean destroyed;
+
+        @Override
+        protected void onStart(Receiver receiver) {
+            this.receiver = receiver;
+            starts++;
+        }
+
+        @Override
+        protected void onCancel() {
+            canceled = true;
+        }
+
+        @Override
+        protected void onDestroy() {
+            destroyed = true;
+        }
+    }
+
+    static class QueueExecutor implements Executor {
+        final List<Runnable> queue = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            queue.add(command);
+        }
+
+        void runAll() {
+            while (!queue.isEmpty()) {
+                queue.remove(0).run();
+            }
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package me.tatarka.loader;
+
+import android.content.ContentProvider;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.annotation.Nullable;
+import android.support.v4.content.ShadowContentResolverCompatJellybean;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21, shadows = ShadowContentResolverCompatJellybean.class)
+public class MergeCursorLoaderTest {
+    static final String AUTHORITY_1 = "me.tatarka.loader.SortedProvider1";
+    static final String AUTHORITY_2 = "me.tatarka.loader.SortedProvider2";
+    static final Uri CONTENT_URI_1 = Uri.parse("content://" + AUTHORITY_1);
+    static final Uri CONTENT_URI_2 = Uri.parse("content://" + AUTHORITY_2);
+
+    ContentResolver resolver;
+    SortedProvider provider1;
+    SortedProvider provider2;
+
+    @Before
+    public void setup() {
+        resolver = RuntimeEnvironment.application.getContentResolver();
+        provider1 = new SortedProvider(1, 4, 6);
+        provider2 = new SortedProvider(2, 3, 7);
+        ShadowContentResolver.registerProvider(AUTHORITY_1, provider1);
+        ShadowContentResolver.registerProvider(AUTHORITY_2, provider2);
+    }
+
+    MergeCursorLoader.Builder builder(boolean descending) {
+        return new MergeCursorLoader.Builder("_id", descending)
+                .add(new CursorLoader.Builder(resolver, CONTENT_URI_1))
+                .add(new CursorLoader.Builder(resolver, CONTENT_URI_2))
+                .executor(CursorLoaderTest.BACKGROUND);
+    }
+
+    static long[] ids(Cursor cursor) {
+        long[] ids = new long[cursor.getCount()];
+        for (int i = 0; i < ids.length; i++) {
+            cursor.moveToPosition(i);
+            ids[i] = cursor.getLong(0);
+        }
+        return ids;
+    }
+
+    MergeCursorLoader.SortedMergeCursor lastResult(Loader.Callbacks<MergeCursorLoader.SortedMergeCursor> callbacks, int times) {
+        ArgumentCaptor<MergeCursorLoader.SortedMergeCursor> captor = ArgumentCaptor.forClass(MergeCursorLoader.SortedMergeCursor.class);
+        verify(callbacks, times(times)).onLoaderResult(captor.capture());
+        return captor.getValue();
+    }
+
+    @Test
+    public void mergesSourcesBySortColumn() {
+        MergeCursorLoader loader = builder(false).build();
+        Loader.Callbacks<MergeCursorLoader.SortedMergeCursor> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+
+        MergeCursorLoader.SortedMergeCursor cursor = lastResult(callbacks, 1);
+        assertArrayEquals(new long[]{1, 2, 3, 4, 6, 7}, ids(cursor));
+        int[] sources = new int[cursor.getCount()];
+        for (int i = 0; i < sources.length; i++) {
+            cursor.moveToPosition(i);
+            sources[i] = cursor.getSource();
+        }
+        assertArrayEquals(new int[]{0, 1, 1, 0, 0, 1}, sources);
+        assertEquals("name3", cursor.moveToPosition(2) ? cursor.getString(1) : null);
+    }
+
+    @Test
+    public void mergesDescending() {
+        provider1.ids = new long[]{6, 4, 1};
+        provider2.ids = new long[]{7, 3, 2};
+        MergeCursorLoader loader = builder(true).build();
+        Loader.Callbacks<MergeCursorLoader.SortedMergeCursor> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+
+        assertArrayEquals(new long[]{7, 6, 4, 3, 2, 1}, ids(lastResult(callbacks, 1)));
+        assertEquals("_id DESC", provider1.sortOrders.get(0));
+    }
+
+    @Test
+    public void sourcesAreQueriedInParallel() {
+        final AtomicInteger executed = new AtomicInteger();
+        MergeCursorLoader loader = builder(false).executor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                executed.incrementAndGet();
+                CursorLoaderTest.BACKGROUND.execute(command);
+            }
+        }).build();
+        loader.start();
+
+        assertEquals(2, executed.get());
+    }
+
+    @Test
+    public void changeRequeriesOnlyThatSource() {
+        MergeCursorLoader loader = builder(false).build();
+        Loader.Callbacks<MergeCursorLoader.SortedMergeCursor> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+        provider2.ids = new long[]{2, 5};
+
+        resolver.notifyChange(CONTENT_URI_2, null);
+
+        assertArrayEquals(new long[]{1, 2, 4, 5, 6}, ids(lastResult(callbacks, 2)));
+        assertEquals(1, provider1.cursors.size());
+        assertEquals(2, provider2.cursors.size());
+        assertFalse(provider1.cursors.get(0).isClosed());
+        assertTrue(provider2.cursors.get(0).isClosed());
+    }
+
+    @Test
+    public void changeWhileDetachedDefersQuery() {
+        MergeCursorLoader loader = builder(false).build();
+        loader.setCallbacks(mock(Loader.Callbacks.class));
+        loader.start();
+        loader.setCallbacks(null);
+
+        resolver.notifyChange(CONTENT_URI_1, null);
+        resolver.notifyChange(CONTENT_URI_1, null);
+
+        assertEquals(1, provider1.cursors.size());
+
+        loader.setCallbacks(mock(Loader.Callbacks.class));
+
+        assertEquals(2, provider1.cursors.size());
+        assertEquals(1, provider2.cursors.size());
+    }
+
+    @Test
+    public void restartRequeriesEverySource() {
+        MergeCursorLoader loader = builder(false).build();
+        loader.start();
+        loader.restart();
+
+        assertEquals(2, provider1.cursors.size());
+        assertEquals(2, provider2.cursors.size());
+    }
+
+    @Test
+    public void destroyClosesCursors() {
+        MergeCursorLoader loader = builder(false).build();
+        loader.start();
+        loader.destroy();
+
+        assertTrue(provider1.cursors.get(0).isClosed());
+        assertTrue(provider2.cursors.get(0).isClosed());
+    }
+
+    static class SortedProvider extends ContentProvider {
+        long[] ids;
+        final List<Cursor> cursors = new ArrayList<>();
+        final List<String> sortOrders = new ArrayList<>();
+
+        SortedProvider(long... ids) {
+            this.ids = ids;
+        }
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Nullable
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+            sortOrders.add(sortOrder);
+            Object[][] results = new Object[ids.length][];
+            for (int i = 0; i < ids.length; i++) {
+                results[i] = new Object[]{ids[i], "name" + ids[i]};
+            }
+            MyRoboCursor cursor = new MyRoboCursor();
+            cursor.setColumnNames(Arrays.asList("_id", "name"));
+            cursor.setResults(results);
+            cursor.setNotificationUri(RuntimeEnvironment.application.getContentResolver(), uri);
+            cursors.add(cursor);
+            return cursor;
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return null;
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            return null;
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            return 0;
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+            return 0;
+        }
+    }
+}
@@ -33,6 +33,16 @@ public class MyRoboCursor extends RoboCursor {
         resolver.registerContentObserver(getNotificationUri(), false, observer);
     }
 
+    @Override
+    public void unregisterContentObserver(ContentObserver observer) {
+        // Observers are registered for the notification uri, which other cursors share.
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return columnNames.toArray(new String[columnNames.size()]);
+    }
+
     @Override
     public void close() {
         closedWasCalled = true;
@@ -0,0 +1,285 @@
+package me.tatarka.loader;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v4.content.ShadowContentResolverCompatJellybean;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowApplication;
+import org.robolectric.shadows.ShadowContentResolver;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.util.Scheduler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static me.tatarka.loader.CursorLoaderTest.BACKGROUND;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21, shadows = ShadowContentResolverCompatJellybean.class)
+public class PagedCursorLoaderTest {
+    static final String AUTHORITY = "me.tatarka.loader.PagingProvider";
+    static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY);
+
+    Scheduler background;
+    PagingProvider provider;
+
+    @Before
+    public void setup() {
+        background = ShadowApplication.getInstance().getBackgroundThreadScheduler();
+        provider = new PagingProvider();
+        ShadowContentResolver.registerProvider(AUTHORITY, provider);
+    }
+
+    PagedCursorLoader.Builder builder() {
+        return new PagedCursorLoader.Builder(RuntimeEnvironment.application.getContentResolver(), CONTENT_URI)
+                .sortOrder("_id")
+                .executor(BACKGROUND)
+                .pageSize(10)
+                .prefetchPages(1)
+                .releasePages(2);
+    }
+
+    PagedCursorLoader.CursorPages lastPages(Loader.Callbacks<PagedCursorLoader.CursorPages> callbacks) {
+        ArgumentCaptor<PagedCursorLoader.CursorPages> captor = ArgumentCaptor.forClass(PagedCursorLoader.CursorPages.class);
+        verify(callbacks, atLeastOnce()).onLoaderResult(captor.capture());
+        List<PagedCursorLoader.CursorPages> values = captor.getAllValues();
+        return values.get(values.size() - 1);
+    }
+
+    @Test
+    public void startLoadsFirstPageAndPrefetchesNext() {
+        provider.rows = 100;
+        PagedCursorLoader loader = builder().build();
+        Loader.Callbacks<PagedCursorLoader.CursorPages> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+
+        assertEquals(Arrays.asList("_id LIMIT 10 OFFSET 0", "_id LIMIT 10 OFFSET 10"), provider.queries);
+        PagedCursorLoader.CursorPages pages = lastPages(callbacks);
+        assertEquals(20, pages.getCount());
+        assertFalse(pages.isCountKnown());
+        assertTrue(pages.isLoaded(19));
+        assertFalse(pages.isLoaded(20));
+        assertEquals(15, pages.moveToPosition(15).getInt(0));
+        assertNull(pages.moveToPosition(25));
+    }
+
+    @Test
+    public void setPositionLoadsAroundAndReleasesFarPages() {
+        provider.rows = 100;
+        PagedCursorLoader loader = builder().build();
+        Loader.Callbacks<PagedCursorLoader.CursorPages> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+        List<Cursor> firstPages = new ArrayList<>(provider.cursors);
+        provider.queries.clear();
+
+        loader.setPosition(55);
+
+        assertEquals(Arrays.asList("_id LIMIT 10 OFFSET 50", "_id LIMIT 10 OFFSET 60", "_id LIMIT 10 OFFSET 40"), provider.queries);
+        // Pages 0 and 1 are more than 2 pages from page 5.
+        assertTrue(firstPages.get(0).isClosed());
+        assertTrue(firstPages.get(1).isClosed());
+        PagedCursorLoader.CursorPages pages = lastPages(callbacks);
+        assertFalse(pages.isLoaded(5));
+        assertEquals(55, pages.moveToPosition(55).getInt(0));
+    }
+
+    @Test
+    public void shortPageMarksEnd() {
+        provider.rows = 15;
+        PagedCursorLoader loader = builder().build();
+        Loader.Callbacks<PagedCursorLoader.CursorPages> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+        provider.queries.clear();
+        loader.setPosition(14);
+
+        PagedCursorLoader.CursorPages pages = lastPages(callbacks);
+        assertTrue(pages.isCountKnown());
+        assertEquals(15, pages.getCount());
+        // Page 2 is past the end so it isn't prefetched.
+        assertEquals(new ArrayList<String>(), provider.queries);
+    }
+
+    @Test
+    public void contentChangeRequeriesLoadedPages() {
+        provider.rows = 100;
+        PagedCursorLoader loader = builder().build();
+        Loader.Callbacks<PagedCursorLoader.CursorPages> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+        List<Cursor> firstPages = new ArrayList<>(provider.cursors);
+        provider.queries.clear();
+
+        RuntimeEnvironment.application.getContentResolver().notifyChange(CONTENT_URI, null);
+
+        assertEquals(2, provider.queries.size());
+        assertTrue(firstPages.get(0).isClosed());
+        assertTrue(firstPages.get(1).isClosed());
+        assertTrue(lastPages(callbacks).isLoaded(0));
+    }
+
+    @Test
+    public void changeNotifiedByEveryPageRequeriesOnce() {
+        provider.rows = 100;
+        PagedCursorLoader loader = builder().build();
+        Loader.Callbacks<PagedCursorLoader.CursorPages> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+        provider.queries.clear();
+
+        // Each page's cursor notifies its observers of the change.
+        ShadowLooper.pauseMainLooper();
+        for (ContentObserver observer : shadowOf(RuntimeEnvironment.application.getContentResolver()).getContentObservers(CONTENT_URI)) {
+            for (int i = 0; i < provider.cursors.size(); i++) {
+                observer.dispatchChange(false, CONTENT_URI);
+            }
+        }
+        ShadowLooper.unPauseMainLooper();
+
+        assertEquals(2, provider.queries.size());
+        verify(callbacks, times(4)).onLoaderResult(any(PagedCursorLoader.CursorPages.class));
+    }
+
+    @Test
+    public void updateThrottleCoalescesChanges() {
+        provider.rows = 100;
+        PagedCursorLoader loader = builder().updateThrottle(100).build();
+        loader.setCallbacks(mock(Loader.Callbacks.class));
+        loader.start();
+        provider.queries.clear();
+
+        ShadowLooper.pauseMainLooper();
+        for (int i = 0; i < 5; i++) {
+            RuntimeEnvironment.application.getContentResolver().notifyChange(CONTENT_URI, null);
+            ShadowLooper.idleMainLooper(10);
+        }
+
+        assertEquals(0, provider.queries.size());
+
+        ShadowLooper.idleMainLooper(100);
+
+        assertEquals(2, provider.queries.size());
+    }
+
+    @Test
+    public void contentChangeWhileDetachedDefersRequery() {
+        provider.rows = 100;
+        PagedCursorLoader loader = builder().build();
+        loader.setCallbacks(mock(Loader.Callbacks.class));
+        loader.start();
+        loader.setCallbacks(null);
+        provider.queries.clear();
+
+        RuntimeEnvironment.application.getContentResolver().notifyChange(CONTENT_URI, null);
+
+        assertEquals(0, provider.queries.size());
+
+        loader.setCallbacks(mock(Loader.Callbacks.class));
+
+        assertEquals(2, provider.queries.size());
+    }
+
+    @Test
+    public void cancelClosesPagesAndSkipsLoading() {
+        provider.rows = 100;
+        PagedCursorLoader loader = builder().build();
+        Loader.Callbacks<PagedCursorLoader.CursorPages> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+        List<Cursor> firstPages = new ArrayList<>(provider.cursors);
+
+        background.pause();
+        loader.setPosition(30);
+        loader.cancel();
+        background.unPause();
+
+        // Pages that were still waiting to load are never queried.
+        assertEquals(firstPages, provider.cursors);
+        for (Cursor cursor : firstPages) {
+            assertTrue(cursor.isClosed());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void sortOrderIsRequired() {
+        new PagedCursorLoader.Builder(RuntimeEnvironment.application.getContentResolver(), CONTENT_URI).build();
+    }
+
+    static class PagingProvider extends ContentProvider {
+        static final Pattern PAGE = Pattern.compile("LIMIT (\\d+) OFFSET (\\d+)");
+
+        int rows;
+        final List<String> queries = new ArrayList<>();
+        final List<Cursor> cursors = new ArrayList<>();
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+            queries.add(sortOrder);
+            Matcher matcher = PAGE.matcher(sortOrder);
+            assertTrue(matcher.find());
+            int limit = Integer.parseInt(matcher.group(1));
+            int offset = Integer.parseInt(matcher.group(2));
+            int count = Math.max(0, Math.min(limit, rows - offset));
+            Object[][] results = new Object[count][];
+            for (int i = 0; i < count; i++) {
+                results[i] = new Object[]{offset + i};
+            }
+            MyRoboCursor cursor = new MyRoboCursor();
+            cursor.setColumnNames(Arrays.asList("_id"));
+            cursor.setResults(results);
+            cursor.setNotificationUri(RuntimeEnvironment.application.getContentResolver(), uri);
+            cursors.add(cursor);
+            return cursor;
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return null;
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            return null;
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            return 0;
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+            return 0;
+        }
+    }
+}
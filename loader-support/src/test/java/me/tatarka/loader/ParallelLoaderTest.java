@@ -0,0 +1,210 @@
+package me.tatarka.loader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowApplication;
+import org.robolectric.util.Scheduler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class ParallelLoaderTest {
+
+    static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    Scheduler foreground;
+    ExecutorService pool;
+
+    @Before
+    public void setup() {
+        foreground = ShadowApplication.getInstance().getForegroundThreadScheduler();
+        pool = Executors.newFixedThreadPool(3);
+    }
+
+    @After
+    public void teardown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void mergesChunksInOrder() {
+        SumLoader loader = new SumLoader(DIRECT, pool, 4, 20);
+        Loader.Callbacks<List<Integer>> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            expected.add(i * 2);
+        }
+        verify(callbacks).onLoaderResult(eq(expected));
+        verify(callbacks).onLoaderComplete();
+    }
+
+    @Test
+    public void runsChunksInParallel() {
+        SumLoader loader = new SumLoader(DIRECT, pool, 4, 8);
+        loader.sleepMillis = 20;
+        loader.start();
+
+        assertTrue("max concurrent " + loader.maxConcurrent.get(), loader.maxConcurrent.get() > 1);
+    }
+
+    @Test
+    public void emptySplitMergesNothing() {
+        SumLoader loader = new SumLoader(DIRECT, pool, 4, 0);
+        Loader.Callbacks<List<Integer>> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+
+        verify(callbacks).onLoaderResult(eq(new ArrayList<Integer>()));
+    }
+
+    @Test
+    public void cancelSkipsRemainingChunks() throws InterruptedException {
+        foreground.pause();
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread[] coordinator = new Thread[1];
+        SumLoader loader = new SumLoader(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                coordinator[0] = new Thread(command);
+                coordinator[0].start();
+            }
+        }, pool, 1, 10) {
+            @Override
+            protected Integer process(Integer chunk, CancellationToken token) {
+                if (chunk == 0) {
+                    blocked.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        // Done
+                    }
+                }
+                return super.process(chunk, token);
+            }
+        };
+        Loader.Callbacks<List<Integer>> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+        assertTrue(blocked.await(1, TimeUnit.SECONDS));
+        loader.cancel();
+        release.countDown();
+        coordinator[0].join(1000);
+        foreground.unPause();
+
+        assertFalse(coordinator[0].isAlive());
+        assertEquals(1, loader.processed.get());
+        verify(callbacks).onLoaderStart();
+        verifyNoMoreInteractions(callbacks);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void chunkFailurePropagates() {
+        SumLoader loader = new SumLoader(DIRECT, pool, 4, 10) {
+            @Override
+            protected Integer process(Integer chunk, CancellationToken token) {
+                if (chunk == 5) {
+                    throw new IllegalStateException("test");
+                }
+                return super.process(chunk, token);
+            }
+        };
+        loader.start();
+    }
+
+    @Test
+    public void publishesIntermediateResults() {
+        SumLoader loader = new SumLoader(DIRECT, pool, 1, 3);
+        loader.publishIntermediate = true;
+        Loader.Callbacks<List<Integer>> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+        foreground.advanceBy(1000);
+
+        verify(callbacks).onLoaderResult(eq(Arrays.asList(0)));
+        verify(callbacks).onLoaderResult(eq(Arrays.asList(0, 2, 4)));
+    }
+
+    static class SumLoader extends ParallelLoader<Integer, Integer, List<Integer>> {
+        final int count;
+        final AtomicInteger processed = new AtomicInteger();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxConcurrent = new AtomicInteger();
+        volatile long sleepMillis;
+        boolean publishIntermediate;
+
+        SumLoader(Executor executor, Executor pool, int parallelism, int count) {
+            super(executor, pool, parallelism);
+            this.count = count;
+        }
+
+        @Override
+        protected List<Integer> split(CancellationToken token) {
+            List<Integer> chunks = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                chunks.add(i);
+            }
+            return chunks;
+        }
+
+        @Override
+        protected Integer process(Integer chunk, CancellationToken token) {
+            int now = running.incrementAndGet();
+            while (true) {
+                int max = maxConcurrent.get();
+                if (now <= max || maxConcurrent.compareAndSet(max, now)) {
+                    break;
+                }
+            }
+            if (sleepMillis > 0) {
+                try {
+                    Thread.sleep(sleepMillis);
+                } catch (InterruptedException e) {
+                    // Done
+                }
+            }
+            running.decrementAndGet();
+            processed.incrementAndGet();
+            return chunk * 2;
+        }
+
+        @Override
+        protected List<Integer> merge(List<Integer> results) {
+            return new ArrayList<>(results);
+        }
+
+        @Override
+        protected boolean publishIntermediateResults() {
+            return publishIntermediate;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package me.tatarka.loader;
+
+import android.net.Uri;
+import android.support.v4.content.ShadowContentResolverCompatJellybean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21, shadows = ShadowContentResolverCompatJellybean.class)
+public class QueryLogTest {
+    static final Uri ITEMS = Uri.parse("content://me.tatarka.loader/items");
+
+    List<QueryLog.SlowQuery> slow;
+
+    @Before
+    public void setup() {
+        QueryLog.clear();
+        slow = new ArrayList<>();
+        QueryLog.setSink(new QueryLog.Sink() {
+            @Override
+            public void onSlowQuery(QueryLog.SlowQuery query) {
+                slow.add(query);
+            }
+        });
+    }
+
+    @After
+    public void teardown() {
+        QueryLog.clear();
+        QueryLog.setSink(QueryLog.LOGCAT);
+        QueryLog.setSlowThresholdMillis(100);
+    }
+
+    static long millis(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Test
+    public void uriIdsAreReplaced() {
+        assertEquals("content://me.tatarka.loader/items/#/parts", QueryLog.uriShape(Uri.withAppendedPath(ITEMS, "12/parts")));
+        assertEquals("content://me.tatarka.loader/items", QueryLog.uriShape(ITEMS));
+    }
+
+    @Test
+    public void selectionLiteralsAreReplaced() {
+        assertEquals("name = ? AND count > ? AND col2 < ?", QueryLog.selectionShape("name = 'it''s' AND count > 12 AND col2 < 3.5"));
+        assertEquals("name = ?", QueryLog.selectionShape("name = ?"));
+    }
+
+    @Test
+    public void queriesOfTheSameShapeAreGrouped() {
+        QueryLog.record(Uri.withAppendedPath(ITEMS, "1"), null, "name = 'a'", null, millis(1), millis(2), 1);
+        QueryLog.record(Uri.withAppendedPath(ITEMS, "2"), null, "name = 'b'", null, millis(3), millis(4), 1);
+        QueryLog.record(ITEMS, null, null, null, millis(5), millis(6), 10);
+
+        List<QueryLog.Stats> all = QueryLog.all();
+        assertEquals(2, all.size());
+        assertEquals("content://me.tatarka.loader/items/#", all.get(0).getUri());
+        assertEquals("name = ?", all.get(0).getSelection());
+        assertEquals(2, all.get(0).getCount());
+        assertEquals("content://me.tatarka.loader/items", all.get(1).getUri());
+        assertNull(all.get(1).getSelection());
+    }
+
+    @Test
+    public void percentilesAreOverRecentQueries() {
+        for (int i = 1; i <= 100; i++) {
+            QueryLog.record(ITEMS, null, null, null, millis(i), millis(i * 2), 1);
+        }
+
+        QueryLog.Stats stats = QueryLog.all().get(0);
+        assertEquals(50, stats.getQueryMillis(50), 0.001);
+        assertEquals(90, stats.getQueryMillis(90), 0.001);
+        assertEquals(200, stats.getFillMillis(100), 0.001);
+
+        for (int i = 0; i < QueryLog.WINDOW; i++) {
+            QueryLog.record(ITEMS, null, null, null, millis(1000), 0, 1);
+        }
+
+        stats = QueryLog.all().get(0);
+        assertEquals(100 + QueryLog.WINDOW, stats.getCount());
+        assertEquals(1000, stats.getQueryMillis(0), 0.001);
+    }
+
+    @Test
+    public void slowQueriesAreReported() {
+        QueryLog.setSlowThresholdMillis(10);
+        QueryLog.record(ITEMS, new String[]{"_id"}, "name = ?", "_id", millis(4), millis(5), 3);
+        QueryLog.record(ITEMS, new String[]{"_id"}, "name = ?", "_id", millis(6), millis(5), 3);
+
+        assertEquals(1, slow.size());
+        QueryLog.SlowQuery query = slow.get(0);
+        assertEquals(ITEMS, query.getUri());
+        assertArrayEquals(new String[]{"_id"}, query.getProjection());
+        assertEquals("name = ?", query.getSelection());
+        assertEquals(6, query.getQueryMillis(), 0.001);
+        assertEquals(5, query.getFillMillis(), 0.001);
+        assertEquals(3, query.getRows());
+    }
+
+    @Test
+    public void leastRecentlyQueriedShapeIsDropped() {
+        for (int i = 0; i <= QueryLog.MAX_SHAPES; i++) {
+            QueryLog.record(Uri.withAppendedPath(ITEMS, "part" + i), null, null, null, 0, 0, 0);
+        }
+
+        List<QueryLog.Stats> all = QueryLog.all();
+        assertEquals(QueryLog.MAX_SHAPES, all.size());
+        assertTrue(all.get(0).getUri().endsWith("part1"));
+    }
+
+    @Test
+    public void cursorLoaderRecordsQueries() {
+        QueryLog.setSlowThresholdMillis(0);
+        MappedCursorLoaderTest.RowsProvider provider = new MappedCursorLoaderTest.RowsProvider();
+        provider.rows = 3;
+        ShadowContentResolver.registerProvider(MappedCursorLoaderTest.AUTHORITY, provider);
+        CursorLoader loader = new CursorLoader.Builder(RuntimeEnvironment.application.getContentResolver(), MappedCursorLoaderTest.CONTENT_URI)
+                .selection("name = 'x'")
+                .executor(CursorLoaderTest.BACKGROUND)
+                .build();
+        loader.start();
+
+        QueryLog.Stats stats = QueryLog.all().get(0);
+        assertEquals(MappedCursorLoaderTest.CONTENT_URI.toString(), stats.getUri());
+        assertEquals("name = ?", stats.getSelection());
+        assertEquals(1, stats.getCount());
+        assertEquals(3, slow.get(0).getRows());
+
+        loader.destroy();
+    }
+}
@@ -0,0 +1,119 @@
+package me.tatarka.loader;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowApplication;
+import org.robolectric.util.Scheduler;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class ResultThrottleTest {
+
+    Scheduler foreground;
+    Loader.Callbacks<String> callbacks;
+    ReceiverLoader loader;
+    CancellationToken token;
+    ResultThrottle<String> throttle;
+
+    @Before
+    public void setup() {
+        foreground = ShadowApplication.getInstance().getForegroundThreadScheduler();
+        callbacks = mock(Loader.Callbacks.class);
+        loader = new ReceiverLoader();
+        loader.setCallbacks(callbacks);
+        loader.start();
+        token = new CancellationToken(false);
+        throttle = new ResultThrottle<>(loader.receiver, token, new Handler(Looper.getMainLooper()), 100);
+    }
+
+    @Test
+    public void firstResultIsDeliveredImmediately() {
+        throttle.publish("one");
+
+        verify(callbacks).onLoaderResult(eq("one"));
+    }
+
+    @Test
+    public void resultsWithinIntervalAreConflated() {
+        throttle.publish("one");
+        throttle.publish("two");
+        throttle.publish("three");
+        foreground.advanceBy(99);
+
+        verify(callbacks, never()).onLoaderResult(eq("three"));
+
+        foreground.advanceBy(1);
+
+        verify(callbacks, never()).onLoaderResult(eq("two"));
+        verify(callbacks).onLoaderResult(eq("three"));
+    }
+
+    @Test
+    public void finishDropsPendingResult() {
+        throttle.publish("one");
+        throttle.publish("two");
+        throttle.finish();
+        throttle.publish("three");
+        foreground.advanceBy(100);
+
+        verify(callbacks, never()).onLoaderResult(eq("two"));
+        verify(callbacks, never()).onLoaderResult(eq("three"));
+    }
+
+    @Test
+    public void canceledDropsResults() {
+        foreground.pause();
+        throttle.publish("one");
+        token.cancel();
+        throttle.publish("two");
+        foreground.unPause();
+
+        verify(callbacks, never()).onLoaderResult(anyString());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void currentOutsideOfWorkThrows() {
+        ResultThrottle.current(loader);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void currentForOtherLoaderThrows() {
+        ResultThrottle.enter(new ResultThrottle.Host<String>() {
+            @Override
+            public Loader<String> getLoader() {
+                return loader;
+            }
+
+            @Override
+            public ResultThrottle<String> getThrottle() {
+                return throttle;
+            }
+        });
+        try {
+            ResultThrottle.current(new ReceiverLoader());
+        } finally {
+            ResultThrottle.exit();
+        }
+    }
+
+    static class ReceiverLoader extends Loader<String> {
+        Receiver receiver;
+
+        @Override
+        protected void onStart(Receiver receiver) {
+            this.receiver = receiver;
+        }
+    }
+}
@@ -27,9 +27,11 @@ public class TestAsyncTaskLoader<T> extends AsyncTaskLoader<T> {
 
     private T result;
     private boolean throwOperationCanceled;
+    private boolean didRun;
 
     @Override
-    protected T doInBackground() {
+    protected T doInBackground(CancellationToken token) {
+        didRun = true;
         if (throwOperationCanceled) {
             throw new OperationCanceledException();
         } else {
@@ -44,4 +46,8 @@ public class TestAsyncTaskLoader<T> extends AsyncTaskLoader<T> {
     public void throwCanceledException() {
         this.throwOperationCanceled = true;
     }
+
+    public boolean didRun() {
+        return didRun;
+    }
 }
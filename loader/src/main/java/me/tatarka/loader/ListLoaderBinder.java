@@ -0,0 +1,180 @@
+package me.tatarka.loader;
+
+import android.support.annotation.MainThread;
+import android.util.SparseArray;
+
+import me.tatarka.retainstate.RetainState;
+
+/**
+ * Manages a loader per item in a list, like a {@code RecyclerView} or {@code ListView}. Items are
+ * bound and unbound as their views are, loaders are started ahead of the scroll direction so rows
+ * don't show up blank, and loaders that scroll far away are canceled so they don't hold up the
+ * ones you can see. Loaders are created through the given {@link LoaderManager} with the id {@code
+ * baseId + position}, so you should use a bounded one ({@link LoaderManager#LoaderManager(int)}) to
+ * let completed loaders for items that are no longer visible be evicted.
+ * <pre>{@code
+ * public void onBindViewHolder(ViewHolder holder, int position) {
+ *     holder.boundPosition = position;
+ *     binder.bind(position, holder);
+ * }
+ *
+ * public void onViewRecycled(ViewHolder holder) {
+ *     // Not getAdapterPosition(), it's NO_POSITION once the item is removed.
+ *     binder.unbind(holder.boundPosition);
+ * }
+ *
+ * public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+ *     binder.onScrolled(layoutManager.findFirstVisibleItemPosition(), layoutManager.findLastVisibleItemPosition(), adapter.getItemCount());
+ * }
+ * }</pre>
+ *
+ * @param <T> The type of result the loaders deliver.
+ * @param <L> The type of loader.
+ */
+public class ListLoaderBinder<T, L extends Loader<T>> {
+
+    private final LoaderManager loaderManager;
+    private final int baseId;
+    private final OnCreateItem<L> create;
+    private int prefetchDistance = 5;
+    private int cancelDistance = 20;
+
+    /**
+     * Loaders that were started and may need to be canceled, by position.
+     */
+    private final SparseArray<L> started = new SparseArray<>();
+    private int lastFirstVisible = -1;
+    private int creatingPosition;
+    private final RetainState.OnCreate<L> createForPosition = new RetainState.OnCreate<L>() {
+        @Override
+        public L onCreate() {
+            return create.onCreate(creatingPosition);
+        }
+    };
+
+    /**
+     * @param loaderManager The loader manager to create the loaders in.
+     * @param baseId        The id of the loader for position 0. Make sure the range of ids for your
+     *                      list doesn't overlap any other loader in the loader manager.
+     * @param create        Creates the loader for a position. Since loaders are created through the
+     *                      retained loader manager, make sure this doesn't hold on to your
+     *                      Activity.
+     */
+    public ListLoaderBinder(LoaderManager loaderManager, int baseId, OnCreateItem<L> create) {
+        this.loaderManager = loaderManager;
+        this.baseId = baseId;
+        this.create = create;
+    }
+
+    /**
+     * Sets how many items past the last visible one, in the direction of scrolling, should have
+     * their loaders started. Defaults to 5.
+     */
+    public void setPrefetchDistance(int prefetchDistance) {
+        if (prefetchDistance < 0) {
+            throw new IllegalArgumentException("prefetchDistance < 0");
+        }
+        this.prefetchDistance = prefetchDistance;
+    }
+
+    /**
+     * Sets how many items away from the visible ones a loader has to be before it is canceled if
+     * it's still running. Defaults to 20. Canceled loaders are restarted when they are bound or
+     * prefetched again.
+     */
+    public void setCancelDistance(int cancelDistance) {
+        if (cancelDistance < 0) {
+            throw new IllegalArgumentException("cancelDistance < 0");
+        }
+        this.cancelDistance = cancelDistance;
+    }
+
+    /**
+     * Binds the loader for the given position to the callbacks and starts it if needed. Call this
+     * when the item's view is bound.
+     */
+    @MainThread
+    public L bind(int position, Loader.Callbacks<T> callbacks) {
+        int id = baseId + position;
+        L loader = loaderManager.get(id);
+        if (loader != null && loader.isAttached()) {
+            // Rebound without being recycled, just swap out the callbacks.
+            loader.setCallbacks(callbacks);
+        } else {
+            creatingPosition = position;
+            loader = loaderManager.init(id, createForPosition, callbacks);
+        }
+        start(position, loader);
+        return loader;
+    }
+
+    /**
+     * Detaches the loader for the given position, keeping its result. Call this when the item's
+     * view is recycled, with the position it was bound to.
+     */
+    @MainThread
+    public void unbind(int position) {
+        if (position < 0) {
+            throw new IllegalArgumentException("position < 0");
+        }
+        loaderManager.detach(baseId + position);
+    }
+
+    /**
+     * Prefetches loaders ahead of the scroll direction and cancels ones that have scrolled too far
+     * away. Call this whenever the list is scrolled.
+     */
+    @MainThread
+    public void onScrolled(int firstVisible, int lastVisible, int itemCount) {
+        if (firstVisible < 0 || lastVisible < firstVisible) {
+            return;
+        }
+        boolean scrollingUp = lastFirstVisible >= 0 && firstVisible < lastFirstVisible;
+        lastFirstVisible = firstVisible;
+
+        for (int i = started.size() - 1; i >= 0; i--) {
+            int position = started.keyAt(i);
+            if (position < firstVisible - cancelDistance || position > lastVisible + cancelDistance) {
+                L loader = started.valueAt(i);
+                started.removeAt(i);
+                if (loader.isRunning() && !loader.isAttached()) {
+                    loader.cancel();
+                }
+            }
+        }
+
+        if (scrollingUp) {
+            for (int position = firstVisible - 1; position >= Math.max(0, firstVisible - prefetchDistance); position--) {
+                prefetch(position);
+            }
+        } else {
+            for (int position = lastVisible + 1; position <= Math.min(itemCount - 1, lastVisible + prefetchDistance); position++) {
+                prefetch(position);
+            }
+        }
+    }
+
+    private void prefetch(int position) {
+        int id = baseId + position;
+        L loader = loaderManager.get(id);
+        if (loader == null) {
+            creatingPosition = position;
+            loader = loaderManager.init(id, createForPosition, null);
+        }
+        start(position, loader);
+    }
+
+    private void start(int position, L loader) {
+        if (!loader.isCompleted()) {
+            loader.start();
+            started.put(position, loader);
+        }
+    }
+
+    /**
+     * Creates a loader for a list item.
+     */
+    public interface OnCreateItem<L extends Loader<?>> {
+        L onCreate(int position);
+    }
+}
@@ -3,6 +3,7 @@ package me.tatarka.loader;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.support.annotation.MainThread;
 import android.support.annotation.Nullable;
 
@@ -28,6 +29,10 @@ public abstract class Loader<T> {
     private static final int CALLBACKS_START = 1;
     private static final int CALLBACKS_RESULT = 2;
     private static final int CALLBACKS_COMPLETE = 4;
+    /**
+     * The result is being re-delivered to bring callbacks up to date.
+     */
+    private static final int CALLBACKS_CATCH_UP = 8;
 
     private static boolean isRunning(int state) {
         return (state & STATE_RUNNING) == STATE_RUNNING;
@@ -52,18 +57,31 @@ public abstract class Loader<T> {
     private Receiver receiver;
     private T cachedResult;
     private AtomicInteger state = new AtomicInteger();
+    private boolean paused;
+    /**
+     * If callbacks were skipped while the loader was paused and should be dispatched on resume.
+     */
+    private boolean pendingDispatch;
+    private final long createdAt = SystemClock.elapsedRealtime();
 
     private final Handler handler = new Handler(Looper.getMainLooper()) {
         @Override
         public void handleMessage(Message msg) {
             int callback = msg.arg1;
             @SuppressWarnings("unchecked")
-            HandlerArgs<Object> args = (HandlerArgs<Object>) msg.obj;
+            HandlerArgs<T> args = (HandlerArgs<T>) msg.obj;
             if ((callback & CALLBACKS_RESULT) == CALLBACKS_RESULT) {
-                args.callbacks.onLoaderResult(args.cachedResult);
+                if ((callback & CALLBACKS_CATCH_UP) == CALLBACKS_CATCH_UP) {
+                    dispatchCachedResult(args.callbacks, args.cachedResult);
+                } else {
+                    args.callbacks.onLoaderResult(args.cachedResult);
+                }
             } else if ((callback & CALLBACKS_START) == CALLBACKS_START) {
                 args.callbacks.onLoaderStart();
             }
+            if ((callback & CALLBACKS_CATCH_UP) == CALLBACKS_CATCH_UP) {
+                dispatchHeldState(args.callbacks);
+            }
             if ((callback & CALLBACKS_COMPLETE) == CALLBACKS_COMPLETE) {
                 args.callbacks.onLoaderComplete();
             }
@@ -80,7 +98,9 @@ public abstract class Loader<T> {
         checkDestroyed("start", s);
         if (!isRunning(s) && !isCompleted(s)) {
             state.set(STATE_RUNNING);
-            if (callbacks != null) {
+            if (paused) {
+                pendingDispatch = true;
+            } else if (callbacks != null) {
                 callbacks.onLoaderStart();
             }
             receiver = new Receiver();
@@ -135,6 +155,48 @@ public abstract class Loader<T> {
         onDestroy();
     }
 
+    /**
+     * Pauses the loader. This is normally called for you by {@link LoaderManager#pause()}. While
+     * paused, the loader keeps any results it receives but does not deliver them to its callbacks.
+     * Instead, the latest result is delivered once when the loader is resumed. This will trigger
+     * {@link #onPause()} so the loader can suspend any work that is not worth doing while the user
+     * can't see it. This must be called on the main thread.
+     */
+    @MainThread
+    public final void pause() {
+        checkDestroyed("pause", state.get());
+        if (!paused) {
+            paused = true;
+            onPause();
+        }
+    }
+
+    /**
+     * Resumes the loader after {@link #pause()}, delivering anything that happened while it was
+     * paused and then triggering {@link #onResume()}. This must be called on the main thread.
+     */
+    @MainThread
+    public final void resume() {
+        checkDestroyed("resume", state.get());
+        if (paused) {
+            paused = false;
+            if (pendingDispatch) {
+                pendingDispatch = false;
+                if (callbacks != null) {
+                    dispatchCurrentState(callbacks);
+                }
+            }
+            onResume();
+        }
+    }
+
+    /**
+     * Returns true if the loader has been paused with {@link #pause()}.
+     */
+    public final boolean isPaused() {
+        return paused;
+    }
+
     /**
      * Returns true if the loader is running. That is, if it has been started and not stopped and
      * {@link Receiver#complete()} has not been called. If this is true than you may expect one or
@@ -190,28 +252,127 @@ public abstract class Loader<T> {
     protected void onDestroy() {
     }
 
+    /**
+     * Optionally suspend work when the loader is paused. Results delivered while paused are held
+     * until the loader is resumed so you don't have to stop delivering them. This is run on the
+     * main thread.
+     */
+    protected void onPause() {
+    }
+
+    /**
+     * Optionally resume any work suspended in {@link #onPause()}. Any held result has already been
+     * delivered when this is called. This is run on the main thread.
+     */
+    protected void onResume() {
+    }
+
+    /**
+     * Optionally resume work when callbacks are attached after there were none, for example after
+     * a configuration change. The callbacks have already been brought up to date when this is
+     * called. This is run on the main thread.
+     */
+    protected void onAttach() {
+    }
+
+    /**
+     * Optionally skip work that nobody will see when the callbacks are cleared, for example while
+     * the Activity is being recreated. This is run on the main thread.
+     */
+    protected void onDetach() {
+    }
+
     /**
      * Set the callbacks for the loader. This is normally called for you by {@link LoaderManager}.
      * Data will be delivered of if the loader already has it. Otherwise, {@link
      * Callbacks#onLoaderStart()} will be called to give you the opportunity to show any loading ui.
-     * You may pass in null to clear the callbacks. This must be called on the main thread.
+     * You may pass in null to clear the callbacks. If the loader is paused, this will happen when it
+     * is resumed instead. This triggers {@link #onAttach()} or {@link #onDetach()} if the loader
+     * went from having no callbacks to having some or back. This must be called on the main thread.
      */
     @MainThread
     public final void setCallbacks(@Nullable final Callbacks<T> callbacks) {
+        boolean wasAttached = this.callbacks != null;
         this.callbacks = callbacks;
         handler.removeMessages(0);
         if (callbacks != null) {
-            int methods = 0;
-            if (hasResult()) {
-                methods |= CALLBACKS_RESULT;
-            } else if (isRunning()) {
-                methods |= CALLBACKS_START;
+            if (paused) {
+                pendingDispatch = true;
+            } else {
+                dispatchCurrentState(callbacks);
             }
-            if (isCompleted()) {
-                methods |= CALLBACKS_COMPLETE;
+            if (!wasAttached && !isDestroyed()) {
+                onAttach();
             }
-            dispatchCallbacks(callbacks, methods);
+        } else if (wasAttached && !isDestroyed()) {
+            onDetach();
+        }
+    }
+
+    /**
+     * Returns the attached callbacks so they can be moved to another loader.
+     */
+    @Nullable
+    Callbacks<T> getCallbacks() {
+        return callbacks;
+    }
+
+    /**
+     * Returns the cached result, for {@link LoaderDump}.
+     */
+    T getCachedResult() {
+        return cachedResult;
+    }
+
+    /**
+     * Returns if the loader has been destroyed, for {@link LoaderDump}.
+     */
+    boolean isDestroyed() {
+        return (state.get() & STATE_DESTROYED) == STATE_DESTROYED;
+    }
+
+    /**
+     * Delivers the cached result to callbacks that are being brought up to date after {@link
+     * #setCallbacks(Callbacks)} or {@link #resume()}. This is only called if there is a cached
+     * result. Optionally override this to replay more than the latest result, for example results
+     * the callbacks missed while paused, the cached result should be delivered last. This is run on
+     * the main thread.
+     */
+    protected void dispatchCachedResult(Callbacks<T> callbacks, T cachedResult) {
+        callbacks.onLoaderResult(cachedResult);
+    }
+
+    /**
+     * Optionally deliver anything else the loader holds, like an error, to callbacks that are being
+     * brought up to date after {@link #setCallbacks(Callbacks)} or {@link #resume()}. This is
+     * called even if there is no cached result, after it or {@link Callbacks#onLoaderStart()} and
+     * before {@link Callbacks#onLoaderComplete()}. This is run on the main thread.
+     */
+    protected void dispatchHeldState(Callbacks<T> callbacks) {
+    }
+
+    /**
+     * Returns the {@link SystemClock#elapsedRealtime()} the loader was created at, for {@link
+     * LoaderDump}.
+     */
+    long getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * Brings newly attached or resumed callbacks up to date with the loader's state.
+     */
+    private void dispatchCurrentState(Callbacks<T> callbacks) {
+        int methods = CALLBACKS_CATCH_UP;
+        if (hasResult()) {
+            methods |= CALLBACKS_RESULT;
+        } else if (isRunning()) {
+            methods |= CALLBACKS_START;
+        }
+        if (isCompleted()) {
+            methods |= CALLBACKS_COMPLETE;
         }
+        dispatchCallbacks(callbacks, methods);
     }
 
     /**
@@ -264,7 +425,9 @@ public abstract class Loader<T> {
             state.set(s | STATE_HAS_RESULT);
 
             cachedResult = result;
-            if (callbacks != null) {
+            if (paused) {
+                pendingDispatch = true;
+            } else if (callbacks != null) {
                 if ((myState & SYNCHRONOUS) == SYNCHRONOUS) {
                     dispatchCallbacks(callbacks, CALLBACKS_RESULT);
                 } else {
@@ -290,7 +453,9 @@ public abstract class Loader<T> {
             int s = state.get();
             state.set((s & ~STATE_RUNNING) | STATE_COMPLETED);
 
-            if (callbacks != null) {
+            if (paused) {
+                pendingDispatch = true;
+            } else if (callbacks != null) {
                 if ((myState & SYNCHRONOUS) == SYNCHRONOUS) {
                     dispatchCallbacks(callbacks, CALLBACKS_COMPLETE);
                 } else {
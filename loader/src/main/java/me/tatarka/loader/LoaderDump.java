@@ -0,0 +1,199 @@
+package me.tatarka.loader;
+
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.support.annotation.MainThread;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import me.tatarka.retainstate.RetainState;
+
+/**
+ * Dumps every live {@link LoaderManager} and {@link Loader} in the process as compact text, for
+ * debugging why something is still alive. Hook it up to a debug menu or to your Activity's {@code
+ * dump()} so that it shows up in {@code adb shell dumpsys activity}.
+ * <pre>{@code
+ * public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+ *     super.dump(prefix, fd, writer, args);
+ *     LoaderDump.dump(prefix, writer, getRetainState());
+ * }
+ * }</pre>
+ * Each loader manager is listed with its path of ids from the given roots, or {@code
+ * <unreachable>} if it isn't under any of them. An unreachable loader manager that has loaders is
+ * likely leaked, or is owned by another Activity. Each loader is listed as:
+ * <pre>
+ * #id ClassName RHCD-AP age=1234ms result=String ~48B
+ * </pre>
+ * where the flags are (R)unning, (H)as result, (C)ompleted, (D)estroyed, (A)ttached and (P)aused,
+ * with {@code -} for unset.
+ */
+public final class LoaderDump {
+
+    private LoaderDump() {
+    }
+
+    /**
+     * Returns the dump as a string. See {@link #dump(String, PrintWriter, RetainState...)}.
+     */
+    @MainThread
+    public static String dump(RetainState... roots) {
+        StringWriter result = new StringWriter();
+        PrintWriter writer = new PrintWriter(result);
+        dump("", writer, roots);
+        writer.flush();
+        return result.toString();
+    }
+
+    /**
+     * Writes every live loader manager and its loaders to the given writer.
+     *
+     * @param prefix Prepended to every line.
+     * @param writer The writer to write to.
+     * @param roots  The retain states to search for paths to each loader manager, like your
+     *               Activity's. Nested {@link RetainState}s are searched too.
+     */
+    @MainThread
+    public static void dump(String prefix, PrintWriter writer, RetainState... roots) {
+        Map<LoaderManager, String> paths = new IdentityHashMap<>();
+        for (RetainState root : roots) {
+            if (root != null) {
+                findPaths(root, "", paths);
+            }
+        }
+        long now = SystemClock.elapsedRealtime();
+        List<LoaderManager> live = LoaderManager.getLive();
+        writer.print(prefix);
+        writer.print("LoaderManagers: ");
+        writer.println(live.size());
+        for (LoaderManager loaderManager : live) {
+            String path = paths.get(loaderManager);
+            writer.print(prefix);
+            writer.print("  LoaderManager@");
+            writer.print(Integer.toHexString(System.identityHashCode(loaderManager)));
+            writer.print(" path=");
+            writer.print(path != null ? path : "<unreachable>");
+            writer.print(" size=");
+            writer.print(loaderManager.size());
+            if (loaderManager.maxSize() > 0) {
+                writer.print('/');
+                writer.print(loaderManager.maxSize());
+                writer.print(" evicted=");
+                writer.print(loaderManager.evictionCount());
+            }
+            if (loaderManager.isPaused()) {
+                writer.print(" paused");
+            }
+            writer.println();
+            for (int i = 0, size = loaderManager.size(); i < size; i++) {
+                Loader<?> loader = loaderManager.valueAt(i);
+                if (loader == null) {
+                    continue;
+                }
+                writer.print(prefix);
+                writer.print("    #");
+                writer.print(formatId(loaderManager.keyAt(i)));
+                writer.print(' ');
+                writer.print(loader.getClass().getName());
+                writer.print(' ');
+                writer.print(flags(loader));
+                writer.print(" age=");
+                writer.print(now - loader.getCreatedAt());
+                writer.print("ms");
+                if (loader.hasResult()) {
+                    writer.print(" result=");
+                    writer.print(describe(loader.getCachedResult()));
+                }
+                writer.println();
+            }
+        }
+    }
+
+    private static void findPaths(RetainState retainState, String path, Map<LoaderManager, String> paths) {
+        for (int i = 0, size = retainState.size(); i < size; i++) {
+            Object value = retainState.valueAt(i);
+            String childPath = path + "/" + formatId(retainState.keyAt(i));
+            if (value instanceof LoaderManager) {
+                if (!paths.containsKey(value)) {
+                    paths.put((LoaderManager) value, childPath);
+                }
+            } else if (value instanceof RetainState) {
+                findPaths((RetainState) value, childPath, paths);
+            }
+        }
+    }
+
+    /**
+     * Resource ids are easier to look up in hex.
+     */
+    static String formatId(int id) {
+        return (id & 0xff000000) != 0 ? "0x" + Integer.toHexString(id) : Integer.toString(id);
+    }
+
+    static String flags(Loader<?> loader) {
+        char[] flags = new char[6];
+        flags[0] = loader.isRunning() ? 'R' : '-';
+        flags[1] = loader.hasResult() ? 'H' : '-';
+        flags[2] = loader.isCompleted() ? 'C' : '-';
+        flags[3] = loader.isDestroyed() ? 'D' : '-';
+        flags[4] = loader.isAttached() ? 'A' : '-';
+        flags[5] = loader.isPaused() ? 'P' : '-';
+        return new String(flags);
+    }
+
+    /**
+     * Describes the result's type and a rough estimate of its size for common types. This is only
+     * meant to point out suspiciously large results, not to be accurate.
+     */
+    static String describe(Object result) {
+        if (result == null) {
+            return "null";
+        }
+        String name = result.getClass().getSimpleName();
+        if (result instanceof CharSequence) {
+            return name + " ~" + formatBytes(40 + 2L * ((CharSequence) result).length());
+        }
+        if (result instanceof byte[]) {
+            return name + " ~" + formatBytes(16 + ((byte[]) result).length);
+        }
+        if (result instanceof int[]) {
+            return name + " ~" + formatBytes(16 + 4L * ((int[]) result).length);
+        }
+        if (result instanceof long[]) {
+            return name + " ~" + formatBytes(16 + 8L * ((long[]) result).length);
+        }
+        if (result instanceof Object[]) {
+            return name + " length=" + ((Object[]) result).length;
+        }
+        if (result instanceof Collection) {
+            return name + " size=" + ((Collection<?>) result).size();
+        }
+        if (result instanceof Map) {
+            return name + " size=" + ((Map<?, ?>) result).size();
+        }
+        if (result instanceof Bitmap) {
+            Bitmap bitmap = (Bitmap) result;
+            return name + " ~" + formatBytes((long) bitmap.getRowBytes() * bitmap.getHeight());
+        }
+        if (result instanceof Cursor) {
+            Cursor cursor = (Cursor) result;
+            return cursor.isClosed() ? name + " closed" : name + " rows=" + cursor.getCount();
+        }
+        return name;
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + "B";
+        }
+        if (bytes < 1024 * 1024) {
+            return (bytes / 1024) + "KB";
+        }
+        return (bytes / (1024 * 1024)) + "MB";
+    }
+}
@@ -1,7 +1,13 @@
 package me.tatarka.loader;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.util.SparseArray;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
 import me.tatarka.retainstate.RetainState;
 
 /**
@@ -22,7 +28,128 @@ public class LoaderManager {
         }
     };
 
+    /**
+     * Returns a {@link me.tatarka.retainstate.RetainState.OnCreate} for a loader manager bounded
+     * to the given size. See {@link #LoaderManager(int)}.
+     */
+    public static RetainState.OnCreate<LoaderManager> create(final int maxSize) {
+        return new RetainState.OnCreate<LoaderManager>() {
+            @Override
+            public LoaderManager onCreate() {
+                return new LoaderManager(maxSize);
+            }
+        };
+    }
+
+    /**
+     * A {@link PausePolicy} that pauses every loader. This is the default.
+     */
+    public static final PausePolicy PAUSE_ALL = new PausePolicy() {
+        @Override
+        public boolean shouldPause(int id, Loader<?> loader) {
+            return true;
+        }
+    };
+
+    /**
+     * A {@link PausePolicy} that keeps every loader running and delivering while paused.
+     */
+    public static final PausePolicy PAUSE_NONE = new PausePolicy() {
+        @Override
+        public boolean shouldPause(int id, Loader<?> loader) {
+            return false;
+        }
+    };
+
+    /**
+     * Every loader manager in the process so {@link LoaderDump} can find ones that are no longer
+     * reachable from a {@link RetainState} but haven't been collected.
+     */
+    private static final List<WeakReference<LoaderManager>> live = new ArrayList<>();
+    /**
+     * The size {@link #live} can grow to before it's pruned, so creating a loader manager doesn't
+     * scan every other one.
+     */
+    private static int pruneLiveAt = 16;
+
     private SparseArray<Loader<?>> loaders = new SparseArray<>(1);
+    private PausePolicy pausePolicy = PAUSE_ALL;
+    private boolean paused;
+    private SparseArray<KeyedEntry> keyed;
+    private Handler handler;
+
+    private final int maxSize;
+    /**
+     * Loader ids from least to most recently used, only tracked when bounded.
+     */
+    private int[] lru;
+    private int lruSize;
+    private int hitCount;
+    private int missCount;
+    private int createCount;
+    private int evictionCount;
+
+    /**
+     * Constructs an unbounded loader manager that keeps its loaders until they are removed.
+     */
+    public LoaderManager() {
+        this.maxSize = 0;
+        register(this);
+    }
+
+    /**
+     * Constructs a loader manager that holds about {@code maxSize} loaders. When more are
+     * initialized, the least recently used loaders that are both detached and completed are
+     * destroyed. Loaders that are running or attached are never evicted, so the size may
+     * temporarily go over. This is useful when you use a loader per list item. Use {@link
+     * #detach(int)} when an item's view is recycled so its loader can be evicted.
+     */
+    public LoaderManager(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.maxSize = maxSize;
+        this.lru = new int[Math.min(maxSize, 16)];
+        register(this);
+    }
+
+    private static void register(LoaderManager loaderManager) {
+        synchronized (live) {
+            if (live.size() >= pruneLiveAt) {
+                pruneLive();
+                pruneLiveAt = Math.max(16, live.size() * 2);
+            }
+            live.add(new WeakReference<>(loaderManager));
+        }
+    }
+
+    private static void pruneLive() {
+        int kept = 0;
+        for (int i = 0, size = live.size(); i < size; i++) {
+            WeakReference<LoaderManager> ref = live.get(i);
+            if (ref.get() != null) {
+                live.set(kept++, ref);
+            }
+        }
+        live.subList(kept, live.size()).clear();
+    }
+
+    /**
+     * Returns every loader manager that hasn't been garbage collected yet, for {@link LoaderDump}.
+     */
+    static List<LoaderManager> getLive() {
+        synchronized (live) {
+            pruneLive();
+            List<LoaderManager> result = new ArrayList<>(live.size());
+            for (int i = 0, size = live.size(); i < size; i++) {
+                LoaderManager loaderManager = live.get(i).get();
+                if (loaderManager != null) {
+                    result.add(loaderManager);
+                }
+            }
+            return result;
+        }
+    }
 
     /**
      * Initializes a loader, creating it if it doesn't already exist.
@@ -35,17 +162,154 @@ public class LoaderManager {
     public <T, L extends Loader<T>> L init(int id, RetainState.OnCreate<L> create, Loader.Callbacks<T> callbacks) {
         @SuppressWarnings("unchecked")
         L loader = (L) loaders.get(id);
-        if (loader == null) {
+        boolean created = loader == null;
+        if (created) {
+            missCount++;
             loader = create.onCreate();
+            createCount++;
+            loaders.put(id, loader);
+        } else {
+            hitCount++;
+        }
+        if (loader.isAttached()) {
+            throw new IllegalStateException("Loader " + loader + " already has callbacks. Make sure you are using unique ids and that you are calling either detach() or destroy() when the Activity is destroyed.");
+        }
+        if (paused && !loader.isPaused() && pausePolicy.shouldPause(id, loader)) {
+            loader.pause();
+        }
+        loader.setCallbacks(callbacks);
+        touch(id);
+        if (created) {
+            trimToSize(maxSize);
+        }
+        return loader;
+    }
+
+    /**
+     * Returns the loader with the given id, or null if there isn't one. This does not count as a
+     * use for a bounded loader manager.
+     */
+    @SuppressWarnings("unchecked")
+    public <L extends Loader<?>> L get(int id) {
+        return (L) loaders.get(id);
+    }
+
+    /**
+     * Initializes a loader bound to a key, like the query of a search box. The loader is created
+     * for the given key if it doesn't already exist. If it exists for a different key, it's
+     * destroyed and replaced. Use {@link #setKey(int, Object, long)} to switch to a new key
+     * afterwards. As with {@link #init(int, RetainState.OnCreate, Loader.Callbacks)}, you must
+     * start the returned loader yourself.
+     *
+     * @param id        The id to init the loader with, this must be unique for this loader
+     *                  manager.
+     * @param key       The key to load, compared with {@link Object#equals(Object)}.
+     * @param create    Method for creating the loader for a key. It's released on {@link #detach()}
+     *                  so it may reference your Activity.
+     * @param callbacks The loader callbacks. They stay attached as the key changes.
+     */
+    public <K, T, L extends Loader<T>> L initKeyed(int id, K key, OnCreateKeyed<K, L> create, Loader.Callbacks<T> callbacks) {
+        if (keyed == null) {
+            keyed = new SparseArray<>(1);
+        }
+        KeyedEntry entry = keyed.get(id);
+        @SuppressWarnings("unchecked")
+        L loader = (L) loaders.get(id);
+        boolean created = entry == null || loader == null || !equals(entry.key, key);
+        if (created) {
+            missCount++;
+            if (loader != null) {
+                remove(id);
+            }
+            entry = new KeyedEntry(key);
+            keyed.put(id, entry);
+            loader = create.onCreate(key);
+            createCount++;
             loaders.put(id, loader);
+        } else {
+            hitCount++;
         }
+        entry.create = create;
         if (loader.isAttached()) {
             throw new IllegalStateException("Loader " + loader + " already has callbacks. Make sure you are using unique ids and that you are calling either detach() or destroy() when the Activity is destroyed.");
         }
+        if (paused && !loader.isPaused() && pausePolicy.shouldPause(id, loader)) {
+            loader.pause();
+        }
         loader.setCallbacks(callbacks);
+        touch(id);
+        if (created) {
+            trimToSize(maxSize);
+        }
         return loader;
     }
 
+    /**
+     * Switches the keyed loader with the given id to a new key, starting it immediately. See {@link
+     * #setKey(int, Object, long)}.
+     */
+    public <K> void setKey(int id, K key) {
+        setKey(id, key, 0);
+    }
+
+    /**
+     * Switches the keyed loader with the given id to a new key. If the key is equal to the current
+     * one this does nothing. Otherwise the current loader is destroyed right away, so no result for
+     * a stale key is ever delivered, and a new loader for the key is created with the same
+     * callbacks. The new loader is started after {@code debounceMillis}, and if the key changes
+     * again before then it's never started. This lets you call this on every keystroke and only
+     * run a query once typing pauses.
+     *
+     * @throws IllegalStateException if the loader wasn't initialized with {@link #initKeyed(int,
+     *                               Object, OnCreateKeyed, Loader.Callbacks)} or has been detached.
+     */
+    @SuppressWarnings("unchecked")
+    public <K> void setKey(int id, K key, long debounceMillis) {
+        KeyedEntry entry = keyed != null ? keyed.get(id) : null;
+        if (entry == null || entry.create == null) {
+            throw new IllegalStateException("No keyed loader attached for id " + id + ". Make sure you call initKeyed() first.");
+        }
+        if (equals(entry.key, key)) {
+            return;
+        }
+        Loader<Object> oldLoader = (Loader<Object>) loaders.get(id);
+        Loader.Callbacks<Object> callbacks = null;
+        if (oldLoader != null) {
+            callbacks = oldLoader.getCallbacks();
+            oldLoader.setCallbacks(null);
+            oldLoader.destroy();
+        }
+        cancelPendingStart(entry);
+
+        Loader<Object> loader = ((OnCreateKeyed<K, Loader<Object>>) entry.create).onCreate(key);
+        createCount++;
+        entry.key = key;
+        loaders.put(id, loader);
+        touch(id);
+        if (paused && pausePolicy.shouldPause(id, loader)) {
+            loader.pause();
+        }
+        loader.setCallbacks(callbacks);
+        if (debounceMillis <= 0) {
+            loader.start();
+        } else {
+            if (handler == null) {
+                handler = new Handler(Looper.getMainLooper());
+            }
+            entry.pendingStart = new StartLoader(entry, loader);
+            handler.postDelayed(entry.pendingStart, debounceMillis);
+        }
+    }
+
+    /**
+     * Returns the current key of the keyed loader with the given id, or null if there isn't one.
+     */
+    @SuppressWarnings("unchecked")
+    public <K> K getKey(int id) {
+        KeyedEntry entry = keyed != null ? keyed.get(id) : null;
+        return entry != null ? (K) entry.key : null;
+    }
+
     /**
      * Destroys and removes the loader with the given id.
      */
@@ -55,6 +319,27 @@ public class LoaderManager {
             loader.setCallbacks(null);
             loader.destroy();
             loaders.remove(id);
+            untouch(id);
+        }
+        if (keyed != null) {
+            KeyedEntry entry = keyed.get(id);
+            if (entry != null) {
+                cancelPendingStart(entry);
+                keyed.remove(id);
+            }
+        }
+    }
+
+    /**
+     * Detaches the callbacks from the loader with the given id, for example when a list item's view
+     * is recycled. The loader keeps its result, and once it's completed it may be evicted if this
+     * loader manager is bounded.
+     */
+    public void detach(int id) {
+        Loader<?> loader = loaders.get(id);
+        if (loader != null) {
+            loader.setCallbacks(null);
+            trimToSize(maxSize);
         }
     }
 
@@ -64,11 +349,19 @@ public class LoaderManager {
      */
     public void detach() {
         for (int i = 0, size = loaders.size(); i < size; i++) {
-            Loader<?> loader = loaders.get(i);
+            Loader<?> loader = loaders.valueAt(i);
             if (loader != null) {
                 loader.setCallbacks(null);
             }
         }
+        if (keyed != null) {
+            // Don't hold on to anything that creates loaders, it probably references the Activity.
+            // A pending debounced start doesn't need it and will cache its result until
+            // re-attached.
+            for (int i = 0, size = keyed.size(); i < size; i++) {
+                keyed.valueAt(i).create = null;
+            }
+        }
     }
 
     /**
@@ -77,12 +370,68 @@ public class LoaderManager {
      */
     public void destroy() {
         for (int i = 0, size = loaders.size(); i < size; i++) {
-            Loader<?> loader = loaders.get(i);
+            Loader<?> loader = loaders.valueAt(i);
             if (loader != null) {
                 loader.destroy();
             }
         }
         loaders.clear();
+        lruSize = 0;
+        if (keyed != null) {
+            for (int i = 0, size = keyed.size(); i < size; i++) {
+                cancelPendingStart(keyed.valueAt(i));
+            }
+            keyed.clear();
+        }
+    }
+
+    /**
+     * Pauses the loaders chosen by the {@link PausePolicy}, holding their results until {@link
+     * #resume()} is called. You should call this in your Activity or Fragment's {@code onStop()} so
+     * that loaders don't do work or deliver results while nothing is visible. Loaders initialized
+     * while paused are paused as well.
+     */
+    public void pause() {
+        paused = true;
+        for (int i = 0, size = loaders.size(); i < size; i++) {
+            Loader<?> loader = loaders.valueAt(i);
+            if (loader != null && pausePolicy.shouldPause(loaders.keyAt(i), loader)) {
+                loader.pause();
+            }
+        }
+    }
+
+    /**
+     * Resumes all paused loaders, delivering the latest result of each one. You should call this
+     * in your Activity or Fragment's {@code onStart()}.
+     */
+    public void resume() {
+        paused = false;
+        for (int i = 0, size = loaders.size(); i < size; i++) {
+            Loader<?> loader = loaders.valueAt(i);
+            if (loader != null && loader.isPaused()) {
+                loader.resume();
+            }
+        }
+    }
+
+    /**
+     * Returns true if {@link #pause()} has been called without a matching {@link #resume()}.
+     */
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Sets the policy that decides which loaders are paused by {@link #pause()}. Loaders that are
+     * not paused keep working and delivering results in the background. Since the loader manager
+     * is retained, make sure the policy doesn't hold a reference to your Activity.
+     */
+    public void setPausePolicy(PausePolicy pausePolicy) {
+        if (pausePolicy == null) {
+            throw new NullPointerException("pausePolicy == null");
+        }
+        this.pausePolicy = pausePolicy;
     }
 
     /**
@@ -97,4 +446,167 @@ public class LoaderManager {
             destroy();
         }
     }
+
+    /**
+     * Destroys the least recently used loaders that are detached and completed until there are at
+     * most {@code maxSize} loaders or none left that can be evicted. This does nothing if the loader
+     * manager is unbounded.
+     */
+    public void trimToSize(int maxSize) {
+        if (lru == null) {
+            return;
+        }
+        for (int i = 0; i < lruSize && loaders.size() > maxSize; ) {
+            int id = lru[i];
+            Loader<?> loader = loaders.get(id);
+            if (loader != null && !loader.isAttached() && loader.isCompleted()) {
+                // Shifts the remaining ids down so don't advance.
+                remove(id);
+                evictionCount++;
+            } else {
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of loaders in this loader manager.
+     */
+    public int size() {
+        return loaders.size();
+    }
+
+    /**
+     * Returns the id of the loader at the given index, for {@link LoaderDump}.
+     */
+    int keyAt(int index) {
+        return loaders.keyAt(index);
+    }
+
+    /**
+     * Returns the loader at the given index, for {@link LoaderDump}.
+     */
+    Loader<?> valueAt(int index) {
+        return loaders.valueAt(index);
+    }
+
+    /**
+     * Returns the maximum number of loaders before they are evicted, or 0 if unbounded.
+     */
+    public int maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of times an existing loader was returned on init.
+     */
+    public int hitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of times a loader was not found on init.
+     */
+    public int missCount() {
+        return missCount;
+    }
+
+    /**
+     * Returns the number of loaders that have been created.
+     */
+    public int createCount() {
+        return createCount;
+    }
+
+    /**
+     * Returns the number of loaders that have been evicted.
+     */
+    public int evictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Marks the id as most recently used.
+     */
+    private void touch(int id) {
+        if (lru == null) {
+            return;
+        }
+        untouch(id);
+        if (lruSize == lru.length) {
+            int[] newLru = new int[lruSize * 2];
+            System.arraycopy(lru, 0, newLru, 0, lruSize);
+            lru = newLru;
+        }
+        lru[lruSize++] = id;
+    }
+
+    private void untouch(int id) {
+        if (lru == null) {
+            return;
+        }
+        for (int i = lruSize - 1; i >= 0; i--) {
+            if (lru[i] == id) {
+                System.arraycopy(lru, i + 1, lru, i, lruSize - i - 1);
+                lruSize--;
+                return;
+            }
+        }
+    }
+
+    private void cancelPendingStart(KeyedEntry entry) {
+        if (entry.pendingStart != null) {
+            handler.removeCallbacks(entry.pendingStart);
+            entry.pendingStart = null;
+        }
+    }
+
+    private static boolean equals(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Creates a loader for a key. See {@link #initKeyed(int, Object, OnCreateKeyed,
+     * Loader.Callbacks)}.
+     */
+    public interface OnCreateKeyed<K, L extends Loader<?>> {
+        L onCreate(K key);
+    }
+
+    /**
+     * Decides which loaders should be paused when the {@link LoaderManager} is paused.
+     */
+    public interface PausePolicy {
+        /**
+         * Returns true if the loader with the given id should be paused, false if it should keep
+         * working in the background.
+         */
+        boolean shouldPause(int id, Loader<?> loader);
+    }
+
+    private static final class KeyedEntry {
+        Object key;
+        OnCreateKeyed<?, ?> create;
+        Runnable pendingStart;
+
+        KeyedEntry(Object key) {
+            this.key = key;
+        }
+    }
+
+    private static final class StartLoader implements Runnable {
+        private final KeyedEntry entry;
+        private final Loader<?> loader;
+
+        StartLoader(KeyedEntry entry, Loader<?> loader) {
+            this.entry = entry;
+            this.loader = loader;
+        }
+
+        @Override
+        public void run() {
+            entry.pendingStart = null;
+            loader.start();
+        }
+    }
 }
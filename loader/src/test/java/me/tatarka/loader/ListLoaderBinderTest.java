@@ -0,0 +1,144 @@
+package me.tatarka.loader;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class ListLoaderBinderTest {
+
+    LoaderManager loaderManager;
+    ListLoaderBinder<String, TestLoader<String>> binder;
+
+    @Before
+    public void setup() {
+        loaderManager = new LoaderManager(50);
+        binder = new ListLoaderBinder<>(loaderManager, 100, new ListLoaderBinder.OnCreateItem<TestLoader<String>>() {
+            @Override
+            public TestLoader<String> onCreate(int position) {
+                return new TestLoader<>();
+            }
+        });
+        binder.setPrefetchDistance(2);
+        binder.setCancelDistance(5);
+    }
+
+    @Test
+    public void bindStartsLoader() {
+        Loader.Callbacks<String> callbacks = mock(Loader.Callbacks.class);
+        TestLoader<String> loader = binder.bind(0, callbacks);
+
+        assertTrue(loader == loaderManager.get(100));
+        assertTrue(loader.isRunning());
+        verify(callbacks).onLoaderStart();
+    }
+
+    @Test
+    public void rebindSwapsCallbacks() {
+        Loader.Callbacks<String> callbacks1 = mock(Loader.Callbacks.class);
+        Loader.Callbacks<String> callbacks2 = mock(Loader.Callbacks.class);
+        TestLoader<String> loader1 = binder.bind(0, callbacks1);
+        TestLoader<String> loader2 = binder.bind(0, callbacks2);
+        loader2.deliverResult("test");
+
+        assertTrue(loader1 == loader2);
+        verify(callbacks2).onLoaderResult(eq("test"));
+    }
+
+    @Test
+    public void unbindDetaches() {
+        TestLoader<String> loader = binder.bind(0, mock(Loader.Callbacks.class));
+        binder.unbind(0);
+
+        assertFalse(loader.isAttached());
+        assertTrue(loader.isRunning());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unbindNoPositionThrows() {
+        binder.unbind(-1);
+    }
+
+    @Test
+    public void scrollingDownPrefetchesBelow() {
+        binder.onScrolled(0, 3, 100);
+
+        assertRunning(4);
+        assertRunning(5);
+        assertNull(loaderManager.get(106));
+    }
+
+    @Test
+    public void scrollingUpPrefetchesAbove() {
+        binder.onScrolled(20, 23, 100);
+        binder.onScrolled(10, 13, 100);
+
+        assertRunning(9);
+        assertRunning(8);
+        assertNull(loaderManager.get(107));
+    }
+
+    @Test
+    public void prefetchStopsAtEnd() {
+        binder.onScrolled(95, 99, 100);
+
+        assertNull(loaderManager.get(200));
+    }
+
+    @Test
+    public void scrollingAwayCancelsRunningLoaders() {
+        binder.onScrolled(0, 3, 100);
+        TestLoader<String> prefetched = loaderManager.get(104);
+        binder.onScrolled(20, 23, 100);
+
+        assertTrue(prefetched.isCanceled());
+        assertFalse(prefetched.isRunning());
+        assertNotNull(loaderManager.get(104));
+    }
+
+    @Test
+    public void scrollingAwayKeepsCompletedLoaders() {
+        binder.onScrolled(0, 3, 100);
+        TestLoader<String> prefetched = loaderManager.get(104);
+        prefetched.deliverResult("test");
+        prefetched.complete();
+        binder.onScrolled(20, 23, 100);
+
+        assertFalse(prefetched.isCanceled());
+        assertTrue(prefetched.hasResult());
+    }
+
+    @Test
+    public void scrollingAwayKeepsBoundLoaders() {
+        TestLoader<String> loader = binder.bind(0, mock(Loader.Callbacks.class));
+        binder.onScrolled(20, 23, 100);
+
+        assertFalse(loader.isCanceled());
+    }
+
+    @Test
+    public void rebindRestartsCanceledLoader() {
+        binder.onScrolled(0, 3, 100);
+        binder.onScrolled(20, 23, 100);
+        TestLoader<String> loader = binder.bind(4, mock(Loader.Callbacks.class));
+
+        assertTrue(loader.isRunning());
+    }
+
+    private void assertRunning(int position) {
+        Loader<?> loader = loaderManager.get(100 + position);
+        assertNotNull("no loader at " + position, loader);
+        assertTrue("loader at " + position + " not running", loader.isRunning());
+    }
+}
@@ -0,0 +1,77 @@
+package me.tatarka.loader;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import me.tatarka.retainstate.RetainState;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class LoaderDumpTest {
+
+    @Test
+    public void dumpsPathOfLoaderManager() {
+        RetainState root = new RetainState(null);
+        RetainState nested = root.retain(0x7f0c0001, RetainState.CREATE);
+        LoaderManager loaderManager = nested.retain(2, LoaderManager.CREATE);
+        String id = Integer.toHexString(System.identityHashCode(loaderManager));
+
+        String dump = LoaderDump.dump(root);
+
+        assertTrue(dump, dump.contains("LoaderManager@" + id + " path=/0x7f0c0001/2 size=0"));
+    }
+
+    @Test
+    public void dumpsUnreachableLoaderManager() {
+        LoaderManager loaderManager = new LoaderManager();
+        String id = Integer.toHexString(System.identityHashCode(loaderManager));
+
+        String dump = LoaderDump.dump(new RetainState(null));
+
+        assertTrue(dump, dump.contains("LoaderManager@" + id + " path=<unreachable>"));
+    }
+
+    @Test
+    public void dumpsLoaderState() {
+        LoaderManager loaderManager = new LoaderManager();
+        TestLoader<String> loader = loaderManager.init(3, TestLoader.<String>create(), mock(Loader.Callbacks.class));
+        loader.start();
+        loader.deliverResult("test");
+        RetainState root = new RetainState(null);
+
+        String dump = LoaderDump.dump(root);
+
+        assertTrue(dump, dump.contains("#3 " + TestLoader.class.getName() + " RH--A- age="));
+        assertTrue(dump, dump.contains("result=String ~48B"));
+    }
+
+    @Test
+    public void flags() {
+        TestLoader<String> loader = new TestLoader<>();
+        assertEquals("------", LoaderDump.flags(loader));
+        loader.start();
+        loader.pause();
+        assertEquals("R----P", LoaderDump.flags(loader));
+        loader.complete();
+        assertEquals("--C--P", LoaderDump.flags(loader));
+        loader.destroy();
+        assertEquals("---D-P", LoaderDump.flags(loader));
+    }
+
+    @Test
+    public void describe() {
+        assertEquals("null", LoaderDump.describe(null));
+        assertEquals("byte[] ~2KB", LoaderDump.describe(new byte[2048]));
+        assertEquals("ArrayList size=2", LoaderDump.describe(new ArrayList<>(Arrays.asList(1, 2))));
+        assertEquals("Object", LoaderDump.describe(new Object()));
+    }
+}
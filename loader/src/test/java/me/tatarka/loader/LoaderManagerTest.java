@@ -8,12 +8,15 @@ import org.robolectric.RobolectricGradleTestRunner;
 import org.robolectric.annotation.Config;
 import org.robolectric.shadows.ShadowLooper;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 
@@ -105,4 +108,261 @@ public class LoaderManagerTest {
             // pass
         }
     }
+
+    @Test
+    public void detachNonSequentialIds() {
+        Loader.Callbacks<String> callbacks = mock(Loader.Callbacks.class);
+        TestLoader<String> loader = loaderManager.init(5, TestLoader.<String>create(), callbacks);
+        loaderManager.detach();
+
+        assertFalse(loader.isAttached());
+    }
+
+    @Test
+    public void destroyNonSequentialIds() {
+        TestLoader<String> loader = loaderManager.init(5, TestLoader.<String>create(), null);
+        loader.start();
+        loaderManager.destroy();
+
+        assertTrue(loader.isCanceled());
+    }
+
+    @Test
+    public void pausePausesLoaders() {
+        TestLoader<String> loader = loaderManager.init(0, TestLoader.<String>create(), null);
+        loaderManager.pause();
+
+        assertTrue(loaderManager.isPaused());
+        assertTrue(loader.isPaused());
+    }
+
+    @Test
+    public void resumeResumesLoaders() {
+        TestLoader<String> loader = loaderManager.init(0, TestLoader.<String>create(), null);
+        loaderManager.pause();
+        loaderManager.resume();
+
+        assertFalse(loaderManager.isPaused());
+        assertFalse(loader.isPaused());
+    }
+
+    @Test
+    public void initWhilePausedPausesLoader() {
+        loaderManager.pause();
+        TestLoader<String> loader = loaderManager.init(0, TestLoader.<String>create(), null);
+
+        assertTrue(loader.isPaused());
+    }
+
+    @Test
+    public void pausePolicyKeepsLoaderRunning() {
+        loaderManager.setPausePolicy(new LoaderManager.PausePolicy() {
+            @Override
+            public boolean shouldPause(int id, Loader<?> loader) {
+                return id != 1;
+            }
+        });
+        TestLoader<String> loader0 = loaderManager.init(0, TestLoader.<String>create(), null);
+        TestLoader<String> loader1 = loaderManager.init(1, TestLoader.<String>create(), null);
+        loaderManager.pause();
+
+        assertTrue(loader0.isPaused());
+        assertFalse(loader1.isPaused());
+    }
+
+    @Test
+    public void reattachWhilePausedDeliversOnResume() {
+        Loader.Callbacks<String> callbacks1 = mock(Loader.Callbacks.class);
+        Loader.Callbacks<String> callbacks2 = mock(Loader.Callbacks.class);
+        TestLoader<String> loader = loaderManager.init(0, TestLoader.<String>create(), callbacks1);
+        loader.start();
+        loaderManager.pause();
+        loaderManager.detach();
+        loader.deliverResult("test");
+        loaderManager.init(0, TestLoader.<String>create(), callbacks2);
+
+        verifyNoMoreInteractions(callbacks2);
+
+        loaderManager.resume();
+
+        verify(callbacks2).onLoaderResult(eq("test"));
+        verifyNoMoreInteractions(callbacks2);
+    }
+
+    @Test
+    public void initKeyedCreatesLoaderForKey() {
+        KeyedCreate create = new KeyedCreate();
+        TestLoader<String> loader = loaderManager.initKeyed(0, "a", create, null);
+
+        assertTrue(loader == create.last);
+        assertEquals("a", create.lastKey);
+        assertEquals("a", loaderManager.getKey(0));
+    }
+
+    @Test
+    public void initKeyedSameKeyReusesLoader() {
+        TestLoader<String> loader1 = loaderManager.initKeyed(0, "a", new KeyedCreate(), null);
+        loaderManager.detach();
+        TestLoader<String> loader2 = loaderManager.initKeyed(0, "a", new KeyedCreate(), null);
+
+        assertTrue(loader1 == loader2);
+    }
+
+    @Test
+    public void initKeyedDifferentKeyReplacesLoader() {
+        TestLoader<String> loader1 = loaderManager.initKeyed(0, "a", new KeyedCreate(), null);
+        loaderManager.detach();
+        TestLoader<String> loader2 = loaderManager.initKeyed(0, "b", new KeyedCreate(), null);
+
+        assertTrue(loader1 != loader2);
+        assertEquals("b", loaderManager.getKey(0));
+    }
+
+    @Test
+    public void setKeyStartsNewLoaderAndDropsStaleResult() {
+        Loader.Callbacks<String> callbacks = mock(Loader.Callbacks.class);
+        KeyedCreate create = new KeyedCreate();
+        TestLoader<String> loader1 = loaderManager.initKeyed(0, "a", create, callbacks);
+        loader1.start();
+        loaderManager.setKey(0, "b");
+        TestLoader<String> loader2 = create.last;
+        loader1.deliverResult("a");
+        loader2.deliverResult("b");
+
+        assertTrue(loader1 != loader2);
+        assertTrue(loader1.isCanceled());
+        assertTrue(loader2.isRunning());
+        verify(callbacks, times(2)).onLoaderStart();
+        verify(callbacks).onLoaderResult(eq("b"));
+        verifyNoMoreInteractions(callbacks);
+    }
+
+    @Test
+    public void setKeySameKeyDoesNothing() {
+        KeyedCreate create = new KeyedCreate();
+        TestLoader<String> loader = loaderManager.initKeyed(0, "a", create, null);
+        loader.start();
+        loaderManager.setKey(0, "a");
+
+        assertTrue(create.last == loader);
+        assertTrue(loader.isRunning());
+    }
+
+    @Test
+    public void setKeyDebouncesStart() {
+        KeyedCreate create = new KeyedCreate();
+        loaderManager.initKeyed(0, "a", create, null).start();
+        loaderManager.setKey(0, "ab", 300);
+        TestLoader<String> loader1 = create.last;
+        ShadowLooper.idleMainLooper(100);
+        loaderManager.setKey(0, "abc", 300);
+        TestLoader<String> loader2 = create.last;
+        ShadowLooper.idleMainLooper(299);
+
+        assertFalse(loader1.isRunning());
+        assertFalse(loader2.isRunning());
+
+        ShadowLooper.idleMainLooper(1);
+
+        assertFalse(loader1.isRunning());
+        assertTrue(loader2.isRunning());
+    }
+
+    @Test
+    public void removeCancelsDebouncedStart() {
+        KeyedCreate create = new KeyedCreate();
+        loaderManager.initKeyed(0, "a", create, null);
+        loaderManager.setKey(0, "b", 300);
+        TestLoader<String> loader = create.last;
+        loaderManager.remove(0);
+        ShadowLooper.idleMainLooper(300);
+
+        assertFalse(loader.isRunning());
+        assertNull(loaderManager.getKey(0));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void setKeyAfterDetachThrows() {
+        loaderManager.initKeyed(0, "a", new KeyedCreate(), null);
+        loaderManager.detach();
+        loaderManager.setKey(0, "b");
+    }
+
+    @Test
+    public void boundedEvictsLeastRecentlyUsedCompletedDetachedLoader() {
+        LoaderManager loaderManager = new LoaderManager(2);
+        TestLoader<String> loader0 = completedLoader(loaderManager, 0);
+        TestLoader<String> loader1 = completedLoader(loaderManager, 1);
+        loaderManager.detach(0);
+        loaderManager.detach(1);
+        loaderManager.init(0, TestLoader.<String>create(), null);
+        loaderManager.detach(0);
+        loaderManager.init(2, TestLoader.<String>create(), null);
+
+        assertEquals(2, loaderManager.size());
+        assertEquals(1, loaderManager.evictionCount());
+        assertTrue(loader0 == loaderManager.init(0, TestLoader.<String>create(), null));
+        assertFalse(loader1 == loaderManager.init(1, TestLoader.<String>create(), null));
+    }
+
+    @Test
+    public void boundedKeepsRunningAndAttachedLoaders() {
+        LoaderManager loaderManager = new LoaderManager(1);
+        Loader.Callbacks<String> callbacks = mock(Loader.Callbacks.class);
+        loaderManager.init(0, TestLoader.<String>create(), callbacks).start();
+        completedLoader(loaderManager, 1);
+        loaderManager.init(2, TestLoader.<String>create(), null).start();
+        loaderManager.detach(2);
+
+        assertEquals(3, loaderManager.size());
+        assertEquals(0, loaderManager.evictionCount());
+    }
+
+    @Test
+    public void boundedEvictsOnDetach() {
+        LoaderManager loaderManager = new LoaderManager(1);
+        TestLoader<String> loader0 = completedLoader(loaderManager, 0);
+        completedLoader(loaderManager, 1);
+
+        assertEquals(2, loaderManager.size());
+
+        loaderManager.detach(0);
+
+        assertEquals(1, loaderManager.size());
+        assertEquals(1, loaderManager.evictionCount());
+        assertFalse(loader0 == loaderManager.init(0, TestLoader.<String>create(), null));
+    }
+
+    @Test
+    public void countsHitsAndMisses() {
+        loaderManager.init(0, TestLoader.<String>create(), null);
+        loaderManager.detach();
+        loaderManager.init(0, TestLoader.<String>create(), null);
+        loaderManager.init(1, TestLoader.<String>create(), null);
+
+        assertEquals(1, loaderManager.hitCount());
+        assertEquals(2, loaderManager.missCount());
+        assertEquals(2, loaderManager.createCount());
+        assertEquals(0, loaderManager.maxSize());
+    }
+
+    private static TestLoader<String> completedLoader(LoaderManager loaderManager, int id) {
+        TestLoader<String> loader = loaderManager.init(id, TestLoader.<String>create(), mock(Loader.Callbacks.class));
+        loader.start();
+        loader.deliverResult("test");
+        loader.complete();
+        return loader;
+    }
+
+    static class KeyedCreate implements LoaderManager.OnCreateKeyed<String, TestLoader<String>> {
+        String lastKey;
+        TestLoader<String> last;
+
+        @Override
+        public TestLoader<String> onCreate(String key) {
+            lastKey = key;
+            last = new TestLoader<>();
+            return last;
+        }
+    }
 }
@@ -3,6 +3,7 @@ package me.tatarka.loader;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.InOrder;
 import org.mockito.MockitoAnnotations;
 import org.mockito.Spy;
 import org.robolectric.RobolectricGradleTestRunner;
@@ -13,6 +14,7 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
@@ -225,6 +227,33 @@ public class LoaderTest {
         verifyNoMoreInteractions(callbacks);
     }
 
+    @Test
+    public void runningWithoutResultCatchesUpWithStartAndHeldState() {
+        Loader.Callbacks<String> callbacks = mock(Loader.Callbacks.class);
+        loader.start();
+        loader.setCallbacks(callbacks);
+
+        InOrder inOrder = inOrder(callbacks, loader);
+        inOrder.verify(callbacks).onLoaderStart();
+        inOrder.verify(loader).dispatchHeldState(callbacks);
+        verify(loader, never()).dispatchCachedResult(any(Loader.Callbacks.class), any(String.class));
+        verifyNoMoreInteractions(callbacks);
+    }
+
+    @Test
+    public void completedWithoutResultCatchesUpWithHeldStateAndComplete() {
+        Loader.Callbacks<String> callbacks = mock(Loader.Callbacks.class);
+        loader.start();
+        loader.complete();
+        loader.setCallbacks(callbacks);
+
+        InOrder inOrder = inOrder(callbacks, loader);
+        inOrder.verify(loader).dispatchHeldState(callbacks);
+        inOrder.verify(callbacks).onLoaderComplete();
+        verify(loader, never()).dispatchCachedResult(any(Loader.Callbacks.class), any(String.class));
+        verifyNoMoreInteractions(callbacks);
+    }
+
     @Test
     public void deliverResultAfterComplete() {
         Loader.Callbacks<String> callbacks = mock(Loader.Callbacks.class);
@@ -297,4 +326,125 @@ public class LoaderTest {
 
         assertTrue(loader.isCanceled());
     }
+
+    @Test
+    public void pauseCallsOnPause() {
+        loader.pause();
+
+        assertTrue(loader.isPaused());
+        verify(loader).onPause();
+    }
+
+    @Test
+    public void resumeCallsOnResume() {
+        loader.pause();
+        loader.resume();
+
+        assertFalse(loader.isPaused());
+        verify(loader).onResume();
+    }
+
+    @Test
+    public void pausedDoesNotCallCallbacks() {
+        Loader.Callbacks<String> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.pause();
+        loader.start();
+        loader.deliverResult("test");
+        loader.complete();
+
+        verifyZeroInteractions(callbacks);
+    }
+
+    @Test
+    public void resumeDeliversLatestResultOnce() {
+        Loader.Callbacks<String> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+        loader.pause();
+        loader.deliverResult("test1");
+        loader.deliverResult("test2");
+        loader.resume();
+
+        verify(callbacks).onLoaderStart();
+        verify(callbacks).onLoaderResult(eq("test2"));
+        verifyNoMoreInteractions(callbacks);
+    }
+
+    @Test
+    public void resumeDeliversComplete() {
+        Loader.Callbacks<String> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+        loader.pause();
+        loader.deliverResult("test");
+        loader.complete();
+        loader.resume();
+
+        verify(callbacks).onLoaderStart();
+        verify(callbacks).onLoaderResult(eq("test"));
+        verify(callbacks).onLoaderComplete();
+        verifyNoMoreInteractions(callbacks);
+    }
+
+    @Test
+    public void resumeWithoutChangesDoesNotRedeliver() {
+        Loader.Callbacks<String> callbacks = mock(Loader.Callbacks.class);
+        loader.setCallbacks(callbacks);
+        loader.start();
+        loader.deliverResult("test");
+        loader.pause();
+        loader.resume();
+
+        verify(callbacks).onLoaderStart();
+        verify(callbacks).onLoaderResult(eq("test"));
+        verifyNoMoreInteractions(callbacks);
+    }
+
+    @Test
+    public void setCallbacksWhilePausedDeliversOnResume() {
+        Loader.Callbacks<String> callbacks = mock(Loader.Callbacks.class);
+        loader.start();
+        loader.deliverResult("test");
+        loader.pause();
+        loader.setCallbacks(callbacks);
+
+        verifyZeroInteractions(callbacks);
+
+        loader.resume();
+
+        verify(callbacks).onLoaderResult(eq("test"));
+        verifyNoMoreInteractions(callbacks);
+    }
+
+    @Test
+    public void setCallbacksCallsOnAttach() {
+        loader.setCallbacks(mock(Loader.Callbacks.class));
+
+        verify(loader).onAttach();
+    }
+
+    @Test
+    public void replacingCallbacksDoesNotCallOnAttachAgain() {
+        loader.setCallbacks(mock(Loader.Callbacks.class));
+        loader.setCallbacks(mock(Loader.Callbacks.class));
+
+        verify(loader).onAttach();
+        verify(loader, never()).onDetach();
+    }
+
+    @Test
+    public void clearingCallbacksCallsOnDetach() {
+        loader.setCallbacks(mock(Loader.Callbacks.class));
+        loader.setCallbacks(null);
+
+        verify(loader).onDetach();
+    }
+
+    @Test
+    public void clearingNoCallbacksDoesNotCallOnDetach() {
+        loader.setCallbacks(null);
+
+        verify(loader, never()).onDetach();
+    }
 }
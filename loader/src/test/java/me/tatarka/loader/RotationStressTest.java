@@ -0,0 +1,115 @@
+package me.tatarka.loader;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import me.tatarka.retainstate.RetainState;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs the full configuration change cycle an Activity goes through over and over with many
+ * loaders and reports rotations per second, main thread time per rotation and garbage per rotation.
+ * The defaults keep this quick enough to run with the rest of the tests, to get meaningful numbers
+ * run with something like {@code ./gradlew :loader:testDebugUnitTest -Dstress.rotations=2000
+ * -Dstress.loaders=500 -i}.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class RotationStressTest {
+    static final int LOADER_MANAGER_ID = 0;
+
+    final int rotations = Integer.getInteger("stress.rotations", 50);
+    final int loaders = Integer.getInteger("stress.loaders", 200);
+
+    @Test
+    public void rotate() {
+        Object retained = null;
+        // Warm up so class loading and JIT don't end up in the numbers.
+        for (int i = 0; i < Math.max(10, rotations / 10); i++) {
+            retained = rotation(retained);
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long startNanos = System.nanoTime();
+        long startCpu = threads.getCurrentThreadCpuTime();
+        long startAllocated = allocatedBytes(threads);
+        for (int i = 0; i < rotations; i++) {
+            retained = rotation(retained);
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long cpuNanos = threads.getCurrentThreadCpuTime() - startCpu;
+        long allocated = allocatedBytes(threads) - startAllocated;
+
+        System.out.println(String.format("%d rotations with %d loaders", rotations, loaders));
+        System.out.println(String.format("  %.1f rotations/s", rotations / (elapsedNanos / 1e9)));
+        System.out.println(String.format("  %.1f us main thread time/rotation", cpuNanos / 1e3 / rotations));
+        if (startAllocated >= 0) {
+            System.out.println(String.format("  %d bytes allocated/rotation", allocated / rotations));
+        }
+
+        // Finish for good.
+        RetainState retainState = new RetainState(retained);
+        retainState.retain(LOADER_MANAGER_ID, LoaderManager.CREATE).onDestroy(retainState);
+    }
+
+    /**
+     * One Activity lifetime: create, start, stop, retain, destroy. Returns the retained state to
+     * hand to the next one.
+     */
+    private Object rotation(Object lastInstance) {
+        // onCreate()
+        RetainState retainState = new RetainState(lastInstance);
+        LoaderManager loaderManager = retainState.retain(LOADER_MANAGER_ID, LoaderManager.CREATE);
+        CountingCallbacks callbacks = new CountingCallbacks();
+        for (int i = 0; i < loaders; i++) {
+            TestLoader<Integer> loader = loaderManager.init(i, TestLoader.<Integer>create(), callbacks);
+            if (!loader.isRunning() && !loader.isCompleted()) {
+                loader.start();
+                loader.deliverResult(i);
+                loader.complete();
+            }
+        }
+        // onStart()
+        loaderManager.resume();
+        ShadowLooper.runUiThreadTasks();
+        assertEquals("every loader should redeliver its result", loaders, callbacks.results);
+        // onStop()
+        loaderManager.pause();
+        // onRetainNonConfigurationInstance()
+        Object retained = retainState.onRetain();
+        // onDestroy()
+        loaderManager.onDestroy(retainState);
+        return retained;
+    }
+
+    private static long allocatedBytes(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    static class CountingCallbacks implements Loader.Callbacks<Integer> {
+        int results;
+
+        @Override
+        public void onLoaderStart() {
+        }
+
+        @Override
+        public void onLoaderResult(Integer result) {
+            results++;
+        }
+
+        @Override
+        public void onLoaderComplete() {
+        }
+    }
+}
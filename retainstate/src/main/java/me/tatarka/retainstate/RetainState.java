@@ -141,6 +141,34 @@ public class RetainState implements Iterable<Object> {
         return null;
     }
 
+    /**
+     * Returns the number of retained objects.
+     */
+    public int size() {
+        return state == null ? 0 : state.size();
+    }
+
+    /**
+     * Returns the id of the retained object at the given index, for {@code 0 <= index < size()}.
+     */
+    public int keyAt(int index) {
+        if (state == null) {
+            throw new IndexOutOfBoundsException("index " + index + " out of range for size 0");
+        }
+        return state.keyAt(index);
+    }
+
+    /**
+     * Returns the retained object at the given index, for {@code 0 <= index < size()}.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T valueAt(int index) {
+        if (state == null) {
+            throw new IndexOutOfBoundsException("index " + index + " out of range for size 0");
+        }
+        return (T) state.valueAt(index);
+    }
+
     @Override
     @SuppressWarnings("unchecked")
     public Iterator<Object> iterator() {
@@ -127,4 +127,19 @@ public class RetainStateTest {
 
         assertEquals("test", result);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void keyAt_and_valueAt_return_retained_objects_by_index() throws Exception {
+        RetainState retainState = new RetainState(null);
+        retainState.retain(2, new RetainState.OnCreate<String>() {
+            @Override
+            public String onCreate() {
+                return "test";
+            }
+        });
+
+        assertEquals(1, retainState.size());
+        assertEquals(2, retainState.keyAt(0));
+        assertEquals("test", retainState.valueAt(0));
+    }
+}